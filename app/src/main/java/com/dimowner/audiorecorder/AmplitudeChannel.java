@@ -0,0 +1,193 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dimowner.audiorecorder;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes recording amplitudes from one writer thread to any count of readers without locks.
+ * <p>
+ * Writer stores amplitude and recording time into a ring and then advances the sequence with
+ * a release store, so a reader which sees the sequence also sees the stored values. Every reader
+ * keeps its own cursor and takes all amplitudes published since its previous read in one batch,
+ * at the rate it draws at. Writer never waits for readers: a reader which falls behind by more
+ * than the ring capacity loses the oldest amplitudes, it detects values overwritten while copying
+ * by reading the sequence again. Ring slots are read with acquire loads, so the copy can not be
+ * reordered after that second sequence read (plain loads need a load-load fence, which is
+ * available only on API 33).
+ */
+public class AmplitudeChannel {
+
+	/** Default capacity, about 27 seconds of amplitudes published every 27 mills. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final AtomicIntegerArray amps;
+	private final AtomicLongArray mills;
+	private final int capacity;
+	private final int mask;
+	/** Count of published amplitudes, written by writer only. */
+	private final AtomicLong sequence = new AtomicLong();
+
+	public AmplitudeChannel() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Count of amplitudes kept for readers, rounded up to power of two.
+	 */
+	public AmplitudeChannel(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.capacity = Math.max(2, size);
+		amps = new AtomicIntegerArray(this.capacity);
+		mills = new AtomicLongArray(this.capacity);
+		mask = this.capacity - 1;
+	}
+
+	/**
+	 * Publish next amplitude, called by writer thread only.
+	 * @param amp Amplitude.
+	 * @param recordingMills Recording time of the amplitude.
+	 */
+	public void publish(int amp, long recordingMills) {
+		long s = sequence.get();
+		int index = (int) s & mask;
+		amps.lazySet(index, amp);
+		mills.lazySet(index, recordingMills);
+		sequence.lazySet(s + 1);
+	}
+
+	/**
+	 * Count of amplitudes published so far.
+	 */
+	public long getSequence() {
+		return sequence.get();
+	}
+
+	/**
+	 * @return Last published amplitude or -1 if nothing was published.
+	 */
+	public int getLastAmp() {
+		long s = sequence.get();
+		if (s == 0) {
+			return -1;
+		}
+		int amp = amps.get((int) (s - 1) & mask);
+		//Slot of amplitude s - 1 is rewritten while the writer publishes amplitude s - 1 + capacity.
+		return sequence.get() - s < capacity - 1 ? amp : -1;
+	}
+
+	/**
+	 * @return Recording time of the last published amplitude or 0 if nothing was published.
+	 */
+	public long getLastMills() {
+		long s = sequence.get();
+		if (s == 0) {
+			return 0;
+		}
+		long m = mills.get((int) (s - 1) & mask);
+		return sequence.get() - s < capacity - 1 ? m : 0;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Reader starting from the next published amplitude.
+	 */
+	public Reader newReader() {
+		return new Reader();
+	}
+
+	/**
+	 * Cursor of one consumer, it must be used by one thread at a time.
+	 */
+	public class Reader {
+
+		private long cursor;
+		private long lastMills;
+		private long lostCount = 0;
+
+		private Reader() {
+			cursor = sequence.get();
+		}
+
+		/**
+		 * Copy amplitudes published since the previous read.
+		 * @param dst Destination, when it is shorter than the batch the oldest amplitudes are skipped.
+		 * @return Count of amplitudes copied into dst.
+		 */
+		public int read(int[] dst) {
+			long end = sequence.get();
+			long start = Math.max(cursor, end - Math.min(dst.length, capacity));
+			int count = (int) (end - start);
+			if (count <= 0) {
+				return 0;
+			}
+			for (int i = 0; i < count; i++) {
+				dst[i] = amps.get((int) (start + i) & mask);
+			}
+			long m = mills.get((int) (end - 1) & mask);
+			//Writer may have overwritten the oldest copied values while they were read.
+			long valid = sequence.get() + 1 - capacity;
+			if (valid > start) {
+				int overwritten = (int) Math.min(count, valid - start);
+				count -= overwritten;
+				System.arraycopy(dst, overwritten, dst, 0, count);
+				start += overwritten;
+				if (valid > end - 1) {
+					m = lastMills;
+				}
+			}
+			lostCount += start - cursor;
+			cursor = end;
+			lastMills = m;
+			return count;
+		}
+
+		/**
+		 * Skip all published amplitudes, next read returns only amplitudes published after this call.
+		 */
+		public void skip() {
+			cursor = sequence.get();
+		}
+
+		/**
+		 * @return True if amplitudes were published since the previous read.
+		 */
+		public boolean hasNew() {
+			return sequence.get() != cursor;
+		}
+
+		/**
+		 * Recording time of the last amplitude taken by {@link #read(int[])}.
+		 */
+		public long getLastMills() {
+			return lastMills;
+		}
+
+		/**
+		 * Count of amplitudes this reader missed because it fell behind.
+		 */
+		public long getLostCount() {
+			return lostCount;
+		}
+	}
+}
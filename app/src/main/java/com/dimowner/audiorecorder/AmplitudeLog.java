@@ -0,0 +1,210 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder;
+
+import com.dimowner.audiorecorder.util.AmplitudeReducer;
+
+/**
+ * Amplitudes collected while recording, memory use does not depend on recording duration.
+ * <p>
+ * Recent amplitudes are kept in fixed size chunks reused in a ring, so append is O(1) and
+ * never copies stored values. Older amplitudes are dropped chunk by chunk and are available
+ * only in the summary: a constant count of buckets holding min, max and mean amplitude
+ * of equal ranges of the whole recording, see {@link AmplitudeReducer}.
+ * <p>
+ * Amplitudes are appended by one thread, {@link #get(int)} and {@link #view(int, int)} may be
+ * used by other threads for the retained range.
+ */
+public class AmplitudeLog {
+
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/** Default count of retained recent amplitudes, 30 minutes of amplitudes taken every 27 mills. */
+	public static final int DEFAULT_RETAINED_SIZE = 1 << 16;
+	/** Default count of summary buckets. */
+	public static final int DEFAULT_SUMMARY_SIZE = 4096;
+
+	private final int[][] chunks;
+	private final int chunkMask;
+	private volatile int size = 0;
+
+	private final AmplitudeReducer summary;
+
+	public AmplitudeLog() {
+		this(DEFAULT_RETAINED_SIZE, DEFAULT_SUMMARY_SIZE);
+	}
+
+	/**
+	 * @param retainedSize Min count of recent amplitudes available through {@link #get(int)},
+	 *                     rounded up to whole chunks.
+	 * @param summarySize Count of summary buckets, rounded up to even value. Use at least twice
+	 *                    the size of waveform produced by {@link #toWaveform(int)}.
+	 */
+	public AmplitudeLog(int retainedSize, int summarySize) {
+		int chunkCount = (Math.max(1, retainedSize) + CHUNK_SIZE - 1) / CHUNK_SIZE + 1;
+		int tableSize = Integer.highestOneBit(chunkCount - 1) << 1;
+		chunks = new int[Math.max(2, tableSize)][];
+		chunkMask = chunks.length - 1;
+		summary = new AmplitudeReducer(summarySize);
+	}
+
+	public synchronized void add(int amp) {
+		int index = size;
+		int slot = (index >> CHUNK_SHIFT) & chunkMask;
+		if (chunks[slot] == null) {
+			chunks[slot] = new int[CHUNK_SIZE];
+		}
+		chunks[slot][index & CHUNK_MASK] = amp;
+		summary.add(amp);
+		size = index + 1;
+	}
+
+	/**
+	 * Count of all appended amplitudes, including amplitudes which are no longer retained.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Index of the oldest retained amplitude.
+	 */
+	public int getFirstIndex() {
+		return firstIndex(size);
+	}
+
+	private int firstIndex(int size) {
+		if (size == 0) {
+			return 0;
+		}
+		int lastChunk = (size - 1) >> CHUNK_SHIFT;
+		return Math.max(0, lastChunk - chunkMask) << CHUNK_SHIFT;
+	}
+
+	/**
+	 * @param index Index between {@link #getFirstIndex()} and {@link #size()}.
+	 */
+	public int get(int index) {
+		int s = size;
+		if (index >= s || index < firstIndex(s)) {
+			throw new IndexOutOfBoundsException("Index " + index + " is not retained, size " + s);
+		}
+		return chunks[(index >> CHUNK_SHIFT) & chunkMask][index & CHUNK_MASK];
+	}
+
+	/**
+	 * Range of retained amplitudes backed by the log, values are not copied.
+	 * Range start is moved forward if part of the range is no longer retained.
+	 * @param from First index, inclusive.
+	 * @param to Last index, exclusive.
+	 */
+	public Range view(int from, int to) {
+		int s = size;
+		int end = Math.min(to, s);
+		int start = Math.min(Math.max(from, firstIndex(s)), end);
+		return new Range(start, end);
+	}
+
+	/**
+	 * Range of at most count latest amplitudes.
+	 */
+	public Range tail(int count) {
+		int s = size;
+		return view(s - Math.max(0, count), s);
+	}
+
+	/**
+	 * Count of summary buckets.
+	 */
+	public synchronized int getSummarySize() {
+		return summary.size();
+	}
+
+	/**
+	 * Count of amplitudes in each summary bucket except the last one which may have less.
+	 */
+	public synchronized int getSamplesPerBucket() {
+		return summary.getSamplesPerBucket();
+	}
+
+	/**
+	 * Copy mean amplitudes of summary buckets.
+	 * @param out Array of at least {@link #getSummarySize()} values.
+	 * @return Count of copied values.
+	 */
+	public synchronized int getSummary(int[] out) {
+		int count = Math.min(out.length, summary.size());
+		for (int i = 0; i < count; i++) {
+			out[i] = summary.getMean(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Waveform of the whole recording made from the summary, see {@link AmplitudeReducer#toWaveform(int)}.
+	 */
+	public synchronized int[] toWaveform(int outputSize) {
+		return summary.toWaveform(outputSize);
+	}
+
+	/**
+	 * Remove all amplitudes, allocated chunks are kept for reuse.
+	 */
+	public synchronized void clear() {
+		size = 0;
+		summary.clear();
+	}
+
+	/**
+	 * View of consecutive amplitudes. Values may be overwritten if the log advances
+	 * past the retained size while the range is used.
+	 */
+	public class Range {
+
+		private final int from;
+		private final int to;
+
+		Range(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Index of the first amplitude in the log.
+		 */
+		public int getFrom() {
+			return from;
+		}
+
+		public int size() {
+			return to - from;
+		}
+
+		/**
+		 * @param index Index in the range.
+		 */
+		public int get(int index) {
+			if (index < 0 || index >= to - from) {
+				throw new IndexOutOfBoundsException("Index " + index + ", range size " + (to - from));
+			}
+			int i = from + index;
+			return chunks[(i >> CHUNK_SHIFT) & chunkMask][i & CHUNK_MASK];
+		}
+	}
+}
@@ -73,7 +73,10 @@ public class AppConstants {
 
 	public final static long RECORD_IN_TRASH_MAX_DURATION = 5184000000L; // 1000 X 60 X 60 X 24 X 60 = 60 Days
 	public final static long MIN_REMAIN_RECORDING_TIME = 10000; // 1000 X 10 = 10 Seconds
-	public final static long DECODE_DURATION = 7200000; // 2 X 60 X 60 X 1000 = 2 Hours
+	/** Max count of records decoded at the same time, 0 to derive it from CPU cores count. */
+	public static final int DECODE_MAX_CONCURRENCY = 0;
+	/** Max count of records waiting for decoding. */
+	public static final int DECODE_MAX_PENDING = 1000;
 
 	//BEGINNING-------------- Waveform visualisation constants ----------------------------------
 
@@ -136,7 +139,17 @@ public class AppConstants {
 
 	/** Time interval for Recording progress visualisation. */
 	public final static int RECORDING_VISUALIZATION_INTERVAL = 13; //mills
+	/** How often WAV header is updated while recording, bounds audio lost when app is killed. */
+	public final static long WAV_HEADER_UPDATE_INTERVAL = 2000; //mills
+	/** Silence kept after voice when silence skipping is enabled, so speech pauses are not cut. */
+	public final static long SILENCE_HANGOVER_MILLS = 1500; //mills
 	public final static int PLAYBACK_VISUALIZATION_INTERVAL = (int)(2.1* RECORDING_VISUALIZATION_INTERVAL); //mills
+	/** Default interval of recording progress callbacks, it does not affect measured duration. */
+	public final static long RECORDING_PROGRESS_INTERVAL = PLAYBACK_VISUALIZATION_INTERVAL; //mills
+	/** Min interval of recording progress delivered to app recorder callbacks, views pull amplitudes on their own. */
+	public final static long RECORDING_CALLBACK_INTERVAL = 100; //mills
+	/** Interval of recording time updates in notification and home screen widget. */
+	public final static long RECORDING_NOTIFICATION_INTERVAL = 1000; //mills
 
 	public final static int RECORD_BYTES_PER_SECOND = RECORD_ENCODING_BITRATE_48000 /8; //bits per sec converted to bytes per sec.
 	public final static int MIGRATE_PUBLIC_STORAGE_WARNING_COOLDOWN_MILLS = 12*60*60*1000; //12 hours
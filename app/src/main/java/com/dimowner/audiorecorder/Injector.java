@@ -31,9 +31,10 @@ import com.dimowner.audiorecorder.app.setup.SetupPresenter;
 import com.dimowner.audiorecorder.app.trash.TrashContract;
 import com.dimowner.audiorecorder.app.trash.TrashPresenter;
 import com.dimowner.audiorecorder.audio.AudioWaveformVisualization;
+import com.dimowner.audiorecorder.audio.DecodeScheduler;
 import com.dimowner.audiorecorder.audio.player.AudioPlayerNew;
 import com.dimowner.audiorecorder.audio.player.PlayerContractNew;
-import com.dimowner.audiorecorder.audio.recorder.AudioRecorder;
+import com.dimowner.audiorecorder.audio.recorder.AacRecorder;
 import com.dimowner.audiorecorder.audio.recorder.ThreeGpRecorder;
 import com.dimowner.audiorecorder.audio.recorder.RecorderContract;
 import com.dimowner.audiorecorder.audio.recorder.WavRecorder;
@@ -44,6 +45,7 @@ import com.dimowner.audiorecorder.data.PrefsImpl;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.data.database.LocalRepositoryImpl;
 import com.dimowner.audiorecorder.data.database.RecordsDataSource;
+import com.dimowner.audiorecorder.data.database.SamplingQueryTracer;
 import com.dimowner.audiorecorder.app.main.MainContract;
 import com.dimowner.audiorecorder.app.main.MainPresenter;
 import com.dimowner.audiorecorder.app.records.RecordsContract;
@@ -59,8 +61,8 @@ public class Injector {
 	private BackgroundQueue loadingTasks;
 	private BackgroundQueue recordingTasks;
 	private BackgroundQueue importTasks;
-	private BackgroundQueue processingTasks;
 	private BackgroundQueue copyTasks;
+	private DecodeScheduler decodeScheduler;
 
 	private MainContract.UserActionsListener mainPresenter;
 	private RecordsContract.UserActionsListener recordsPresenter;
@@ -74,6 +76,8 @@ public class Injector {
 
 	private AudioPlayerNew audioPlayer = null;
 
+	private volatile SamplingQueryTracer queryTracer = null;
+
 	public Injector(Context context) {
 		this.context = context;
 	}
@@ -83,11 +87,29 @@ public class Injector {
 	}
 
 	public RecordsDataSource provideRecordsDataSource() {
-		return RecordsDataSource.getInstance(context);
+		RecordsDataSource dataSource = RecordsDataSource.getInstance(context);
+		dataSource.setQueryTracer(provideQueryTracer());
+		return dataSource;
 	}
 
 	public TrashDataSource provideTrashDataSource() {
-		return TrashDataSource.getInstance(context);
+		TrashDataSource dataSource = TrashDataSource.getInstance(context);
+		dataSource.setQueryTracer(provideQueryTracer());
+		return dataSource;
+	}
+
+	/**
+	 * Database query latency histograms. Debug builds trace every query, release builds every 16th.
+	 */
+	public SamplingQueryTracer provideQueryTracer() {
+		if (queryTracer == null) {
+			synchronized (SamplingQueryTracer.class) {
+				if (queryTracer == null) {
+					queryTracer = new SamplingQueryTracer(BuildConfig.DEBUG ? 1 : 16);
+				}
+			}
+		}
+		return queryTracer;
 	}
 
 	public FileRepository provideFileRepository() {
@@ -104,7 +126,7 @@ public class Injector {
 	}
 
 	public AudioWaveformVisualization provideAudioWaveformVisualization() {
-		return new AudioWaveformVisualization(provideProcessingTasksQueue());
+		return new AudioWaveformVisualization(provideDecodeScheduler());
 	}
 
 	public BackgroundQueue provideLoadingTasksQueue() {
@@ -128,11 +150,16 @@ public class Injector {
 		return importTasks;
 	}
 
-	public BackgroundQueue provideProcessingTasksQueue() {
-		if (processingTasks == null) {
-			processingTasks = new BackgroundQueue("ProcessingTasks");
+	public DecodeScheduler provideDecodeScheduler() {
+		if (decodeScheduler == null) {
+			int concurrency = AppConstants.DECODE_MAX_CONCURRENCY;
+			if (concurrency <= 0) {
+				//Leave cores for UI and recording, decoders also limit count of codec instances.
+				concurrency = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+			}
+			decodeScheduler = new DecodeScheduler("ProcessingTasks", concurrency, AppConstants.DECODE_MAX_PENDING);
 		}
-		return processingTasks;
+		return decodeScheduler;
 	}
 
 	public BackgroundQueue provideCopyTasksQueue() {
@@ -165,9 +192,11 @@ public class Injector {
 		switch (providePrefs().getSettingRecordingFormat()) {
 			default:
 			case AppConstants.FORMAT_M4A:
-				return AudioRecorder.getInstance();
+				return AacRecorder.getInstance();
 			case AppConstants.FORMAT_WAV:
-				return WavRecorder.getInstance();
+				WavRecorder wavRecorder = WavRecorder.getInstance();
+				wavRecorder.setSilenceSkipping(providePrefs().isSkipSilence(), AppConstants.SILENCE_HANGOVER_MILLS);
+				return wavRecorder;
 			case AppConstants.FORMAT_3GP:
 				return ThreeGpRecorder.getInstance();
 		}
@@ -177,7 +206,7 @@ public class Injector {
 		if (mainPresenter == null) {
 			mainPresenter = new MainPresenter(providePrefs(), provideFileRepository(),
 					provideLocalRepository(), provideAudioPlayer(), provideAppRecorder(),
-					provideRecordingTasksQueue(), provideLoadingTasksQueue(), provideProcessingTasksQueue(),
+					provideRecordingTasksQueue(), provideLoadingTasksQueue(),
 					provideImportTasksQueue(), provideSettingsMapper());
 		}
 		return mainPresenter;
@@ -309,8 +338,10 @@ public class Injector {
 		loadingTasks.close();
 		importTasks.cleanupQueue();
 		importTasks.close();
-		processingTasks.cleanupQueue();
-		processingTasks.close();
+		if (decodeScheduler != null) {
+			decodeScheduler.close();
+			decodeScheduler = null;
+		}
 		recordingTasks.cleanupQueue();
 		recordingTasks.close();
 	}
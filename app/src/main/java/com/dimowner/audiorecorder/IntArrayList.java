@@ -24,7 +24,6 @@ public class IntArrayList {
 	public void add(int val) {
 		if (data.length == size) {
 			grow();
-			add(val);
 		}
 		data[size] = val;
 		size++;
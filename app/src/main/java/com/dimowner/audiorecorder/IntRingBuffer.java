@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder;
+
+/**
+ * Fixed capacity ring of ints which keeps the newest values, adding to a full ring
+ * overwrites the oldest value. Values are indexed from the newest one.
+ */
+public class IntRingBuffer {
+
+	private int[] data;
+	/** Index of the next value to write. */
+	private int head = 0;
+	private int size = 0;
+
+	public IntRingBuffer(int capacity) {
+		data = new int[Math.max(1, capacity)];
+	}
+
+	public void add(int val) {
+		data[head] = val;
+		head = head + 1 == data.length ? 0 : head + 1;
+		if (size < data.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * @param index Index from the newest value, 0 is the newest.
+	 */
+	public int getFromNewest(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		int i = head - 1 - index;
+		return data[i < 0 ? i + data.length : i];
+	}
+
+	/**
+	 * Change capacity keeping the newest values which fit.
+	 */
+	public void resize(int capacity) {
+		capacity = Math.max(1, capacity);
+		if (capacity == data.length) {
+			return;
+		}
+		int count = Math.min(size, capacity);
+		int[] resized = new int[capacity];
+		for (int i = 0; i < count; i++) {
+			resized[count - 1 - i] = getFromNewest(i);
+		}
+		data = resized;
+		size = count;
+		head = count == capacity ? 0 : count;
+	}
+
+	public void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return data.length;
+	}
+}
@@ -2,7 +2,9 @@ package com.dimowner.audiorecorder;
 
 import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.app.lostrecords.RecordItem;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.data.database.Record;
+import com.dimowner.audiorecorder.data.database.RecordSummary;
 import com.dimowner.audiorecorder.app.records.ListItem;
 import com.dimowner.audiorecorder.util.TimeUtils;
 
@@ -29,7 +31,45 @@ public class Mapper {
 				record.getChannelCount(),
 				record.getBitrate(),
 				record.isBookmarked(),
-				record.getAmps());
+				toListWaveform(record.getWaveform(), record.getDuration()));
+	}
+
+	public static ListItem summaryToListItem(RecordSummary record) {
+		if (record == null) return null;
+		return new ListItem(
+				record.getId(),
+				ListItem.ITEM_TYPE_NORMAL,
+				record.getName(),
+				record.getFormat(),
+				TimeUtils.formatTimeIntervalHourMinSec2(record.getDuration()/1000),
+				record.getDuration(),
+				record.getSize(),
+				record.getCreated(),
+				record.getAdded(),
+				record.getPath(),
+				record.getSampleRate(),
+				record.getChannelCount(),
+				record.getBitrate(),
+				record.isBookmarked(),
+				toListWaveform(record.getWaveform(), record.getDuration()));
+	}
+
+	public static List<ListItem> summariesToListItems(List<RecordSummary> records) {
+		List<ListItem> items = new ArrayList<>(records.size());
+		for (int i = 0; i < records.size(); i++) {
+			items.add(summaryToListItem(records.get(i)));
+		}
+		return items;
+	}
+
+	/**
+	 * Waveform of the record list item, one value per dp like waveform produced by decoding.
+	 * @param duration Record duration in microseconds.
+	 */
+	private static int[] toListWaveform(WaveformPyramid waveform, long duration) {
+		float durationSec = duration / 1000000f;
+		int count = (int) Math.ceil(durationSec * ARApplication.getDpPerSecond(durationSec));
+		return waveform.toGains(count);
 	}
 
 	public static List<ListItem> recordsToListItems(List<Record> records) {
@@ -3,13 +3,16 @@ package com.dimowner.audiorecorder
 import android.app.PendingIntent
 import android.appwidget.AppWidgetManager
 import android.appwidget.AppWidgetProvider
+import android.content.ComponentName
 import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import android.content.Intent.FLAG_ACTIVITY_NEW_TASK
 import android.os.Build
+import android.view.View
 import android.widget.RemoteViews
 import com.dimowner.audiorecorder.app.TransparentRecordingActivity
+import com.dimowner.audiorecorder.util.TimeUtils
 
 class RecordingWidget : AppWidgetProvider() {
 	override fun onUpdate(
@@ -30,6 +33,42 @@ class RecordingWidget : AppWidgetProvider() {
 	override fun onDisabled(context: Context) {
 		// Enter relevant functionality for when the last widget is disabled
 	}
+
+	companion object {
+		/**
+		 * Show recording time in all widgets, it is pulled by recording service at its own rate.
+		 * @return False if there are no widgets, so there is nothing to update.
+		 */
+		@JvmStatic
+		fun updateRecordingProgress(context: Context, mills: Long): Boolean {
+			return updateProgressText(context, TimeUtils.formatTimeIntervalHourMinSec2(mills))
+		}
+
+		/**
+		 * Hide recording time in all widgets.
+		 */
+		@JvmStatic
+		fun clearRecordingProgress(context: Context) {
+			updateProgressText(context, null)
+		}
+
+		private fun updateProgressText(context: Context, text: String?): Boolean {
+			val appWidgetManager = AppWidgetManager.getInstance(context)
+			val ids = appWidgetManager.getAppWidgetIds(ComponentName(context, RecordingWidget::class.java))
+			if (ids.isEmpty()) {
+				return false
+			}
+			val views = RemoteViews(context.packageName, R.layout.recording_widget)
+			if (text != null) {
+				views.setTextViewText(R.id.txt_widget_progress, text)
+				views.setViewVisibility(R.id.txt_widget_progress, View.VISIBLE)
+			} else {
+				views.setViewVisibility(R.id.txt_widget_progress, View.GONE)
+			}
+			appWidgetManager.partiallyUpdateAppWidget(ids, views)
+			return true
+		}
+	}
 }
 
 internal fun updateAppWidget(
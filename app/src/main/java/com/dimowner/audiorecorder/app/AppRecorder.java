@@ -16,7 +16,8 @@
 
 package com.dimowner.audiorecorder.app;
 
-import com.dimowner.audiorecorder.IntArrayList;
+import com.dimowner.audiorecorder.AmplitudeChannel;
+import com.dimowner.audiorecorder.AmplitudeLog;
 import com.dimowner.audiorecorder.audio.recorder.RecorderContract;
 
 import java.io.File;
@@ -30,10 +31,17 @@ public interface AppRecorder {
 	void pauseRecording();
 	void resumeRecording();
 	void stopRecording();
-	IntArrayList getRecordingData();
+	AmplitudeLog getRecordingData();
+	AmplitudeChannel getAmplitudeChannel();
 	long getRecordingDuration();
 	boolean isRecording();
 	boolean isPaused();
 	File getRecordFile();
+	/**
+	 * Run the action unless the file is being recorded or finished after stop,
+	 * recording does not start while the action runs.
+	 * @return False if the file is being recorded and the action was not run.
+	 */
+	boolean runUnlessRecording(String path, Runnable action);
 	void release();
 }
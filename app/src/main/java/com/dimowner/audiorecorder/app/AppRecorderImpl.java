@@ -17,28 +17,29 @@
 package com.dimowner.audiorecorder.app;
 
 import com.dimowner.audiorecorder.ARApplication;
-import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.AmplitudeChannel;
+import com.dimowner.audiorecorder.AmplitudeLog;
 import com.dimowner.audiorecorder.BackgroundQueue;
-import com.dimowner.audiorecorder.IntArrayList;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.audio.AudioDecoder;
+import com.dimowner.audiorecorder.audio.RecordTimeMap;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.audio.recorder.RecorderContract;
 import com.dimowner.audiorecorder.data.Prefs;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.data.database.Record;
 import com.dimowner.audiorecorder.exception.AppException;
 import com.dimowner.audiorecorder.exception.RecordingException;
+import com.dimowner.audiorecorder.util.AmplitudeUtils;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import timber.log.Timber;
 
-import static com.dimowner.audiorecorder.AppConstants.PLAYBACK_VISUALIZATION_INTERVAL;
+import static com.dimowner.audiorecorder.AppConstants.RECORDING_CALLBACK_INTERVAL;
 
 public class AppRecorderImpl implements AppRecorder {
 
@@ -49,13 +50,18 @@ public class AppRecorderImpl implements AppRecorder {
 	private final RecorderContract.RecorderCallback recorderCallback;
 	private final List<AppRecorderCallback> appCallbacks;
 	private final Prefs prefs;
-	private final IntArrayList recordingData;
+	private final AmplitudeLog recordingData;
+	/** Amplitudes for views which pull them at their own frame rate. */
+	private final AmplitudeChannel amplitudeChannel;
 //	private long recordingDuration;
-	private final IntArrayList apmpPool;
-	private long durationMills = 0;
-	private long updateTime = 0;
-	private Timer timerProgress;
+	/** Recording duration reported by recorder. */
+	private volatile long durationMills = 0;
+	/** Recording time of the last progress delivered to app callbacks. */
+	private long progressCallbackMills = -1;
 	private String recordFilePath = null;
+	private final Object activeFileLock = new Object();
+	/** File written by recorder from start until it is finished after stop, guarded by activeFileLock. */
+	private String activeFilePath = null;
 
 	private volatile static AppRecorderImpl instance;
 
@@ -78,8 +84,10 @@ public class AppRecorderImpl implements AppRecorder {
 		this.recordingsTasks = tasks;
 		this.prefs = pr;
 		this.appCallbacks = new ArrayList<>();
-		this.recordingData = new IntArrayList();
-		this.apmpPool = new IntArrayList();
+		//Summary twice as large as saved waveform keeps conversion on stop short and accurate.
+		this.recordingData = new AmplitudeLog(AmplitudeLog.DEFAULT_RETAINED_SIZE,
+				Math.max(AmplitudeLog.DEFAULT_SUMMARY_SIZE, 2 * ARApplication.getLongWaveformSampleCount()));
+		this.amplitudeChannel = new AmplitudeChannel();
 
 		recorderCallback = new RecorderContract.RecorderCallback() {
 
@@ -87,40 +95,64 @@ public class AppRecorderImpl implements AppRecorder {
 			public void onStartRecord(File output) {
 //				recordingDuration = 0;
 				durationMills = 0;
-				scheduleRecordingTimeUpdate();
+				progressCallbackMills = -1;
 				onRecordingStarted(output);
 			}
 
 			@Override
 			public void onPauseRecord() {
 				onRecordingPaused();
-				pauseRecordingTimer();
 			}
 
 			@Override
 			public void onResumeRecord() {
-				scheduleRecordingTimeUpdate();
 				onRecordingResumed();
 			}
 
 			@Override
 			public void onRecordProgress(final long mills, final int amplitude) {
-				apmpPool.add(amplitude);
+				//Called on main thread, the only writer of recording data.
+				//Amplitude channel is written by the recorder on the thread which measures amplitudes.
+				durationMills = mills;
+				recordingData.add(amplitude);
+				if (progressCallbackMills < 0 || mills - progressCallbackMills >= RECORDING_CALLBACK_INTERVAL) {
+					progressCallbackMills = mills;
+					onRecordingProgress(mills, amplitude);
+				}
 			}
 
 			@Override
 			public void onStopRecord(final File output) {
-				stopRecordingTimer();
+				synchronized (activeFileLock) {
+					if (output.getPath().equals(activeFilePath)) {
+						activeFilePath = null;
+					}
+				}
+				final WaveformPyramid recordedWaveform = audioRecorder instanceof RecorderContract.WaveformRecorder
+						? ((RecorderContract.WaveformRecorder) audioRecorder).getRecordedWaveform() : null;
 				recordingsTasks.postRunnable(() -> {
 					RecordInfo info = AudioDecoder.readRecordInfo(output);
 					long duration = info.getDuration();
 					if (duration <= 0) {
-						duration = durationMills;
+						duration = durationMills * 1000;
+					}
+					RecordTimeMap timeMap = RecordTimeMap.load(output);
+					if (timeMap != null) {
+						//Silence was not written, record duration is recording time, not file time.
+						duration = timeMap.getRecordingDurationUs();
 					}
 //					recordingDuration = 0;
 					durationMills = 0;
 
-					int[] waveForm = convertRecordingData(recordingData, (int) (duration / 1000000f));
+					float durationSec = duration / 1000000f;
+					int[] waveForm;
+					if (recordedWaveform != null) {
+						//Waveform was built from recorded PCM, same as decoding would do.
+						waveForm = recordedWaveform.toGains((int) Math.ceil(durationSec * ARApplication.getDpPerSecond(durationSec)));
+					} else {
+						waveForm = AmplitudeUtils.convertRecordingData(recordingData, (int) durationSec,
+								ARApplication.getLongWaveformSampleCount());
+					}
 					final Record record = localRepository.getRecord((int) prefs.getActiveRecord());
 					if (record != null) {
 						final Record update = new Record(
@@ -137,8 +169,11 @@ public class AppRecorderImpl implements AppRecorder {
 								info.getChannelCount(),
 								info.getBitrate(),
 								record.isBookmarked(),
-								record.isWaveformProcessed(),
+								record.isWaveformProcessed() || recordedWaveform != null,
 								waveForm);
+						if (recordedWaveform != null) {
+							update.setWaveform(recordedWaveform);
+						}
 						if (localRepository.updateRecord(update)) {
 							recordingData.clear();
 							final Record rec = localRepository.getRecord(update.getId());
@@ -166,44 +201,7 @@ public class AppRecorderImpl implements AppRecorder {
 			}
 		};
 		audioRecorder.setRecorderCallback(recorderCallback);
-	}
-
-	private int[] convertRecordingData(IntArrayList list, int durationSec) {
-		if (durationSec > AppConstants.LONG_RECORD_THRESHOLD_SECONDS) {
-			int sampleCount = ARApplication.getLongWaveformSampleCount();
-			int[] waveForm = new int[sampleCount];
-			if (list.size() < sampleCount*2) {
-				float scale = (float) list.size() / (float) sampleCount;
-				for (int i = 0; i < sampleCount; i++) {
-					waveForm[i] = convertAmp(list.get((int) Math.floor(i*scale)));
-				}
-			} else {
-				float scale = (float) list.size() / (float) sampleCount;
-				for (int i = 0; i < sampleCount; i++) {
-					int val = 0;
-					int step = (int) Math.ceil(scale);
-					for (int j = 0; j < step; j++) {
-						val += list.get((int)(i * scale + j));
-					}
-					val = (int) ((float) val / scale);
-					waveForm[i] = convertAmp(val);
-				}
-			}
-			return waveForm;
-		} else {
-			int[] waveForm = new int[list.size()];
-			for (int i = 0; i < list.size(); i++) {
-				waveForm[i] = convertAmp(list.get(i));
-			}
-			return waveForm;
-		}
-	}
-
-	/**
-	 * Convert dB amp value to view amp.
-	 */
-	private int convertAmp(double amp) {
-		return (int)(255*(amp/32767f));
+		audioRecorder.setAmplitudeChannel(amplitudeChannel);
 	}
 
 	@Override
@@ -220,13 +218,17 @@ public class AppRecorderImpl implements AppRecorder {
 	public void setRecorder(RecorderContract.Recorder recorder) {
 		this.audioRecorder = recorder;
 		this.audioRecorder.setRecorderCallback(recorderCallback);
+		this.audioRecorder.setAmplitudeChannel(amplitudeChannel);
 	}
 
 	@Override
 	public void startRecording(String filePath, int channelCount, int sampleRate, int bitrate) {
-		if (!audioRecorder.isRecording()) {
-			recordFilePath = filePath;
-			audioRecorder.startRecording(filePath, channelCount, sampleRate, bitrate);
+		synchronized (activeFileLock) {
+			if (!audioRecorder.isRecording()) {
+				recordFilePath = filePath;
+				activeFilePath = filePath;
+				audioRecorder.startRecording(filePath, channelCount, sampleRate, bitrate);
+			}
 		}
 	}
 
@@ -252,10 +254,15 @@ public class AppRecorderImpl implements AppRecorder {
 	}
 
 	@Override
-	public IntArrayList getRecordingData() {
+	public AmplitudeLog getRecordingData() {
 		return recordingData;
 	}
 
+	@Override
+	public AmplitudeChannel getAmplitudeChannel() {
+		return amplitudeChannel;
+	}
+
 	@Override
 	public long getRecordingDuration() {
 //		return recordingDuration;
@@ -280,11 +287,20 @@ public class AppRecorderImpl implements AppRecorder {
 		return null;
 	}
 
+	@Override
+	public boolean runUnlessRecording(String path, Runnable action) {
+		synchronized (activeFileLock) {
+			if (path.equals(activeFilePath)) {
+				return false;
+			}
+			action.run();
+			return true;
+		}
+	}
+
 	@Override
 	public void release() {
-		stopRecordingTimer();
 		recordingData.clear();
-		apmpPool.clear();
 		audioRecorder.stopRecording();
 		appCallbacks.clear();
 	}
@@ -336,46 +352,4 @@ public class AppRecorderImpl implements AppRecorder {
 			}
 		}
 	}
-
-	private void scheduleRecordingTimeUpdate() {
-		updateTime = System.currentTimeMillis();
-		timerProgress = new Timer();
-		timerProgress.schedule(new TimerTask() {
-			@Override
-			public void run() {
-				try {
-					readProgress();
-				} catch (IllegalStateException e) {
-					Timber.e(e);
-				}
-				long curTime = System.currentTimeMillis();
-				durationMills += curTime - updateTime;
-				updateTime = curTime;
-
-//				recordingDuration += VISUALIZATION_INTERVAL2;
-			}
-		}, 0, PLAYBACK_VISUALIZATION_INTERVAL);
-	}
-
-	private void readProgress() {
-		if (apmpPool.size() > 0) {
-			int amp = apmpPool.get(apmpPool.size()-1);
-			apmpPool.clear();
-			apmpPool.add(amp);
-			recordingData.add(amp);
-			onRecordingProgress(durationMills, amp);
-		}
-	}
-
-	private void stopRecordingTimer() {
-		timerProgress.cancel();
-		timerProgress.purge();
-		updateTime = 0;
-	}
-
-	private void pauseRecordingTimer() {
-		timerProgress.cancel();
-		timerProgress.purge();
-		updateTime = 0;
-	}
 }
@@ -34,8 +34,12 @@ import com.dimowner.audiorecorder.*
 import com.dimowner.audiorecorder.app.main.MainActivity
 import com.dimowner.audiorecorder.audio.AudioDecodingListener
 import com.dimowner.audiorecorder.audio.AudioWaveformVisualization
+import com.dimowner.audiorecorder.audio.DecodeScheduler
+import com.dimowner.audiorecorder.audio.WaveformPyramid
 import com.dimowner.audiorecorder.data.database.LocalRepository
 import com.dimowner.audiorecorder.data.database.Record
+import com.dimowner.audiorecorder.util.AndroidUtils
+import java.io.FileNotFoundException
 import timber.log.Timber
 
 /**
@@ -57,12 +61,20 @@ class DecodeService : Service() {
 		const val ACTION_STOP_DECODING_SERVICE = "ACTION_STOP_DECODING_SERVICE"
 		const val ACTION_CANCEL_DECODE = "ACTION_CANCEL_DECODE"
 		const val EXTRAS_KEY_DECODE_INFO = "key_decode_info"
+		const val EXTRAS_KEY_DECODE_PRIORITY = "key_decode_priority"
 		private const val NOTIF_ID = 104
 
-		fun startNotification(context: Context, recId: Int) {
+		/**
+		 * Start waveform decoding of the record.
+		 * @param priority Decoding priority, active record should use [DecodeScheduler.PRIORITY_ACTIVE]
+		 * to be decoded before records waiting in background.
+		 */
+		@JvmOverloads
+		fun startNotification(context: Context, recId: Int, priority: Int = DecodeScheduler.PRIORITY_BACKGROUND) {
 			val intent = Intent(context, DecodeService::class.java)
 			intent.action = ACTION_START_DECODING_SERVICE
 			intent.putExtra(EXTRAS_KEY_DECODE_INFO, recId)
+			intent.putExtra(EXTRAS_KEY_DECODE_PRIORITY, priority)
 			context.startService(intent)
 		}
 	}
@@ -73,12 +85,13 @@ class DecodeService : Service() {
 	lateinit var notificationManager: NotificationManagerCompat
 	lateinit var remoteViewsSmall: RemoteViews
 	lateinit var contentPendingIntent: PendingIntent
-	lateinit var processingTasks: BackgroundQueue
+	lateinit var decodeScheduler: DecodeScheduler
 	lateinit var recordingsTasks: BackgroundQueue
 	lateinit var localRepository: LocalRepository
 	lateinit var waveformVisualization: AudioWaveformVisualization
 	lateinit var colorMap: ColorMap
-	private var isCancel = false
+	/** Decoding progress by id of records decoded by the service. */
+	private val progress = HashMap<Int, Int>()
 
 	override fun onBind(intent: Intent): IBinder? {
 		return binder
@@ -87,7 +100,7 @@ class DecodeService : Service() {
 	override fun onCreate() {
 		super.onCreate()
 		colorMap = ARApplication.getInjector().provideColorMap()
-		processingTasks = ARApplication.getInjector().provideProcessingTasksQueue()
+		decodeScheduler = ARApplication.getInjector().provideDecodeScheduler()
 		recordingsTasks = ARApplication.getInjector().provideRecordingTasksQueue()
 		localRepository = ARApplication.getInjector().provideLocalRepository()
 		waveformVisualization = ARApplication.getInjector().provideAudioWaveformVisualization()
@@ -100,13 +113,14 @@ class DecodeService : Service() {
 				when (action) {
 					ACTION_START_DECODING_SERVICE -> if (intent.hasExtra(EXTRAS_KEY_DECODE_INFO)) {
 						val id = intent.getIntExtra(EXTRAS_KEY_DECODE_INFO, -1)
+						val priority = intent.getIntExtra(EXTRAS_KEY_DECODE_PRIORITY, DecodeScheduler.PRIORITY_BACKGROUND)
 						if (id >= 0) {
-							startDecode(id)
+							startDecode(id, priority)
 						}
 					}
 					ACTION_STOP_DECODING_SERVICE -> stopService()
 					ACTION_CANCEL_DECODE -> {
-						isCancel = true
+						cancelDecode()
 						stopService()
 					}
 				}
@@ -115,73 +129,125 @@ class DecodeService : Service() {
 		return super.onStartCommand(intent, flags, startId)
 	}
 
-	private fun startDecode(id: Int) {
-		isCancel = false
-		startNotification()
-		processingTasks.postRunnable {
-			var prevTime: Long = 0
+	private fun startDecode(id: Int, priority: Int) {
+		synchronized(progress) {
+			if (progress.isEmpty()) {
+				startNotification()
+			}
+			progress[id] = 0
+		}
+		//Listener is added to the job when the record is already being decoded.
+		val job = decodeScheduler.schedule(id, priority, createDecodeListener(id)) { job ->
 			val rec = localRepository.getRecord(id)
-			if (rec != null && rec.duration / 1000 < AppConstants.DECODE_DURATION) {
-				waveformVisualization.decodeRecordWaveform(rec.path, object : AudioDecodingListener {
-					override fun isCanceled(): Boolean {
-						return isCancel
-					}
+			if (rec != null) {
+				waveformVisualization.decodeRecordWaveform(job, rec.path)
+			} else {
+				job.listener.onError(FileNotFoundException("Record $id not found"))
+			}
+		}
+		if (job == null) {
+			onDecodeFinished(id)
+		}
+	}
 
-					override fun onStartProcessing(duration: Long, channelsCount: Int, sampleRate: Int) {
-						decodeListener?.onStartProcessing()
-					}
+	private fun createDecodeListener(id: Int): AudioDecodingListener {
+		var prevTime: Long = 0
+		return object : AudioDecodingListener {
+			override fun isCanceled(): Boolean {
+				return false
+			}
 
-					override fun onProcessingProgress(percent: Int) {
-						val curTime = System.currentTimeMillis()
-						if (percent == 100 || curTime > prevTime + 200) {
-							updateNotification(percent)
-							prevTime = curTime
-						}
-					}
+			override fun onStartProcessing(duration: Long, channelsCount: Int, sampleRate: Int) {
+				decodeListener?.onStartProcessing()
+			}
 
-					override fun onProcessingCancel() {
-						Toast.makeText(applicationContext, R.string.processing_canceled, Toast.LENGTH_LONG).show()
-						decodeListener?.onFinishProcessing()
-						stopService()
-					}
+			override fun onProcessingProgress(percent: Int) {
+				val curTime = System.currentTimeMillis()
+				if (percent == 100 || curTime > prevTime + 200) {
+					updateProgress(id, percent)
+					prevTime = curTime
+				}
+			}
 
-					override fun onFinishProcessing(data: IntArray, duration: Long) {
-						recordingsTasks.postRunnable {
-							val rec1 = localRepository.getRecord(id)
-							if (rec1 != null) {
-								val decodedRecord = Record(
-										rec1.id,
-										rec1.name,
-										rec1.duration,
-										rec1.created,
-										rec1.added,
-										rec1.removed,
-										rec1.path,
-										rec1.format,
-										rec1.size,
-										rec1.sampleRate,
-										rec1.channelCount,
-										rec1.bitrate,
-										rec1.isBookmarked,
-										true,
-										data)
-								localRepository.updateRecord(decodedRecord)
-							}
-							decodeListener?.onFinishProcessing()
-							stopService()
-						}
-					}
+			override fun onProcessingCancel() {
+				AndroidUtils.runOnUIThread {
+					Toast.makeText(applicationContext, R.string.processing_canceled, Toast.LENGTH_LONG).show()
+				}
+				decodeListener?.onFinishProcessing()
+				onDecodeFinished(id)
+			}
 
-					override fun onError(exception: Exception) {
-						Timber.e(exception)
-						decodeListener?.onFinishProcessing()
-						stopService()
+			override fun onFinishProcessing(data: IntArray, waveform: WaveformPyramid, duration: Long) {
+				recordingsTasks.postRunnable {
+					val rec1 = localRepository.getRecord(id)
+					if (rec1 != null) {
+						val decodedRecord = Record(
+								rec1.id,
+								rec1.name,
+								rec1.duration,
+								rec1.created,
+								rec1.added,
+								rec1.removed,
+								rec1.path,
+								rec1.format,
+								rec1.size,
+								rec1.sampleRate,
+								rec1.channelCount,
+								rec1.bitrate,
+								rec1.isBookmarked,
+								true,
+								data)
+						decodedRecord.waveform = waveform
+						localRepository.updateRecord(decodedRecord)
 					}
-				})
-			} else {
-				stopService()
+					decodeListener?.onFinishProcessing()
+					onDecodeFinished(id)
+				}
+			}
+
+			override fun onError(exception: Exception) {
+				Timber.e(exception)
+				decodeListener?.onFinishProcessing()
+				onDecodeFinished(id)
+			}
+		}
+	}
+
+	/**
+	 * Cancel decoding of all records started by the service.
+	 */
+	private fun cancelDecode() {
+		val ids = synchronized(progress) { ArrayList(progress.keys) }
+		for (id in ids) {
+			decodeScheduler.cancel(id)
+		}
+	}
+
+	/**
+	 * Forget finished record and stop the service when there are no more records to decode.
+	 */
+	private fun onDecodeFinished(id: Int) {
+		val finished = synchronized(progress) {
+			progress.remove(id)
+			progress.isEmpty()
+		}
+		if (finished) {
+			stopService()
+		}
+	}
+
+	/**
+	 * Show average progress of all decoded records.
+	 */
+	private fun updateProgress(id: Int, percent: Int) {
+		val total = synchronized(progress) {
+			if (!progress.containsKey(id)) {
+				return
 			}
+			progress[id] = percent
+			progress.values.sum() / progress.size
 		}
+		updateNotification(total)
 	}
 
 	private fun startNotification() {
@@ -27,7 +27,9 @@ import android.content.Intent;
 import android.graphics.Color;
 import android.media.RingtoneManager;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
@@ -40,7 +42,9 @@ import com.dimowner.audiorecorder.AppConstants;
 import com.dimowner.audiorecorder.BackgroundQueue;
 import com.dimowner.audiorecorder.ColorMap;
 import com.dimowner.audiorecorder.R;
+import com.dimowner.audiorecorder.RecordingWidget;
 import com.dimowner.audiorecorder.app.main.MainActivity;
+import com.dimowner.audiorecorder.audio.DecodeScheduler;
 import com.dimowner.audiorecorder.audio.player.PlayerContractNew;
 import com.dimowner.audiorecorder.audio.recorder.RecorderContract;
 import com.dimowner.audiorecorder.data.FileRepository;
@@ -88,6 +92,20 @@ public class RecordingService extends Service {
 	private AppRecorderCallback appRecorderCallback;
 	private ColorMap colorMap;
 	private boolean started = false;
+	/** Notification and widgets take recording time from amplitude channel at their own rate. */
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private boolean hasWidgets = true;
+	private final Runnable progressUpdate = new Runnable() {
+		@Override
+		public void run() {
+			long mills = appRecorder.getAmplitudeChannel().getLastMills();
+			updateNotification(mills);
+			if (hasWidgets) {
+				hasWidgets = RecordingWidget.updateRecordingProgress(getApplicationContext(), mills);
+			}
+			handler.postDelayed(this, AppConstants.RECORDING_NOTIFICATION_INTERVAL);
+		}
+	};
 	private FileRepository fileRepository;
 	private final int pendingIntentFlags;
 
@@ -122,16 +140,20 @@ public class RecordingService extends Service {
 
 			@Override public void onRecordingStarted(File file) {
 				updateNotificationResume();
+				startProgressUpdates();
 			}
 			@Override public void onRecordingPaused() {
+				stopProgressUpdates();
 				updateNotificationPause();
 			}
 			@Override public void onRecordingResumed() {
 				updateNotificationResume();
+				startProgressUpdates();
 			}
 			@Override public void onRecordingStopped(File file, Record rec) {
-				if (rec != null && rec.getDuration()/1000 < AppConstants.DECODE_DURATION && !rec.isWaveformProcessed()) {
-					DecodeService.Companion.startNotification(getApplicationContext(), rec.getId());
+				if (rec != null && !rec.isWaveformProcessed()) {
+					DecodeService.Companion.startNotification(getApplicationContext(), rec.getId(),
+							DecodeScheduler.PRIORITY_ACTIVE);
 				}
 				stopForegroundService();
 			}
@@ -279,7 +301,19 @@ public class RecordingService extends Service {
 		return PendingIntent.getActivity(getApplicationContext(), 0, intent, pendingIntentFlags);
 	}
 
+	private void startProgressUpdates() {
+		handler.removeCallbacks(progressUpdate);
+		hasWidgets = true;
+		handler.postDelayed(progressUpdate, AppConstants.RECORDING_NOTIFICATION_INTERVAL);
+	}
+
+	private void stopProgressUpdates() {
+		handler.removeCallbacks(progressUpdate);
+	}
+
 	private void stopForegroundService() {
+		stopProgressUpdates();
+		RecordingWidget.clearRecordingProgress(getApplicationContext());
 		appRecorder.removeRecordingCallback(appRecorderCallback);
 		stopForeground(true);
 		stopSelf();
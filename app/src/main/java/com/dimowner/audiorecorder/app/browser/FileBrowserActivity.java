@@ -173,6 +173,11 @@ public class FileBrowserActivity extends Activity implements FileBrowserContract
 		adapter.setData(items);
 	}
 
+	@Override
+	public void addFileItems(List<RecordInfo> items) {
+		adapter.addData(items);
+	}
+
 	@Override
 	public void showSelectedPrivateDir() {
 		btnPrivateDir.setBackgroundResource(R.color.white_transparent_80);
@@ -77,6 +77,12 @@ public class FileBrowserAdapter extends RecyclerView.Adapter<FileBrowserAdapter.
 		notifyDataSetChanged();
 	}
 
+	public void addData(List<RecordInfo> list) {
+		int start = data.size();
+		data.addAll(list);
+		notifyItemRangeInserted(start, list.size());
+	}
+
 	void removeItem(String path) {
 		int pos = -1;
 		for (int i = 0; i < data.size(); i++) {
@@ -27,6 +27,7 @@ public interface FileBrowserContract {
 
 	interface View extends Contract.View {
 		void showFileItems(List<RecordInfo> items);
+		void addFileItems(List<RecordInfo> items);
 		void showSelectedPrivateDir();
 		void showSelectedPublicDir();
 		void showRecordInfo(RecordInfo info);
@@ -18,9 +18,9 @@ package com.dimowner.audiorecorder.app.browser;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.Process;
 
 import com.dimowner.audiorecorder.ARApplication;
-import com.dimowner.audiorecorder.AppConstants;
 import com.dimowner.audiorecorder.BackgroundQueue;
 import com.dimowner.audiorecorder.R;
 import com.dimowner.audiorecorder.app.AppRecorder;
@@ -37,8 +37,20 @@ import com.dimowner.audiorecorder.util.AndroidUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import timber.log.Timber;
 
@@ -51,6 +63,13 @@ public class FileBrowserPresenter implements FileBrowserContract.UserActionsList
 	public static final int TAB_PRIVATE_DIR = 1;
 	public static final int TAB_PUBLIC_DIR = 2;
 
+	/** Max count of files shown at once while the dir is loading. */
+	private static final int PAGE_SIZE = 50;
+	/** Partly filled page is shown when no file was probed for this time. */
+	private static final long PAGE_INTERVAL_MILLS = 200;
+	/** Count of files probed at the same time, each probe opens MediaExtractor. */
+	private static final int PROBE_THREADS = 4;
+
 	private FileBrowserContract.View view;
 	private final AppRecorder appRecorder;
 	private AppRecorderCallback appRecorderCallback;
@@ -59,6 +78,9 @@ public class FileBrowserPresenter implements FileBrowserContract.UserActionsList
 	private final BackgroundQueue recordingsTasks;
 	private final LocalRepository localRepository;
 	private final FileRepository fileRepository;
+	private final ThreadPoolExecutor probeExecutor;
+	/** Incremented by every load, pages of previous loads are dropped. */
+	private final AtomicInteger loadGeneration = new AtomicInteger();
 	private int selectedTab;
 
 	public FileBrowserPresenter(Prefs prefs, AppRecorder appRecorder, BackgroundQueue importTasks,
@@ -70,6 +92,17 @@ public class FileBrowserPresenter implements FileBrowserContract.UserActionsList
 		this.recordingsTasks = recordingsTasks;
 		this.localRepository = localRepository;
 		this.fileRepository = fileRepository;
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.probeExecutor = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(() -> {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				runnable.run();
+			}, "FileProbe-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.probeExecutor.allowCoreThreadTimeOut(true);
 
 		if (prefs.isStoreDirPublic()) {
 			selectedTab = TAB_PUBLIC_DIR;
@@ -126,6 +159,8 @@ public class FileBrowserPresenter implements FileBrowserContract.UserActionsList
 
 	@Override
 	public void clear() {
+		loadGeneration.incrementAndGet();
+		probeExecutor.shutdownNow();
 		unbindView();
 	}
 
@@ -145,36 +180,111 @@ public class FileBrowserPresenter implements FileBrowserContract.UserActionsList
 		}
 	}
 
+	/**
+	 * Show files of the selected dir. Files in the database are found with one query per several
+	 * hundreds of paths. Metadata of unchanged files is taken from {@link RecordInfoCache}, other files
+	 * are probed in parallel. Files are shown in pages in the dir order, as soon as all the files before
+	 * them are ready.
+	 */
 	@Override
 	public void loadFiles(final Context context) {
 		updatePath(context);
 		if (view != null) {
 			view.showProgress();
 		}
+		final int generation = loadGeneration.incrementAndGet();
+		final int tab = selectedTab;
 		loadingTasks.postRunnable(() -> {
+			File dir;
 			File[] files;
-			if (selectedTab == TAB_PRIVATE_DIR) {
+			if (tab == TAB_PRIVATE_DIR) {
+				dir = fileRepository.getPrivateDir(context);
 				files = fileRepository.getPrivateDirFiles(context);
 			} else {
+				dir = fileRepository.getPublicDir();
 				files = fileRepository.getPublicDirFiles();
 			}
-			final List<RecordInfo> items = new ArrayList<>();
-			if (files != null) {
-				for (int i = 0; i < files.length; i++) {
-					Record rec = localRepository.findRecordByPath(files[i].getAbsolutePath());
-					RecordInfo r = AudioDecoder.readRecordInfo(files[i]);
-					r.setInDatabase(rec != null);
-					items.add(r);
+			if (files == null) {
+				files = new File[0];
+			}
+			final Set<String> paths = new HashSet<>(files.length * 2);
+			for (File file : files) {
+				paths.add(file.getAbsolutePath());
+			}
+			final Set<String> inDatabase = localRepository.findRecordPaths(paths);
+			final RecordInfoCache cache = RecordInfoCache.getInstance(context);
+			final PageSender pages = new PageSender(generation);
+
+			//Results are kept by file index and sent in pages in the order of the dir listing.
+			final RecordInfo[] infos = new RecordInfo[files.length];
+			final boolean[] ready = new boolean[files.length];
+			int next = 0;
+			CompletionService<Integer> probes = new ExecutorCompletionService<>(probeExecutor);
+			int probeCount = 0;
+			for (int i = 0; i < files.length; i++) {
+				RecordInfo info = cache.get(files[i]);
+				if (info != null) {
+					infos[i] = info;
+					ready[i] = true;
+				} else if (generation == loadGeneration.get()) {
+					final int index = i;
+					final File file = files[i];
+					try {
+						probes.submit(() -> {
+							if (generation == loadGeneration.get()) {
+								try {
+									RecordInfo probed = AudioDecoder.readRecordInfo(file);
+									cache.put(probed);
+									infos[index] = probed;
+								} catch (RuntimeException e) {
+									//Unreadable file is skipped, files after it are still shown.
+									Timber.e(e);
+								}
+							}
+							return index;
+						});
+					} catch (RejectedExecutionException e) {
+						//Presenter is cleared, the probe pool is shut down.
+						break;
+					}
+					probeCount++;
+				} else {
+					break;
 				}
 			}
+			next = sendReady(pages, infos, ready, next, inDatabase);
+			try {
+				int received = 0;
+				while (received < probeCount && generation == loadGeneration.get()) {
+					Future<Integer> future = probes.poll(PAGE_INTERVAL_MILLS, TimeUnit.MILLISECONDS);
+					if (future == null) {
+						pages.flush();
+						continue;
+					}
+					received++;
+					try {
+						ready[future.get()] = true;
+					} catch (ExecutionException e) {
+						Timber.e(e.getCause());
+					}
+					next = sendReady(pages, infos, ready, next, inDatabase);
+				}
+			} catch (InterruptedException e) {
+				Timber.e(e);
+				Thread.currentThread().interrupt();
+			}
+			pages.flush();
+			if (dir != null && generation == loadGeneration.get()) {
+				cache.retainDir(dir, paths);
+			}
+			cache.save();
+			final boolean isEmpty = pages.getSentCount() == 0;
 			AndroidUtils.runOnUIThread(() -> {
-				if (view != null) {
+				if (view != null && generation == loadGeneration.get()) {
 					view.hideProgress();
-					if (items.isEmpty()) {
+					if (isEmpty) {
+						view.showFileItems(Collections.emptyList());
 						view.showEmpty();
-					} else {
-						view.showFileItems(items);
-						view.hideEmpty();
 					}
 				}
 			});
@@ -241,7 +351,7 @@ public class FileBrowserPresenter implements FileBrowserContract.UserActionsList
 								view.onImportedRecord(info.getLocation());
 							}
 						});
-						if (view != null && !rec.isWaveformProcessed() && rec.getDuration() / 1000 < AppConstants.DECODE_DURATION) {
+						if (view != null && !rec.isWaveformProcessed()) {
 							view.decodeRecord(rec.getId());
 						}
 					}
@@ -260,6 +370,68 @@ public class FileBrowserPresenter implements FileBrowserContract.UserActionsList
 		});
 	}
 
+	/**
+	 * Collects loaded files and sends them to the view in pages, the first page replaces files
+	 * shown before, next pages are appended.
+	 */
+	/**
+	 * Send ready files starting from index {@code next} up to the first file which is still probed.
+	 * @return index of the first file which is not sent.
+	 */
+	private static int sendReady(PageSender pages, RecordInfo[] infos, boolean[] ready, int next,
+										  Set<String> inDatabase) {
+		while (next < infos.length && ready[next]) {
+			RecordInfo info = infos[next];
+			if (info != null) {
+				info.setInDatabase(inDatabase.contains(info.getLocation()));
+				pages.add(info);
+			}
+			next++;
+		}
+		return next;
+	}
+
+	private class PageSender {
+		private final int generation;
+		private List<RecordInfo> page = new ArrayList<>(PAGE_SIZE);
+		private int sentCount = 0;
+
+		PageSender(int generation) {
+			this.generation = generation;
+		}
+
+		void add(RecordInfo info) {
+			page.add(info);
+			if (page.size() >= PAGE_SIZE) {
+				flush();
+			}
+		}
+
+		void flush() {
+			if (page.isEmpty()) {
+				return;
+			}
+			final List<RecordInfo> items = page;
+			final boolean isFirst = sentCount == 0;
+			sentCount += items.size();
+			page = new ArrayList<>(PAGE_SIZE);
+			AndroidUtils.runOnUIThread(() -> {
+				if (view != null && generation == loadGeneration.get()) {
+					if (isFirst) {
+						view.showFileItems(items);
+					} else {
+						view.addFileItems(items);
+					}
+					view.hideEmpty();
+				}
+			});
+		}
+
+		int getSentCount() {
+			return sentCount;
+		}
+	}
+
 	private void updatePath(Context context) {
 		if (view != null) {
 			if (selectedTab == TAB_PRIVATE_DIR) {
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.app.browser;
+
+import android.content.Context;
+
+import com.dimowner.audiorecorder.app.info.RecordInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Audio metadata of files shown in the file browser, kept in a file in the app cache dir.
+ * An entry is valid while size and modification time of the file are the same as when
+ * it was probed, so unchanged files are never probed with MediaExtractor again.
+ * Access is thread safe, entries are probed on several threads.
+ */
+public class RecordInfoCache {
+
+	/** "RIC1" */
+	private static final int MAGIC = 0x52494331;
+	private static final String FILE_NAME = "record_info_cache.dat";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final File file;
+	private final Map<String, RecordInfo> entries = new HashMap<>();
+	private boolean isLoaded = false;
+	private boolean isChanged = false;
+
+	private static volatile RecordInfoCache instance;
+
+	public static RecordInfoCache getInstance(Context context) {
+		if (instance == null) {
+			synchronized (RecordInfoCache.class) {
+				if (instance == null) {
+					instance = new RecordInfoCache(new File(context.getCacheDir(), FILE_NAME));
+				}
+			}
+		}
+		return instance;
+	}
+
+	private RecordInfoCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return Metadata of the file or null if the file was not probed or it has changed since.
+	 */
+	public synchronized RecordInfo get(File file) {
+		load();
+		RecordInfo info = entries.get(file.getAbsolutePath());
+		if (info != null && info.getSize() == file.length() && info.getCreated() == file.lastModified()) {
+			return copy(info);
+		}
+		return null;
+	}
+
+	/**
+	 * Save metadata probed from the file, size and modification time of the info identify file content.
+	 */
+	public synchronized void put(RecordInfo info) {
+		load();
+		entries.put(info.getLocation(), copy(info));
+		isChanged = true;
+	}
+
+	/**
+	 * Remove entries of files in the dir which are not in the list any more.
+	 * @param dir Listed dir.
+	 * @param paths Paths of files found in the dir.
+	 */
+	public synchronized void retainDir(File dir, Set<String> paths) {
+		load();
+		String dirPath = dir.getAbsolutePath();
+		Iterator<Map.Entry<String, RecordInfo>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			String path = iterator.next().getKey();
+			if (dirPath.equals(new File(path).getParent()) && !paths.contains(path)) {
+				iterator.remove();
+				isChanged = true;
+			}
+		}
+	}
+
+	/**
+	 * Write entries into the cache file if they changed. The file is replaced atomically,
+	 * a crash while saving keeps the previous content.
+	 */
+	public synchronized void save() {
+		if (!isChanged) {
+			return;
+		}
+		File tmp = new File(file.getPath() + TMP_SUFFIX);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(entries.size());
+			for (RecordInfo info : entries.values()) {
+				out.writeUTF(info.getLocation());
+				out.writeUTF(info.getName());
+				out.writeUTF(info.getFormat());
+				out.writeLong(info.getDuration());
+				out.writeLong(info.getSize());
+				out.writeLong(info.getCreated());
+				out.writeInt(info.getSampleRate());
+				out.writeInt(info.getChannelCount());
+				out.writeInt(info.getBitrate());
+				out.writeBoolean(info.isInTrash());
+			}
+		} catch (IOException e) {
+			Timber.e(e, "Failed to save record info cache");
+			tmp.delete();
+			return;
+		}
+		if (tmp.renameTo(file)) {
+			isChanged = false;
+		} else {
+			Timber.e("Failed to replace record info cache %s", file);
+			tmp.delete();
+		}
+	}
+
+	private void load() {
+		if (isLoaded) {
+			return;
+		}
+		isLoaded = true;
+		if (!file.exists()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				Timber.w("Unknown record info cache format, the cache is dropped");
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String location = in.readUTF();
+				String name = in.readUTF();
+				String format = in.readUTF();
+				long duration = in.readLong();
+				long size = in.readLong();
+				long created = in.readLong();
+				int sampleRate = in.readInt();
+				int channelCount = in.readInt();
+				int bitrate = in.readInt();
+				boolean isInTrash = in.readBoolean();
+				entries.put(location, new RecordInfo(name, format, duration, size, location, created,
+						sampleRate, channelCount, bitrate, isInTrash));
+			}
+		} catch (IOException e) {
+			//Entries read before the broken one are kept.
+			Timber.e(e, "Failed to read record info cache");
+		}
+	}
+
+	/**
+	 * Cached infos are not shared with callers because database flag of an info is mutable.
+	 */
+	private static RecordInfo copy(RecordInfo info) {
+		return new RecordInfo(info.getName(), info.getFormat(), info.getDuration(), info.getSize(),
+				info.getLocation(), info.getCreated(), info.getSampleRate(), info.getChannelCount(),
+				info.getBitrate(), info.isInTrash());
+	}
+}
@@ -23,6 +23,7 @@ import com.dimowner.audiorecorder.data.Prefs;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -77,13 +78,14 @@ public class LostRecordsPresenter implements LostRecordsContract.UserActionsList
 	@Override
 	public void deleteRecords(final List<RecordItem> list) {
 		recordingsTasks.postRunnable(() -> {
+			List<Integer> ids = new ArrayList<>(list.size());
 			for (RecordItem rec : list) {
-				localRepository.deleteRecord(rec.getId());
-//				fileRepository.deleteRecordFile(rec.getPath());
+				ids.add(rec.getId());
 				if (prefs.getActiveRecord() == rec.getId()) {
 					prefs.setActiveRecord(-1);
 				}
 			}
+			localRepository.deleteRecords(ids);
 			AndroidUtils.runOnUIThread(() -> {
 				if (view != null) {
 					view.showEmpty();
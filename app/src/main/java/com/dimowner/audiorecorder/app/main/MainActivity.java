@@ -41,8 +41,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.dimowner.audiorecorder.ARApplication;
+import com.dimowner.audiorecorder.AmplitudeLog;
 import com.dimowner.audiorecorder.ColorMap;
-import com.dimowner.audiorecorder.IntArrayList;
 import com.dimowner.audiorecorder.R;
 import com.dimowner.audiorecorder.app.DecodeService;
 import com.dimowner.audiorecorder.app.DecodeServiceListener;
@@ -58,6 +58,8 @@ import com.dimowner.audiorecorder.app.welcome.WelcomeActivity;
 import com.dimowner.audiorecorder.app.widget.RecordingWaveformView;
 import com.dimowner.audiorecorder.app.widget.WaveformViewNew;
 import com.dimowner.audiorecorder.audio.AudioDecoder;
+import com.dimowner.audiorecorder.audio.DecodeScheduler;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.data.FileRepository;
 import com.dimowner.audiorecorder.data.database.Record;
 import com.dimowner.audiorecorder.exception.CantCreateFileException;
@@ -162,6 +164,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 
 		waveformView = findViewById(R.id.record);
 		recordingWaveformView = findViewById(R.id.recording_view);
+		recordingWaveformView.setAmplitudeChannel(ARApplication.getInjector().provideAppRecorder().getAmplitudeChannel());
 		txtProgress = findViewById(R.id.txt_progress);
 		txtDuration = findViewById(R.id.txt_duration);
 		txtZeroTime = findViewById(R.id.txt_zero_time);
@@ -517,10 +520,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 
 	@Override
 	public void onRecordingProgress(long mills, int amp) {
-		runOnUiThread(() ->{
-			txtProgress.setText(TimeUtils.formatTimeIntervalHourMinSec2(mills));
-			recordingWaveformView.addRecordAmp(amp, mills);
-		});
+		runOnUiThread(() -> txtProgress.setText(TimeUtils.formatTimeIntervalHourMinSec2(mills)));
 	}
 
 	@Override
@@ -592,8 +592,8 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	}
 
 	@Override
-	public void showWaveForm(int[] waveForm, long duration, long playbackMills) {
-		if (waveForm.length > 0) {
+	public void showWaveForm(int recordId, WaveformPyramid waveform, long duration, long playbackMills) {
+		if (!waveform.isEmpty()) {
 			btnPlay.setVisibility(View.VISIBLE);
 			txtDuration.setVisibility(View.VISIBLE);
 			txtZeroTime.setVisibility(View.VISIBLE);
@@ -606,7 +606,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 			ivPlaceholder.setVisibility(View.VISIBLE);
 			waveformView.setVisibility(View.INVISIBLE);
 		}
-		waveformView.setWaveform(waveForm, duration/1000, playbackMills);
+		waveformView.setWaveform(recordId, waveform, duration/1000, playbackMills);
 	}
 
 	@Override
@@ -641,7 +641,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 
 	@Override
 	public void decodeRecord(int id) {
-		DecodeService.Companion.startNotification(getApplicationContext(), id);
+		DecodeService.Companion.startNotification(getApplicationContext(), id, DecodeScheduler.PRIORITY_ACTIVE);
 	}
 
 	@Override
@@ -672,7 +672,7 @@ public class MainActivity extends Activity implements MainContract.View, View.On
 	}
 
 	@Override
-	public void updateRecordingView(IntArrayList data, long durationMills) {
+	public void updateRecordingView(AmplitudeLog data, long durationMills) {
 		if (data != null) {
 			recordingWaveformView.setRecordingData(data, durationMills);
 		}
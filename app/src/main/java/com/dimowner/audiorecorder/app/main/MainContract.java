@@ -18,9 +18,10 @@ package com.dimowner.audiorecorder.app.main;
 
 import android.content.Context;
 import android.net.Uri;
+import com.dimowner.audiorecorder.AmplitudeLog;
 import com.dimowner.audiorecorder.Contract;
-import com.dimowner.audiorecorder.IntArrayList;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.audio.recorder.RecorderContract;
 import com.dimowner.audiorecorder.data.database.Record;
 
@@ -59,7 +60,7 @@ public interface MainContract {
 		void showRecordProcessing();
 		void hideRecordProcessing();
 
-		void showWaveForm(int[] waveForm, long duration, long playbackMills);
+		void showWaveForm(int recordId, WaveformPyramid waveform, long duration, long playbackMills);
 		void waveFormToStart();
 		void showDuration(String duration);
 		void showRecordingProgress(String progress);
@@ -73,7 +74,7 @@ public interface MainContract {
 
 		void showRecordInfo(RecordInfo info);
 
-		void updateRecordingView(IntArrayList data, long durationMills);
+		void updateRecordingView(AmplitudeLog data, long durationMills);
 
 		void showRecordsLostMessage(List<Record> list);
 
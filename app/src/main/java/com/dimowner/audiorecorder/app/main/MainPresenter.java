@@ -32,6 +32,7 @@ import com.dimowner.audiorecorder.app.AppRecorderCallback;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.app.settings.SettingsMapper;
 import com.dimowner.audiorecorder.audio.AudioDecoder;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.audio.player.PlayerContractNew;
 import com.dimowner.audiorecorder.audio.recorder.RecorderContract;
 import com.dimowner.audiorecorder.data.FileRepository;
@@ -48,6 +49,7 @@ import com.dimowner.audiorecorder.util.TimeUtils;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -62,9 +64,9 @@ public class MainPresenter implements MainContract.UserActionsListener {
 	private PlayerContractNew.PlayerCallback playerCallback;
 	private AppRecorderCallback appRecorderCallback;
 	private final BackgroundQueue loadingTasks;
+	private boolean wavRecordsRepaired = false;
 	private final BackgroundQueue recordingsTasks;
 	private final BackgroundQueue importTasks;
-	private final BackgroundQueue processingTasks;
 	private final FileRepository fileRepository;
 	private final LocalRepository localRepository;
 	private final Prefs prefs;
@@ -84,7 +86,6 @@ public class MainPresenter implements MainContract.UserActionsListener {
 								AppRecorder appRecorder,
 								final BackgroundQueue recordingTasks,
 								final BackgroundQueue loadingTasks,
-								final BackgroundQueue processingTasks,
 								final BackgroundQueue importTasks,
 								SettingsMapper settingsMapper) {
 		this.prefs = prefs;
@@ -93,7 +94,6 @@ public class MainPresenter implements MainContract.UserActionsListener {
 		this.loadingTasks = loadingTasks;
 		this.recordingsTasks = recordingTasks;
 		this.importTasks = importTasks;
-		this.processingTasks = processingTasks;
 		this.audioPlayer = audioPlayer;
 		this.appRecorder = appRecorder;
 		this.settingsMapper = settingsMapper;
@@ -111,6 +111,10 @@ public class MainPresenter implements MainContract.UserActionsListener {
 		if (!prefs.isMigratedDb3()) {
 			migrateDb3();
 		}
+		if (!wavRecordsRepaired) {
+			wavRecordsRepaired = true;
+			repairWavRecords();
+		}
 		if (!prefs.hasAskToRenameAfterStopRecordingSetting()) {
 			prefs.setAskToRenameAfterStopRecording(true);
 		}
@@ -169,7 +173,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 						record = rec;
 						songDuration = rec.getDuration();
 						if (view != null) {
-							view.showWaveForm(rec.getAmps(), songDuration, 0);
+							view.showWaveForm(rec.getId(), rec.getWaveform(), songDuration, 0);
 							view.showName(rec.getName());
 							view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(songDuration / 1000));
 							view.showOptionsMenu();
@@ -443,22 +447,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 					});
 				} else {
 					if (fileRepository.renameFile(record.getPath(), name, extension)) {
-						MainPresenter.this.record = new Record(
-								record.getId(),
-								name,
-								record.getDuration(),
-								record.getCreated(),
-								record.getAdded(),
-								record.getRemoved(),
-								renamed.getAbsolutePath(),
-								record.getFormat(),
-								record.getSize(),
-								record.getSampleRate(),
-								record.getChannelCount(),
-								record.getBitrate(),
-								record.isBookmarked(),
-								record.isWaveformProcessed(),
-								record.getAmps());
+						MainPresenter.this.record = record.copyWithName(name, renamed.getAbsolutePath());
 						if (localRepository.updateRecord(MainPresenter.this.record)) {
 							AndroidUtils.runOnUIThread(() -> {
 								if (view != null) {
@@ -510,7 +499,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 	public void decodeRecord(long id) {
 		loadingTasks.postRunnable(() -> {
 			final Record rec = localRepository.getRecord((int) prefs.getActiveRecord());
-			if (view != null && rec != null && rec.getDuration()/1000 < AppConstants.DECODE_DURATION && !rec.isWaveformProcessed()) {
+			if (view != null && rec != null && !rec.isWaveformProcessed()) {
 				view.decodeRecord(rec.getId());
 			}
 		});
@@ -534,10 +523,10 @@ public class MainPresenter implements MainContract.UserActionsListener {
 								if (duration > 0) {
 									long playProgressMills = audioPlayer.getPauseTime();
 									view.onPlayProgress(playProgressMills, (int) (1000 * playProgressMills / duration));
-									view.showWaveForm(rec.getAmps(), songDuration, playProgressMills);
+									view.showWaveForm(rec.getId(), rec.getWaveform(), songDuration, playProgressMills);
 								}
 							} else {
-								view.showWaveForm(rec.getAmps(), songDuration, 0);
+								view.showWaveForm(rec.getId(), rec.getWaveform(), songDuration, 0);
 							}
 
 							view.showName(rec.getName());
@@ -551,7 +540,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 					AndroidUtils.runOnUIThread(() -> {
 						if (view != null) {
 							view.hideProgress();
-							view.showWaveForm(new int[]{}, 0, 0);
+							view.showWaveForm(Record.NO_ID, WaveformPyramid.EMPTY, 0, 0);
 							view.showName("");
 							view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(0));
 							view.hideOptionsMenu();
@@ -690,7 +679,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 				prefs.setActiveRecord(-1);
 				AndroidUtils.runOnUIThread(() -> {
 					if (view != null) {
-						view.showWaveForm(new int[]{}, 0, 0);
+						view.showWaveForm(Record.NO_ID, WaveformPyramid.EMPTY, 0, 0);
 						view.showName("");
 						view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(0));
 						if (!forever) {
@@ -776,7 +765,7 @@ public class MainPresenter implements MainContract.UserActionsListener {
 							AndroidUtils.runOnUIThread(() -> {
 								if (view != null) {
 									audioPlayer.stop();
-									view.showWaveForm(rec.getAmps(), songDuration, 0);
+									view.showWaveForm(rec.getId(), rec.getWaveform(), songDuration, 0);
 									view.showName(rec.getName());
 									view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(songDuration / 1000));
 									view.hideProgress();
@@ -812,16 +801,17 @@ public class MainPresenter implements MainContract.UserActionsListener {
 	}
 
 	private void migrateDb3() {
-		processingTasks.postRunnable(() -> {
+		recordingsTasks.postRunnable(() -> {
 			//Update records table.
 			List<Integer> ids = localRepository.getAllItemsIds();
+			List<Record> records = new ArrayList<>(ids.size());
 			Record rec;
 			for (int i = 0; i < ids.size(); i++) {
 				if (ids.get(i) != null) {
 					rec = localRepository.getRecord(ids.get(i));
 					if (rec != null) {
 						RecordInfo info = AudioDecoder.readRecordInfo(new File(rec.getPath()));
-						localRepository.updateRecord(new Record(
+						records.add(new Record(
 								rec.getId(),
 								FileUtil.removeFileExtension(rec.getName()),
 								rec.getDuration(),
@@ -840,15 +830,17 @@ public class MainPresenter implements MainContract.UserActionsListener {
 					}
 				}
 			}
+			localRepository.updateRecords(records);
 			//Update trash records table.
 			List<Integer> trashIds = localRepository.getTrashRecordsIds();
+			List<Record> trashRecords = new ArrayList<>(trashIds.size());
 			Record trashRecord;
 			for (int i = 0; i < trashIds.size(); i++) {
 				if (trashIds.get(i) != null) {
 					trashRecord = localRepository.getTrashRecord(trashIds.get(i));
 					if (trashRecord != null) {
 						RecordInfo info = AudioDecoder.readRecordInfo(new File(trashRecord.getPath()));
-						localRepository.updateTrashRecord(new Record(
+						trashRecords.add(new Record(
 								trashRecord.getId(),
 								FileUtil.removeFileExtension(trashRecord.getName()),
 								trashRecord.getDuration(),
@@ -867,10 +859,18 @@ public class MainPresenter implements MainContract.UserActionsListener {
 					}
 				}
 			}
+			localRepository.updateTrashRecords(trashRecords);
 			prefs.migrateDb3Finished();
 		});
 	}
 
+	/**
+	 * Fix WAV records left unfinished when the app was killed while recording.
+	 */
+	private void repairWavRecords() {
+		loadingTasks.postRunnable(() -> localRepository.repairWavRecords(appRecorder::runUnlessRecording));
+	}
+
 	private String extractFileName(Context context, Uri uri) {
 		Cursor cursor = context.getContentResolver().query(uri, null, null, null, null, null);
 		try {
@@ -1,5 +1,8 @@
 package com.dimowner.audiorecorder.app.moverecords
 
+import com.dimowner.audiorecorder.audio.WaveformPyramid
+import com.dimowner.audiorecorder.data.database.Record
+
 /**
  * Created on 07.08.2021.
  * @author Dimowner
@@ -10,5 +13,6 @@ data class MoveRecordsPlayPanelState(
 	val recordPath: String = "",
 	val playRecordName: String = "",
 	val playRecordDuration: Long = 0,
-	val activeRecordData: IntArray = intArrayOf()
+	val activeRecordId: Int = Record.NO_ID,
+	val activeRecordData: WaveformPyramid = WaveformPyramid.EMPTY
 )
\ No newline at end of file
@@ -80,7 +80,8 @@ class MoveRecordsViewModel(
 							playRecordDuration = rec.duration / 1000,
 							recordPath = rec.path,
 							playRecordName = rec.name,
-							activeRecordData = rec.amps
+							activeRecordId = rec.id,
+							activeRecordData = rec.waveform
 						)
 					)
 				}
@@ -211,7 +212,8 @@ class MoveRecordsViewModel(
 								playRecordName = record.name,
 								playRecordDuration = record.duration / 1000,
 								recordPath = record.path,
-								activeRecordData = record.amps
+								activeRecordId = record.id,
+								activeRecordData = record.waveform
 							)
 						)
 						audioPlayer.play(record.path)
@@ -240,7 +242,8 @@ class MoveRecordsViewModel(
 						playRecordName = record.name,
 						playRecordDuration = record.duration/1000,
 						recordPath = record.path,
-						activeRecordData = record.amps
+						activeRecordId = record.id,
+						activeRecordData = record.waveform
 					))
 					audioPlayer.play(record.path)
 				}
@@ -53,6 +53,8 @@ import com.dimowner.audiorecorder.app.trash.TrashActivity;
 import com.dimowner.audiorecorder.app.widget.SimpleWaveformView;
 import com.dimowner.audiorecorder.app.widget.TouchLayout;
 import com.dimowner.audiorecorder.app.widget.WaveformViewNew;
+import com.dimowner.audiorecorder.audio.DecodeScheduler;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.data.database.Record;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 import com.dimowner.audiorecorder.util.AnimationUtil;
@@ -703,8 +705,8 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 	}
 
 	@Override
-	public void showWaveForm(int[] waveForm, long duration, long playbackMills) {
-		waveformView.setWaveform(waveForm, duration/1000, playbackMills);
+	public void showWaveForm(int recordId, WaveformPyramid waveform, long duration, long playbackMills) {
+		waveformView.setWaveform(recordId, waveform, duration/1000, playbackMills);
 	}
 
 	@Override
@@ -764,7 +766,7 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 
 	@Override
 	public void decodeRecord(int id) {
-		DecodeService.Companion.startNotification(getApplicationContext(), id);
+		DecodeService.Companion.startNotification(getApplicationContext(), id, DecodeScheduler.PRIORITY_ACTIVE);
 	}
 
 	@Override
@@ -958,7 +960,7 @@ public class RecordsActivity extends Activity implements RecordsContract.View, V
 		@Override
 		public void onLoadMore(int page, int totalItemsCount) {
 //			Timber.v("onLoadMore page = " + page + " count = " + totalItemsCount);
-			presenter.loadRecordsPage(page);
+			presenter.loadNextRecordsPage();
 		}
 	}
 }
@@ -185,7 +185,7 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 				}
 			});
 			holder.btnMore.setOnClickListener(v -> showMenu(v, p));
-			holder.waveformView.setWaveform(item.getAmps());
+			holder.waveformView.setWaveform(item.getId(), item.getAmps());
 			if (isMultiSelectMode || item.getDuration() == 0) {
 				holder.btnMore.setVisibility(View.GONE);
 			} else {
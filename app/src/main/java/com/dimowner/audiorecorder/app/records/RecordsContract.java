@@ -18,6 +18,7 @@ package com.dimowner.audiorecorder.app.records;
 
 import com.dimowner.audiorecorder.Contract;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.data.database.Record;
 
 import java.util.List;
@@ -41,7 +42,7 @@ public interface RecordsContract {
 
 		void startPlaybackService();
 
-		void showWaveForm(int[] waveForm, long duration, long playbackMills);
+		void showWaveForm(int recordId, WaveformPyramid waveform, long duration, long playbackMills);
 		void showDuration(String duration);
 
 		void showRecords(List<ListItem> records, int order);
@@ -108,7 +109,7 @@ public interface RecordsContract {
 
 		void updateRecordsOrder(int order);
 
-		void loadRecordsPage(int page);
+		void loadNextRecordsPage();
 
 		void decodeActiveRecord();
 
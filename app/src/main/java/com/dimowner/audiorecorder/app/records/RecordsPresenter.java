@@ -28,6 +28,7 @@ import com.dimowner.audiorecorder.data.FileRepository;
 import com.dimowner.audiorecorder.data.Prefs;
 import com.dimowner.audiorecorder.data.database.LocalRepository;
 import com.dimowner.audiorecorder.data.database.Record;
+import com.dimowner.audiorecorder.data.database.RecordSummary;
 import com.dimowner.audiorecorder.exception.AppException;
 import com.dimowner.audiorecorder.exception.ErrorParser;
 import com.dimowner.audiorecorder.util.AndroidUtils;
@@ -35,6 +36,7 @@ import com.dimowner.audiorecorder.util.FileUtil;
 import com.dimowner.audiorecorder.util.TimeUtils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -54,6 +56,8 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 	private final Prefs prefs;
 
 	private Record activeRecord;
+	/** Last record of loaded records list, next page starts after it. Used on loadingTasks thread. */
+	private RecordSummary lastLoadedRecord;
 	private boolean showBookmarks = false;
 	private boolean listenPlaybackProgress = true;
 
@@ -274,17 +278,17 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 	@Override
 	public void deleteRecords(List<Long> ids) {
 		recordingsTasks.postRunnable(() -> {
-			for(Long id: ids) {
-				localRepository.deleteRecord(id.intValue());
-				AndroidUtils.runOnUIThread(() -> {
-					if (view != null) {
-						view.showTrashBtn();
-						view.onDeleteRecord(id);
-					}
-				});
+			List<Integer> recordIds = new ArrayList<>(ids.size());
+			for (Long id: ids) {
+				recordIds.add(id.intValue());
 			}
+			localRepository.deleteRecords(recordIds);
 			AndroidUtils.runOnUIThread(() -> {
 				if (view != null) {
+					view.showTrashBtn();
+					for (Long id: ids) {
+						view.onDeleteRecord(id);
+					}
 					view.cancelMultiSelect();
 					view.showMessage(R.string.selected_records_moved_into_trash);
 				}
@@ -319,22 +323,7 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 					});
 				} else {
 					if (fileRepository.renameFile(rec2.getPath(), name, extension)) {
-						Record renamedRecord = new Record(
-								rec2.getId(),
-								name,
-								rec2.getDuration(),
-								rec2.getCreated(),
-								rec2.getAdded(),
-								rec2.getRemoved(),
-								renamed.getAbsolutePath(),
-								rec2.getFormat(),
-								rec2.getSize(),
-								rec2.getSampleRate(),
-								rec2.getChannelCount(),
-								rec2.getBitrate(),
-								rec2.isBookmarked(),
-								rec2.isWaveformProcessed(),
-								rec2.getAmps());
+						Record renamedRecord = rec2.copyWithName(name, renamed.getAbsolutePath());
 						if (localRepository.updateRecord(renamedRecord)) {
 							AndroidUtils.runOnUIThread(() -> {
 								if (view != null) {
@@ -389,12 +378,13 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 			view.showPanelProgress();
 			loadingTasks.postRunnable(() -> {
 				final int order = prefs.getRecordsOrder();
-				final List<Record> recordList = localRepository.getRecords(0, order);
+				final List<RecordSummary> recordList = localRepository.getRecordSummaries(null, order);
+				lastLoadedRecord = recordList.isEmpty() ? null : recordList.get(recordList.size() - 1);
 				final Record rec = localRepository.getRecord((int) prefs.getActiveRecord());
 				activeRecord = rec;
 				AndroidUtils.runOnUIThread(() -> {
 					if (view != null) {
-						view.showRecords(Mapper.recordsToListItems(recordList), order);
+						view.showRecords(Mapper.summariesToListItems(recordList), order);
 						if (audioPlayer.isPaused() || audioPlayer.isPlaying()) {
 							if (rec != null) {
 								if (audioPlayer.isPaused()) {
@@ -402,10 +392,10 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 									if (duration > 0) {
 										long playProgressMills = audioPlayer.getPauseTime();
 										view.onPlayProgress(playProgressMills, (int) (1000 * playProgressMills / duration));
-										view.showWaveForm(rec.getAmps(), rec.getDuration(), playProgressMills);
+										view.showWaveForm(rec.getId(), rec.getWaveform(), rec.getDuration(), playProgressMills);
 									}
 								} else {
-									view.showWaveForm(rec.getAmps(), rec.getDuration(), 0);
+									view.showWaveForm(rec.getId(), rec.getWaveform(), rec.getDuration(), 0);
 								}
 								view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(rec.getDuration() / 1000));
 								view.showRecordName(rec.getName());
@@ -442,16 +432,19 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 	}
 
 	@Override
-	public void loadRecordsPage(final int page) {
+	public void loadNextRecordsPage() {
 		if (view != null && !showBookmarks) {
 			view.showProgress();
 			view.showPanelProgress();
 			loadingTasks.postRunnable(() -> {
 				final int order = prefs.getRecordsOrder();
-				final List<Record> recordList = localRepository.getRecords(page, order);
+				final List<RecordSummary> recordList = localRepository.getRecordSummaries(lastLoadedRecord, order);
+				if (!recordList.isEmpty()) {
+					lastLoadedRecord = recordList.get(recordList.size() - 1);
+				}
 				AndroidUtils.runOnUIThread(() -> {
 					if (view != null) {
-						view.addRecords(Mapper.recordsToListItems(recordList), order);
+						view.addRecords(Mapper.summariesToListItems(recordList), order);
 						view.hideProgress();
 						view.hidePanelProgress();
 						view.bookmarksUnselected();
@@ -571,7 +564,7 @@ public class RecordsPresenter implements RecordsContract.UserActionsListener {
 				if (rec != null) {
 					AndroidUtils.runOnUIThread(() -> {
 						if (view != null) {
-							view.showWaveForm(rec.getAmps(), rec.getDuration(), 0);
+							view.showWaveForm(rec.getId(), rec.getWaveform(), rec.getDuration(), 0);
 							view.showDuration(TimeUtils.formatTimeIntervalHourMinSec2(rec.getDuration() / 1000));
 							view.showRecordName(rec.getName());
 							callback.onSuccess();
@@ -72,6 +72,7 @@ public class SettingsActivity extends Activity implements SettingsContract.View,
 
 	private Switch swPublicDir;
 	private Switch swKeepScreenOn;
+	private Switch swSkipSilence;
 	private Switch swAskToRename;
 
 	private Spinner nameFormatSelector;
@@ -147,6 +148,7 @@ public class SettingsActivity extends Activity implements SettingsContract.View,
 		txtFileBrowser.setOnClickListener(this);
 		swPublicDir = findViewById(R.id.swPublicDir);
 		swKeepScreenOn = findViewById(R.id.swKeepScreenOn);
+		swSkipSilence = findViewById(R.id.swSkipSilence);
 		swAskToRename = findViewById(R.id.swAskToRename);
 
 		txtRecordsCount = findViewById(R.id.txt_records_count);
@@ -156,6 +158,7 @@ public class SettingsActivity extends Activity implements SettingsContract.View,
 		swPublicDir.setOnCheckedChangeListener(publicDirListener);
 
 		swKeepScreenOn.setOnCheckedChangeListener((btn, isChecked) -> presenter.keepScreenOn(isChecked));
+		swSkipSilence.setOnCheckedChangeListener((btn, isChecked) -> presenter.skipSilence(isChecked));
 		swAskToRename.setOnCheckedChangeListener((btn, isChecked) -> presenter.askToRenameAfterRecordingStop(isChecked));
 
 		formatSetting = findViewById(R.id.setting_recording_format);
@@ -426,6 +429,11 @@ public class SettingsActivity extends Activity implements SettingsContract.View,
 		swKeepScreenOn.setChecked(b);
 	}
 
+	@Override
+	public void showSkipSilence(boolean b) {
+		swSkipSilence.setChecked(b);
+	}
+
 	@Override
 	public void showChannelCount(int count) {
 		channelsSetting.setSelected(SettingsMapper.channelCountToKey(count));
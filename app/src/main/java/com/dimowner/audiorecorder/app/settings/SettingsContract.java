@@ -34,6 +34,8 @@ public class SettingsContract {
 
 		void showKeepScreenOn(boolean b);
 
+		void showSkipSilence(boolean b);
+
 		void showAskToRenameAfterRecordingStop(boolean b);
 
 		void showRecordingBitrate(int bitrate);
@@ -82,6 +84,8 @@ public class SettingsContract {
 
 		void keepScreenOn(boolean b);
 
+		void skipSilence(boolean b);
+
 		void askToRenameAfterRecordingStop(boolean b);
 
 		void setSettingRecordingBitrate(int bitrate);
@@ -112,6 +112,7 @@ public class SettingsPresenter implements SettingsContract.UserActionsListener {
 			}
 			view.showAskToRenameAfterRecordingStop(prefs.isAskToRenameAfterStopRecording());
 			view.showKeepScreenOn(prefs.isKeepScreenOn());
+			view.showSkipSilence(prefs.isSkipSilence());
 			view.showChannelCount(prefs.getSettingChannelCount());
 			String recordingFormatKey = prefs.getSettingRecordingFormat();
 			view.showRecordingFormat(recordingFormatKey);
@@ -140,6 +141,11 @@ public class SettingsPresenter implements SettingsContract.UserActionsListener {
 		prefs.setKeepScreenOn(keep);
 	}
 
+	@Override
+	public void skipSilence(boolean skip) {
+		prefs.setSkipSilence(skip);
+	}
+
 	@Override
 	public void askToRenameAfterRecordingStop(boolean b) {
 		prefs.setAskToRenameAfterStopRecording(b);
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dimowner.audiorecorder.app.widget;
+
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Measures how long a view draws frames and how often frames come while the view is animated,
+ * for example while waveform is scrolled or played. Frames which come later than the idle
+ * threshold after the previous one start a new run and are not counted as late.
+ * When logging is enabled a summary is logged for every run of continuous drawing.
+ */
+public class FrameTimeCounter {
+
+	/** Frame interval at 60 fps. */
+	public static final long FRAME_BUDGET_NANOS = TimeUnit.MICROSECONDS.toNanos(16667);
+	/** Frame later than this is counted as a pause of drawing, not as a slow frame. */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+	/** Runs shorter than this are not logged. */
+	private static final int MIN_LOGGED_FRAMES = 30;
+
+	private final String name;
+	private final boolean logEnabled;
+
+	private long lastFrameStart = 0;
+	private long runStart = 0;
+	private int frameCount = 0;
+	private int lateFrameCount = 0;
+	private long totalDrawNanos = 0;
+	private long maxDrawNanos = 0;
+	private long maxIntervalNanos = 0;
+
+	/**
+	 * @param name Name used in log.
+	 * @param logEnabled Log summary of every run.
+	 */
+	public FrameTimeCounter(String name, boolean logEnabled) {
+		this.name = name;
+		this.logEnabled = logEnabled;
+	}
+
+	/**
+	 * Call at the beginning of onDraw.
+	 * @return Frame start time to pass to {@link #end(long)}.
+	 */
+	public long begin() {
+		long now = System.nanoTime();
+		long interval = now - lastFrameStart;
+		if (lastFrameStart == 0 || interval > IDLE_NANOS) {
+			log();
+			reset();
+			runStart = now;
+		} else {
+			maxIntervalNanos = Math.max(maxIntervalNanos, interval);
+			//Interval over one and a half budgets means at least one vsync was missed.
+			if (interval > FRAME_BUDGET_NANOS * 3 / 2) {
+				lateFrameCount++;
+			}
+		}
+		lastFrameStart = now;
+		return now;
+	}
+
+	/**
+	 * Call at the end of onDraw.
+	 */
+	public void end(long frameStart) {
+		long draw = System.nanoTime() - frameStart;
+		frameCount++;
+		totalDrawNanos += draw;
+		maxDrawNanos = Math.max(maxDrawNanos, draw);
+	}
+
+	/**
+	 * Count of frames drawn in the current run.
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Count of frames of the current run which came later than one frame budget.
+	 */
+	public int getLateFrameCount() {
+		return lateFrameCount;
+	}
+
+	public long getAverageDrawNanos() {
+		return frameCount > 0 ? totalDrawNanos / frameCount : 0;
+	}
+
+	public long getMaxDrawNanos() {
+		return maxDrawNanos;
+	}
+
+	public long getMaxIntervalNanos() {
+		return maxIntervalNanos;
+	}
+
+	/**
+	 * Frame rate of the current run.
+	 */
+	public float getFps() {
+		long duration = lastFrameStart - runStart;
+		return frameCount > 1 && duration > 0 ? (frameCount - 1) * 1e9f / duration : 0;
+	}
+
+	private void log() {
+		if (logEnabled && frameCount >= MIN_LOGGED_FRAMES) {
+			Timber.d("%s: %d frames, %.1f fps, %d late, draw avg %d us max %d us, max interval %d us",
+					name, frameCount, getFps(), lateFrameCount,
+					getAverageDrawNanos() / 1000, maxDrawNanos / 1000, maxIntervalNanos / 1000);
+		}
+	}
+
+	public void reset() {
+		runStart = lastFrameStart;
+		frameCount = 0;
+		lateFrameCount = 0;
+		totalDrawNanos = 0;
+		maxDrawNanos = 0;
+		maxIntervalNanos = 0;
+	}
+}
@@ -23,12 +23,13 @@ import android.text.TextPaint
 import android.util.AttributeSet
 import android.view.View
 import androidx.core.content.ContextCompat
+import com.dimowner.audiorecorder.AmplitudeChannel
+import com.dimowner.audiorecorder.AmplitudeLog
 import com.dimowner.audiorecorder.AppConstants
-import com.dimowner.audiorecorder.IntArrayList
+import com.dimowner.audiorecorder.IntRingBuffer
 import com.dimowner.audiorecorder.R
 import com.dimowner.audiorecorder.util.AndroidUtils
 import com.dimowner.audiorecorder.util.TimeUtils
-import java.util.*
 import kotlin.math.ceil
 
 private const val DEFAULT_GRID_STEP = 2000L //Milliseconds
@@ -54,12 +55,28 @@ class RecordingWaveformView @JvmOverloads constructor(
 	private var viewWidthPx = 0
 	private var viewHeightPx = 0
 
-	private val recordingData: MutableList<Int> = LinkedList<Int>()
+	/** Newest amplitudes of the recording, only as many as fit half of the view. */
+	private val recordingData = IntRingBuffer(1)
 	lateinit var drawLinesArray: FloatArray
 	private var totalRecordingSize: Int = 0
+	/** Recording data set before the first layout, the ring can not be sized until the view width is known. */
+	private var pendingData: AmplitudeLog? = null
+	private var pendingMills: Long = 0
 
 	private var showTimeline: Boolean = true
 
+	/** Amplitudes are taken from the channel once per frame while the view is shown. */
+	private var amplitudeReader: AmplitudeChannel.Reader? = null
+	private var pullBuffer = IntArray(0)
+	private val pullFrame = object : Runnable {
+		override fun run() {
+			if (amplitudeReader != null && isShown) {
+				pullAmplitudes()
+				postOnAnimation(this)
+			}
+		}
+	}
+
 	private var durationMills: Long = 0
 	private var durationPx: Double = 0.0
 	private var millsPerPx: Double = 0.0
@@ -93,35 +110,83 @@ class RecordingWaveformView @JvmOverloads constructor(
 		textPaint.textSize = textHeight
 	}
 
-	fun addRecordAmp(amp: Int, mills: Long) {
-		recordingData.add(convertAmp(amp.toDouble()))
-		totalRecordingSize++
-		updateValues(totalRecordingSize, mills)
-		if (recordingData.size > pxToSample(viewWidthPx / 2)) {
-			recordingData.removeAt(0)
+	/**
+	 * Set channel of recording amplitudes, the view takes new amplitudes from it
+	 * at display frame rate while it is shown.
+	 */
+	fun setAmplitudeChannel(channel: AmplitudeChannel?) {
+		removeCallbacks(pullFrame)
+		amplitudeReader = channel?.newReader()
+		pullBuffer = IntArray(channel?.capacity ?: 0)
+		startPulling()
+	}
+
+	private fun startPulling() {
+		removeCallbacks(pullFrame)
+		if (amplitudeReader != null && isAttachedToWindow && isShown) {
+			postOnAnimation(pullFrame)
+		}
+	}
+
+	private fun pullAmplitudes() {
+		val reader = amplitudeReader ?: return
+		if (pendingData != null || !reader.hasNew()) {
+			return
+		}
+		val count = reader.read(pullBuffer)
+		if (count > 0) {
+			totalRecordingSize += count
+			updateValues(totalRecordingSize, reader.lastMills)
+			for (i in 0 until count) {
+				recordingData.add(pullBuffer[i])
+			}
+			invalidate()
+		}
+	}
+
+	override fun onAttachedToWindow() {
+		super.onAttachedToWindow()
+		startPulling()
+	}
+
+	override fun onDetachedFromWindow() {
+		removeCallbacks(pullFrame)
+		super.onDetachedFromWindow()
+	}
+
+	override fun onVisibilityChanged(changedView: View, visibility: Int) {
+		super.onVisibilityChanged(changedView, visibility)
+		if (visibility == VISIBLE) {
+			startPulling()
 		}
-		invalidate()
 	}
 
-	fun setRecordingData(data: IntArrayList, durationMills: Long) {
+	fun setRecordingData(data: AmplitudeLog, durationMills: Long) {
 		post {
-			recordingData.clear()
-			totalRecordingSize = data.size()
-			updateValues(totalRecordingSize, durationMills)
-			val count = pxToSample(viewWidthPx / 2).toInt()
-			if (data.size() > count) {
-				for (i in data.size() - count until data.size()) {
-					recordingData.add(convertAmp(data[i].toDouble()))
-				}
+			if (viewWidthPx == 0) {
+				pendingData = data
+				pendingMills = durationMills
 			} else {
-				for (i in 0 until data.size()) {
-					recordingData.add(convertAmp(data[i].toDouble()))
-				}
+				pendingData = null
+				applyRecordingData(data, durationMills)
 			}
 			requestLayout()
 		}
 	}
 
+	private fun applyRecordingData(data: AmplitudeLog, durationMills: Long) {
+		//Amplitudes published before the snapshot are already in the log.
+		amplitudeReader?.skip()
+		recordingData.clear()
+		totalRecordingSize = data.size()
+		updateValues(totalRecordingSize, durationMills)
+		val range = data.tail(recordingData.capacity())
+		for (i in 0 until range.size()) {
+			recordingData.add(range[i])
+		}
+		invalidate()
+	}
+
 	private fun updateValues(size: Int, durationMills: Long) {
 		this.durationMills = durationMills
 		this.pxPerMill = DEFAULT_PIXEL_PER_SECOND/1000.0
@@ -129,9 +194,26 @@ class RecordingWaveformView @JvmOverloads constructor(
 		this.millsPerPx = 1/pxPerMill
 		this.samplePerMill = size/durationMills.toDouble()
 		this.samplePerPx = samplePerMill/pxPerMill
+		updateCapacity()
+	}
+
+	/**
+	 * Grow the ring to hold amplitudes of half of the view at current scale.
+	 */
+	private fun updateCapacity() {
+		if (samplePerPx.isNaN() || samplePerPx.isInfinite()) {
+			return
+		}
+		val visible = ceil(pxToSample(viewWidthPx / 2)).toInt() + 1
+		if (visible > recordingData.capacity()) {
+			//Spare room so the ring is not resized every time the rate of amplitudes changes a bit.
+			recordingData.resize(visible + visible / 4)
+		}
 	}
 
 	fun reset() {
+		pendingData = null
+		amplitudeReader?.skip()
 		recordingData.clear()
 		totalRecordingSize = 0
 
@@ -156,7 +238,7 @@ class RecordingWaveformView @JvmOverloads constructor(
 	/**
 	 * Convert dB amp value to view amp.
 	 */
-	private fun convertAmp(amp: Double): Int {
+	private fun convertAmp(amp: Int): Int {
 		return (amp * ((viewHeightPx / 2).toFloat() / 32767)).toInt()
 	}
 
@@ -175,6 +257,12 @@ class RecordingWaveformView @JvmOverloads constructor(
 			viewWidthPx = width
 			viewHeightPx = height
 			drawLinesArray = FloatArray(viewWidthPx / 2 * 4)
+			updateCapacity()
+		}
+		val data = pendingData
+		if (data != null && viewWidthPx > 0) {
+			pendingData = null
+			applyRecordingData(data, pendingMills)
 		}
 	}
 
@@ -219,33 +307,27 @@ class RecordingWaveformView @JvmOverloads constructor(
 	}
 
 	private fun drawRecordingWaveform(canvas: Canvas) {
-		if (recordingData.isNotEmpty()) {
-			clearDrawLines()
+		if (recordingData.size() > 0) {
 			val half = viewHeightPx / 2
 			val halfWidth = viewWidthPx / 2
 			val endPx = if (durationPx < halfWidth) { durationPx.toInt() } else { halfWidth }
 			var step = 0
 			for (index in 0 until endPx ) {
 				var sampleIndex = pxToSample(index).toInt()
-				if (sampleIndex >= recordingData.size) {
-					sampleIndex = recordingData.size - 1
+				if (sampleIndex >= recordingData.size()) {
+					sampleIndex = recordingData.size() - 1
 				}
 				val xPos = (viewWidthPx / 2 - index).toFloat()
 				if (xPos >= 0 && xPos <= viewWidthPx && step + 3 < drawLinesArray.size) {  // Draw only visible part of waveform
+					val amp = convertAmp(recordingData.getFromNewest(sampleIndex))
 					drawLinesArray[step] = xPos
-					drawLinesArray[step + 1] = (half + recordingData[recordingData.size - 1 - sampleIndex] + 1).toFloat()
+					drawLinesArray[step + 1] = (half + amp + 1).toFloat()
 					drawLinesArray[step + 2] = xPos
-					drawLinesArray[step + 3] = (half - recordingData[recordingData.size - 1 - sampleIndex] - 1).toFloat()
+					drawLinesArray[step + 3] = (half - amp - 1).toFloat()
 					step += 4
 				}
 			}
-			canvas.drawLines(drawLinesArray, 0, drawLinesArray.size, waveformPaint)
-		}
-	}
-
-	private fun clearDrawLines() {
-		for (i in drawLinesArray.indices) {
-			drawLinesArray[i] = 0f
+			canvas.drawLines(drawLinesArray, 0, step, waveformPaint)
 		}
 	}
 }
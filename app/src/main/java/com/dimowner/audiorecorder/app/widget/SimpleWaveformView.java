@@ -35,8 +35,15 @@ public class SimpleWaveformView extends View {
 
 	private int[] waveForm;
 
+	private long recordId = WaveformHeightsCache.NO_ID;
+
 	private boolean isInitialized;
 
+	/** Half of the view height for which the heights were requested. */
+	private int requestedHalfHeight = -1;
+
+	private WaveformHeightsCache.Request heightsRequest;
+
 	private final int[] empty = new int[0];
 
 	/**
@@ -81,15 +88,24 @@ public class SimpleWaveformView extends View {
 	}
 
 	public void setWaveform(int[] frameGains) {
+		setWaveform(WaveformHeightsCache.NO_ID, frameGains);
+	}
+
+	/**
+	 * @param recordId Id of the record the waveform belongs to, heights are cached by it.
+	 */
+	public void setWaveform(long recordId, int[] frameGains) {
 		if (frameGains != null) {
 			this.waveForm = frameGains;
-			this.waveformData = frameGains;
+			this.recordId = recordId;
+			//Heights of recycled view belong to another record.
+			this.waveformData = null;
 			if (isMeasured) {
-				adjustWaveformHeights(waveForm);
+				adjustWaveformHeights();
 			}
 		} else {
 			if (isMeasured) {
-				adjustWaveformHeights(empty);
+				adjustWaveformHeights();
 			}
 		}
 		requestLayout();
@@ -122,12 +138,8 @@ public class SimpleWaveformView extends View {
 	@Override
 	protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
 		super.onLayout(changed, left, top, right, bottom);
-		if (isMeasured && !isInitialized) {
-			if (waveForm != null) {
-				adjustWaveformHeights(waveForm);
-			} else {
-				adjustWaveformHeights(empty);
-			}
+		if (isMeasured && (!isInitialized || requestedHalfHeight != getMeasuredHeight() / 2)) {
+			adjustWaveformHeights();
 		}
 	}
 
@@ -181,98 +193,21 @@ public class SimpleWaveformView extends View {
 	}
 
 	/**
-	 * Called once when a new sound file is added
+	 * Request heights of the waveform for the measured height, they are calculated on worker thread
+	 * and replace current heights when ready.
 	 */
-	private void adjustWaveformHeights(int[] frameGains) {
-		int numFrames = frameGains.length;
-		//One frame corresponds one pixel on screen
-		int[] smoothedGains = frameGains;
-//		double[] smoothedGains = new double[numFrames];
-//		if (numFrames == 1) {
-//			smoothedGains[0] = frameGains[0];
-//		} else if (numFrames == 2) {
-//			smoothedGains[0] = frameGains[0];
-//			smoothedGains[1] = frameGains[1];
-//		} else if (numFrames > 2) {
-//			smoothedGains[0] = (
-//					(frameGains[0] / 2.0) +
-//							(frameGains[1] / 2.0));
-//			for (int i = 1; i < numFrames - 1; i++) {
-//				smoothedGains[i] = (
-//						(frameGains[i - 1] / 3.0) +
-//								(frameGains[i] / 3.0) +
-//								(frameGains[i + 1] / 3.0));
-//			}
-//			smoothedGains[numFrames - 1] = (
-//					(frameGains[numFrames - 2] / 2.0) +
-//							(frameGains[numFrames - 1] / 2.0));
-//		}
-
-		// Make sure the range is no more than 0 - 255
-		double maxGain = 1.0;
-		for (int i = 0; i < numFrames; i++) {
-			if (smoothedGains[i] > maxGain) {
-				maxGain = smoothedGains[i];
-			}
+	private void adjustWaveformHeights() {
+		if (heightsRequest != null) {
+			heightsRequest.cancel();
 		}
-		double scaleFactor = 1.0;
-		if (maxGain > 255.0) {
-			scaleFactor = 255 / maxGain;
-		}
-
-		// Build histogram of 256 bins and figure out the new scaled max
-		maxGain = 0;
-		int gainHist[] = new int[256];
-		for (int i = 0; i < numFrames; i++) {
-			int smoothedGain = (int) (smoothedGains[i] * scaleFactor);
-			if (smoothedGain < 0)
-				smoothedGain = 0;
-			if (smoothedGain > 255)
-				smoothedGain = 255;
-
-			if (smoothedGain > maxGain)
-				maxGain = smoothedGain;
-
-			gainHist[smoothedGain]++;
-		}
-
-		// Re-calibrate the min to be 5%
-		double minGain = 0;
-		int sum = 0;
-		while (minGain < 255 && sum < numFrames / 20) {
-			sum += gainHist[(int) minGain];
-			minGain++;
-		}
-
-		// Re-calibrate the max to be 99%
-		sum = 0;
-		while (maxGain > 2 && sum < numFrames / 100) {
-			sum += gainHist[(int) maxGain];
-			maxGain--;
-		}
-
-		// Compute the heights
-		double[] heights = new double[numFrames];
-		double range = maxGain - minGain;
-		if (range <= 0) {
-			range = 1;
-		}
-		for (int i = 0; i < numFrames; i++) {
-			double value = (smoothedGains[i] * scaleFactor - minGain) / range;
-			if (value < 0.0)
-				value = 0.0;
-			if (value > 1.0)
-				value = 1.0;
-			heights[i] = value * value;
-		}
-
-		int halfHeight = (getMeasuredHeight() / 2);// - (int)inset - 1;
-
-		waveformData = new int[numFrames];
-		for (int i = 0; i < numFrames; i++) {
-			waveformData[i] = (int) (heights[i] * (halfHeight));
-		}
-
+		requestedHalfHeight = getMeasuredHeight() / 2;
 		isInitialized = true;
+		int[] gains = waveForm != null ? waveForm : empty;
+		heightsRequest = WaveformHeightsCache.getInstance().requestGainHeights(recordId, gains,
+				requestedHalfHeight, heights -> {
+					heightsRequest = null;
+					waveformData = heights;
+					invalidate();
+				});
 	}
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dimowner.audiorecorder.app.widget;
+
+import com.dimowner.audiorecorder.BackgroundQueue;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
+import com.dimowner.audiorecorder.util.AndroidUtils;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Normalizes waveform gains into heights in pixels on a worker thread, so waveform views
+ * do not run histogram calibration of a whole record on main thread when a record is shown,
+ * the view is rotated or laid out again. Results are cached by record id, view height and
+ * display density, a view gets a cached result right away and a new one on main thread
+ * when it is calculated. Views replace their heights array with the result in one assignment.
+ */
+public class WaveformHeightsCache {
+
+	/** Record id of waveforms which are not stored as records, they are cached by identity. */
+	public static final long NO_ID = -1;
+	/** Cached results, enough for a screen of list items and opened records. */
+	private static final int MAX_ENTRIES = 64;
+
+	private static final int KIND_GAINS = 0;
+	private static final int KIND_POINTS = 1;
+	private static final int KIND_TABLE = 2;
+
+	private final Map<Key, Entry> cache = new LinkedHashMap<Key, Entry>(MAX_ENTRIES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private BackgroundQueue queue;
+
+	private static class WaveformHeightsCacheSingletonHolder {
+		private static final WaveformHeightsCache singleton = new WaveformHeightsCache();
+
+		public static WaveformHeightsCache getSingleton() {
+			return WaveformHeightsCacheSingletonHolder.singleton;
+		}
+	}
+
+	public static WaveformHeightsCache getInstance() {
+		return WaveformHeightsCacheSingletonHolder.getSingleton();
+	}
+
+	private WaveformHeightsCache() { }
+
+	/**
+	 * Heights for every gain of single level waveform.
+	 * @param gains Gains, the array must not be changed after the call.
+	 * @param halfHeightPx Height of the highest point.
+	 */
+	public Request requestGainHeights(long recordId, int[] gains, int halfHeightPx, OnHeightsListener listener) {
+		return request(new Key(recordId, gains, KIND_GAINS, halfHeightPx, gains.length), gains,
+				() -> normalizeGains(gains, halfHeightPx), listener);
+	}
+
+	/**
+	 * Heights of count points spread evenly over the waveform, taken from the nearest level.
+	 * @param halfHeightPx Height of the highest point.
+	 */
+	public Request requestPointHeights(long recordId, WaveformPyramid waveform, int count, int halfHeightPx,
+												  OnHeightsListener listener) {
+		return request(new Key(recordId, waveform, KIND_POINTS, halfHeightPx, count), waveform,
+				() -> pointHeights(waveform, count, halfHeightPx), listener);
+	}
+
+	/**
+	 * Heights for all 256 gain values of the waveform, see {@link WaveformPyramid.Calibration#heightTable(int)}.
+	 * @param halfHeightPx Height of the highest point.
+	 */
+	public Request requestHeightTable(long recordId, WaveformPyramid waveform, int halfHeightPx,
+												 OnHeightsListener listener) {
+		return request(new Key(recordId, waveform, KIND_TABLE, halfHeightPx, 256), waveform,
+				() -> waveform.getCalibration().heightTable(halfHeightPx), listener);
+	}
+
+	/**
+	 * Calls listener immediately if the result is cached, otherwise calculates it on worker thread
+	 * and calls listener on main thread unless the request is cancelled.
+	 * @return Request or null if listener was already called.
+	 */
+	private Request request(Key key, Object source, Calculation calculation, OnHeightsListener listener) {
+		int[] cached = get(key, source);
+		if (cached != null) {
+			listener.onHeights(cached);
+			return null;
+		}
+		Request request = new Request();
+		getQueue().postRunnable(() -> {
+			if (request.cancelled) {
+				return;
+			}
+			int[] heights = get(key, source);
+			if (heights == null) {
+				heights = calculation.calculate();
+				put(key, source, heights);
+			}
+			final int[] result = heights;
+			AndroidUtils.runOnUIThread(() -> {
+				if (!request.cancelled) {
+					listener.onHeights(result);
+				}
+			});
+		});
+		return request;
+	}
+
+	private int[] get(Key key, Object source) {
+		synchronized (cache) {
+			Entry entry = cache.get(key);
+			//Waveform of a record changes when the record is processed again.
+			if (entry != null && entry.source.get() == source) {
+				return entry.heights;
+			}
+			return null;
+		}
+	}
+
+	private void put(Key key, Object source, int[] heights) {
+		synchronized (cache) {
+			cache.put(key, new Entry(source, heights));
+		}
+	}
+
+	private synchronized BackgroundQueue getQueue() {
+		if (queue == null) {
+			queue = new BackgroundQueue("WaveformHeights");
+		}
+		return queue;
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	private static int[] pointHeights(WaveformPyramid waveform, int count, int halfHeightPx) {
+		int[] heights = waveform.getCalibration().heightTable(halfHeightPx);
+		int[] data = new int[Math.max(0, count)];
+		if (!waveform.isEmpty()) {
+			int level = waveform.selectLevel(count);
+			int size = waveform.getLevelSize(level);
+			for (int i = 0; i < count; i++) {
+				int from = (int) ((long) i * size / count);
+				int to = Math.min(size, Math.max(from + 1, (int) ((long) (i + 1) * size / count)));
+				data[i] = heights[waveform.getPeak(level, from, to)];
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Scale gains into heights. Ignores 5% of the quietest and 1% of the loudest points
+	 * so a few spikes or a long silence do not flatten the waveform.
+	 */
+	public static int[] normalizeGains(int[] gains, int halfHeightPx) {
+		int numFrames = gains.length;
+		// Make sure the range is no more than 0 - 255
+		int maxGain = 1;
+		for (int i = 0; i < numFrames; i++) {
+			if (gains[i] > maxGain) {
+				maxGain = gains[i];
+			}
+		}
+		double scaleFactor = 1.0;
+		if (maxGain > 255) {
+			scaleFactor = 255.0 / maxGain;
+		}
+
+		// Build histogram of 256 bins and figure out the new scaled max
+		int scaledMax = 0;
+		int[] gainHist = new int[256];
+		for (int i = 0; i < numFrames; i++) {
+			int gain = Math.min(255, Math.max(0, (int) (gains[i] * scaleFactor)));
+			if (gain > scaledMax) {
+				scaledMax = gain;
+			}
+			gainHist[gain]++;
+		}
+
+		// Re-calibrate the min to be 5%
+		int minGain = 0;
+		int sum = 0;
+		while (minGain < 255 && sum < numFrames / 20) {
+			sum += gainHist[minGain];
+			minGain++;
+		}
+
+		// Re-calibrate the max to be 99%
+		sum = 0;
+		while (scaledMax > 2 && sum < numFrames / 100) {
+			sum += gainHist[scaledMax];
+			scaledMax--;
+		}
+
+		double range = scaledMax - minGain;
+		if (range <= 0) {
+			range = 1;
+		}
+		int[] heights = new int[numFrames];
+		for (int i = 0; i < numFrames; i++) {
+			double value = (gains[i] * scaleFactor - minGain) / range;
+			if (value < 0) value = 0;
+			if (value > 1) value = 1;
+			heights[i] = (int) (value * value * halfHeightPx);
+		}
+		return heights;
+	}
+
+	/**
+	 * Pending calculation, cancel it when the view gets other waveform.
+	 */
+	public static class Request {
+		private volatile boolean cancelled = false;
+
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	public interface OnHeightsListener {
+		/**
+		 * Called on main thread, heights array is shared with other views and must not be changed.
+		 */
+		void onHeights(int[] heights);
+	}
+
+	private interface Calculation {
+		int[] calculate();
+	}
+
+	private static class Entry {
+		final WeakReference<Object> source;
+		final int[] heights;
+
+		Entry(Object source, int[] heights) {
+			this.source = new WeakReference<>(source);
+			this.heights = heights;
+		}
+	}
+
+	private static class Key {
+		final long id;
+		final int kind;
+		final int halfHeightPx;
+		final float density;
+		final int length;
+
+		Key(long recordId, Object source, int kind, int halfHeightPx, int length) {
+			//Waveforms without record id are told apart by identity, a collision is resolved by source check.
+			this.id = recordId != NO_ID ? recordId : ((long) System.identityHashCode(source) << 32) | 0xFFFFFFFFL;
+			this.kind = kind;
+			this.halfHeightPx = halfHeightPx;
+			this.density = AndroidUtils.dpToPx(1);
+			this.length = length;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return id == key.id && kind == key.kind && halfHeightPx == key.halfHeightPx
+					&& Float.compare(key.density, density) == 0 && length == key.length;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = (int) (id ^ (id >>> 32));
+			result = 31 * result + kind;
+			result = 31 * result + halfHeightPx;
+			result = 31 * result + Float.floatToIntBits(density);
+			result = 31 * result + length;
+			return result;
+		}
+	}
+}
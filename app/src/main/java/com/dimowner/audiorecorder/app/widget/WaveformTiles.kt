@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dimowner.audiorecorder.app.widget
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.util.LruCache
+import timber.log.Timber
+
+/** Width of one tile in pixels. */
+const val WAVEFORM_TILE_WIDTH = 256
+/** Memory budget of cached tiles, at least tiles of one screen are kept regardless of it. */
+private const val TILE_CACHE_BYTES = 8 * 1024 * 1024
+
+/**
+ * Bitmap tiles of static waveform content. Each tile is [WAVEFORM_TILE_WIDTH] pixels of the
+ * waveform drawn once by the renderer, so while scrolling or playing the view only draws bitmaps
+ * of the visible tiles. Least recently drawn tiles are evicted when cached tiles exceed memory budget.
+ *
+ * Tile index is counted from the waveform start, tiles before the start have negative index.
+ *
+ * @param renderer Draws waveform content into the canvas, the canvas origin is the tile start
+ * and the tile covers waveform pixels from tileStartPx to tileStartPx + [WAVEFORM_TILE_WIDTH].
+ */
+class WaveformTiles(private val renderer: (canvas: Canvas, tileStartPx: Int) -> Unit) {
+
+	private var tileHeightPx = 0
+	private val cache = createCache(TILE_CACHE_BYTES)
+
+	/**
+	 * Set size of the view, tiles are dropped when height changes.
+	 */
+	fun setViewSize(widthPx: Int, heightPx: Int) {
+		if (heightPx != tileHeightPx) {
+			tileHeightPx = heightPx
+			cache.evictAll()
+		}
+		//Tiles of the whole screen and the ones on both edges must fit, otherwise they are rendered every frame.
+		val screenBytes = (widthPx / WAVEFORM_TILE_WIDTH + 3) * WAVEFORM_TILE_WIDTH * heightPx * 4
+		if (screenBytes > cache.maxSize()) {
+			cache.resize(screenBytes)
+		}
+	}
+
+	/**
+	 * Drop all tiles, call when waveform content changes.
+	 */
+	fun invalidate() {
+		cache.evictAll()
+	}
+
+	/**
+	 * Draw tiles visible in the view.
+	 * @param originPx Position of waveform start in the view.
+	 * @param viewWidthPx Width of visible area.
+	 */
+	fun draw(canvas: Canvas, originPx: Int, viewWidthPx: Int) {
+		if (tileHeightPx <= 0) {
+			return
+		}
+		val first = (-originPx).floorDiv(WAVEFORM_TILE_WIDTH)
+		val last = (viewWidthPx - 1 - originPx).floorDiv(WAVEFORM_TILE_WIDTH)
+		for (index in first..last) {
+			val x = originPx + index * WAVEFORM_TILE_WIDTH
+			val tile = getTile(index)
+			if (tile != null) {
+				canvas.drawBitmap(tile, x.toFloat(), 0f, null)
+			} else {
+				//No memory for the tile, draw its content directly.
+				canvas.save()
+				canvas.clipRect(x, 0, x + WAVEFORM_TILE_WIDTH, tileHeightPx)
+				canvas.translate(x.toFloat(), 0f)
+				renderer(canvas, index * WAVEFORM_TILE_WIDTH)
+				canvas.restore()
+			}
+		}
+	}
+
+	private fun getTile(index: Int): Bitmap? {
+		cache.get(index)?.let { return it }
+		val bitmap = try {
+			Bitmap.createBitmap(WAVEFORM_TILE_WIDTH, tileHeightPx, Bitmap.Config.ARGB_8888)
+		} catch (e: OutOfMemoryError) {
+			Timber.e(e, "Failed to allocate waveform tile")
+			cache.evictAll()
+			return null
+		}
+		renderer(Canvas(bitmap), index * WAVEFORM_TILE_WIDTH)
+		cache.put(index, bitmap)
+		return bitmap
+	}
+
+	private fun createCache(maxBytes: Int): LruCache<Int, Bitmap> {
+		return object : LruCache<Int, Bitmap>(maxBytes) {
+			override fun sizeOf(key: Int, value: Bitmap): Int {
+				return value.byteCount
+			}
+		}
+	}
+}
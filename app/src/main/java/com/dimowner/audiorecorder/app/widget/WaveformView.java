@@ -28,9 +28,10 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.animation.DecelerateInterpolator;
 
+import com.dimowner.audiorecorder.AmplitudeLog;
 import com.dimowner.audiorecorder.AppConstants;
-import com.dimowner.audiorecorder.IntArrayList;
 import com.dimowner.audiorecorder.R;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 import com.dimowner.audiorecorder.util.TimeUtils;
 
@@ -62,11 +63,16 @@ public class WaveformView extends View {
 
 	private int[] waveForm;
 
+	private WaveformPyramid waveformPyramid;
+	private long waveformDurationMills;
+
 	private List<Integer> recordingData;
 	private long totalRecordingSize;
 	private boolean showRecording = false;
 
 	private boolean isInitialized;
+
+	private WaveformHeightsCache.Request heightsRequest;
 	private float textHeight;
 	private float inset;
 
@@ -232,7 +238,22 @@ public class WaveformView extends View {
 		}
 	}
 
+	/**
+	 * Set multi level waveform. Level nearest to one point per dp for current
+	 * {@link #setPxPerSecond(float)} is used, so no resampling of the whole waveform needed.
+	 */
+	public void setWaveform(WaveformPyramid waveform, long durationMills) {
+		this.waveForm = null;
+		this.waveformPyramid = waveform;
+		this.waveformDurationMills = durationMills;
+		if (isMeasured) {
+			adjustWaveformHeights(waveform, durationMills);
+		}
+		requestLayout();
+	}
+
 	public void setWaveform(int[] frameGains) {
+		this.waveformPyramid = null;
 		if (frameGains != null) {
 			this.waveForm = frameGains;
 			if (isMeasured) {
@@ -285,19 +306,14 @@ public class WaveformView extends View {
 		invalidate();
 	}
 
-	public void setRecordingData(final IntArrayList data) {
+	public void setRecordingData(final AmplitudeLog data) {
 		post(() -> {
 			if (data != null) {
 				recordingData.clear();
 				int count = (int)AndroidUtils.pxToDp(viewWidth/2);
-				if (data.size() > count) {
-					for (int i = data.size() - count; i < data.size(); i++) {
-						recordingData.add(convertAmp(data.get(i)));
-					}
-				} else {
-					for (int i = 0; i < data.size(); i++) {
-						recordingData.add(convertAmp(data.get(i)));
-					}
+				AmplitudeLog.Range range = data.tail(count);
+				for (int i = 0; i < range.size(); i++) {
+					recordingData.add(convertAmp(range.get(i)));
 				}
 				totalRecordingSize = data.size();
 				updateShifts((int) -AndroidUtils.dpToPx(totalRecordingSize));
@@ -352,7 +368,9 @@ public class WaveformView extends View {
 	protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
 		super.onLayout(changed, left, top, right, bottom);
 		if (isMeasured && !isInitialized) {
-			if (waveForm != null) {
+			if (waveformPyramid != null) {
+				adjustWaveformHeights(waveformPyramid, waveformDurationMills);
+			} else if (waveForm != null) {
 				adjustWaveformHeights(waveForm);
 			} else {
 				adjustWaveformHeights(empty);
@@ -579,100 +597,39 @@ public class WaveformView extends View {
 	}
 
 	/**
-	 * Called once when a new sound file is added
+	 * Request heights of one point per dp from the nearest waveform level.
 	 */
-	private void adjustWaveformHeights(int[] frameGains) {
-		int numFrames = frameGains.length;
-		//One frame corresponds one pixel on screen
-		int[] smoothedGains = frameGains;
-//		double[] smoothedGains = new double[numFrames];
-//		if (numFrames == 1) {
-//			smoothedGains[0] = frameGains[0];
-//		} else if (numFrames == 2) {
-//			smoothedGains[0] = frameGains[0];
-//			smoothedGains[1] = frameGains[1];
-//		} else if (numFrames > 2) {
-//			smoothedGains[0] = (
-//					(frameGains[0] / 2.0) +
-//							(frameGains[1] / 2.0));
-//			for (int i = 1; i < numFrames - 1; i++) {
-//				smoothedGains[i] = (
-//						(frameGains[i - 1] / 3.0) +
-//								(frameGains[i] / 3.0) +
-//								(frameGains[i + 1] / 3.0));
-//			}
-//			smoothedGains[numFrames - 1] = (
-//					(frameGains[numFrames - 2] / 2.0) +
-//							(frameGains[numFrames - 1] / 2.0));
-//		}
-
-		//Find the highest gain
-		double maxGain = 1.0;
-		for (int i = 0; i < numFrames; i++) {
-			if (smoothedGains[i] > maxGain) {
-				maxGain = smoothedGains[i];
-			}
-		}
-		// Make sure the range is no more than 0 - 255
-		double scaleFactor = 1.0;
-		if (maxGain > 255.0) {
-			scaleFactor = 255 / maxGain;
-		}
-
-		// Build histogram of 256 bins and figure out the new scaled max
-		maxGain = 0;
-		int gainHist[] = new int[256];
-		for (int i = 0; i < numFrames; i++) {
-			int smoothedGain = (int) (smoothedGains[i] * scaleFactor);
-			if (smoothedGain < 0)
-				smoothedGain = 0;
-			if (smoothedGain > 255)
-				smoothedGain = 255;
-
-			if (smoothedGain > maxGain)
-				maxGain = smoothedGain;
-
-			gainHist[smoothedGain]++;
-		}
-
-		// Re-calibrate the min to be 5%
-		double minGain = 0;
-		int sum = 0;
-		while (minGain < 255 && sum < numFrames / 20) {
-			sum += gainHist[(int) minGain];
-			minGain++;
-		}
-
-		// Re-calibrate the max to be 99%
-		sum = 0;
-		while (maxGain > 2 && sum < numFrames / 100) {
-			sum += gainHist[(int) maxGain];
-			maxGain--;
-		}
-
-		// Compute the heights
-		double[] heights = new double[numFrames];
-		double range = maxGain - minGain;
-		if (range <= 0) {
-			range = 1;
-		}
-		for (int i = 0; i < numFrames; i++) {
-			double value = (smoothedGains[i] * scaleFactor - minGain) / range;
-			if (value < 0.0)
-				value = 0.0;
-			if (value > 1.0)
-				value = 1.0;
-			heights[i] = value * value;
-		}
+	private void adjustWaveformHeights(WaveformPyramid waveform, long durationMills) {
+		int count = (int) (durationMills / 1000f * pxPerSecond / AndroidUtils.dpToPx(1));
+		int halfHeight = (getMeasuredHeight() / 2) - (int)inset - 1;
+		cancelHeightsRequest();
+		isInitialized = true;
+		heightsRequest = WaveformHeightsCache.getInstance().requestPointHeights(
+				WaveformHeightsCache.NO_ID, waveform, count, halfHeight, this::onWaveformHeights);
+	}
 
+	/**
+	 * Request heights of every frame gain, see {@link WaveformHeightsCache#normalizeGains(int[], int)}.
+	 */
+	private void adjustWaveformHeights(int[] frameGains) {
 		int halfHeight = (getMeasuredHeight() / 2) - (int)inset - 1;
+		cancelHeightsRequest();
+		isInitialized = true;
+		heightsRequest = WaveformHeightsCache.getInstance().requestGainHeights(
+				WaveformHeightsCache.NO_ID, frameGains, halfHeight, this::onWaveformHeights);
+	}
 
-		waveformData = new int[numFrames];
-		for (int i = 0; i < numFrames; i++) {
-			waveformData[i] = (int) (heights[i] * (halfHeight));
-		}
+	private void onWaveformHeights(int[] heights) {
+		heightsRequest = null;
+		waveformData = heights;
+		invalidate();
+	}
 
-		isInitialized = true;
+	private void cancelHeightsRequest() {
+		if (heightsRequest != null) {
+			heightsRequest.cancel();
+			heightsRequest = null;
+		}
 	}
 
 //	public void onSaveState(Bundle b) {
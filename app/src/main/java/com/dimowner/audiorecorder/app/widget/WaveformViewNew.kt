@@ -27,9 +27,13 @@ import android.view.View
 import android.view.animation.DecelerateInterpolator
 import androidx.core.content.ContextCompat
 import com.dimowner.audiorecorder.AppConstants
+import com.dimowner.audiorecorder.BuildConfig
 import com.dimowner.audiorecorder.R
+import com.dimowner.audiorecorder.audio.WaveformPyramid
 import com.dimowner.audiorecorder.util.AndroidUtils
 import com.dimowner.audiorecorder.util.TimeUtils
+import kotlin.math.ceil
+import kotlin.math.floor
 
 private const val DEFAULT_GRID_STEP = 2000L //Milliseconds
 private const val SHORT_RECORD = 18000 //Milliseconds
@@ -63,9 +67,16 @@ class WaveformViewNew @JvmOverloads constructor(
 	private var viewWidthPx = 0
 	private var viewHeightPx = 0
 
-	private var originalData: IntArray = IntArray(0)
-	private var waveformData: IntArray = IntArray(0)
-	lateinit var drawLinesArray: FloatArray
+	private var recordId: Long = WaveformHeightsCache.NO_ID
+	private var waveform: WaveformPyramid = WaveformPyramid.EMPTY
+	/** Waveform level selected for current view width. */
+	private var waveformLevel = 0
+	/** Waveform heights in pixels for every gain value. */
+	private var heightTable: IntArray = IntArray(256)
+	private var heightsRequest: WaveformHeightsCache.Request? = null
+	private var requestedWaveform: WaveformPyramid? = null
+	private var requestedHalfHeight = -1
+	private var drawLinesArray: FloatArray = FloatArray(0)
 
 	private var showTimeline: Boolean = true
 
@@ -81,6 +92,26 @@ class WaveformViewNew @JvmOverloads constructor(
 	private var samplePerPx: Float = 0F
 	private var samplePerMill: Float = 0F
 	private var gridStepMills: Long = 4000
+	/** Timeline labels formatted for grid step [gridLabelsStepMills], indexed by grid line. */
+	private var gridLabels: Array<String?> = arrayOfNulls(0)
+	private var gridLabelsStepMills: Long = 0
+
+	private val frameTimeCounter = FrameTimeCounter("WaveformViewNew", BuildConfig.DEBUG)
+
+	/** Grid and waveform drawn into bitmaps, only playhead and shift change between frames. */
+	private val tiles = WaveformTiles { canvas, tileStartPx ->
+		drawGrid(canvas, -tileStartPx, 0, WAVEFORM_TILE_WIDTH)
+		drawWaveForm(canvas, -tileStartPx, 0, WAVEFORM_TILE_WIDTH)
+	}
+	//Values tiles were drawn with, tiles are dropped when any of them changes.
+	private var tilesWaveform: WaveformPyramid? = null
+	private var tilesHeightTable: IntArray? = null
+	private var tilesWaveformLevel = -1
+	private var tilesDurationPx = 0f
+	private var tilesGridStepMills = 0L
+	private var tilesTextIndent = 0f
+	private var tilesShowTimeline = true
+	private var tilesWaveformColor = 0
 
 	private var onSeekListener: OnSeekListener? = null
 
@@ -188,30 +219,36 @@ class WaveformViewNew @JvmOverloads constructor(
 		onSeekListener?.onSeeking(-screenShiftPx, pxToMill(-screenShiftPx))
 	}
 
-	fun setWaveform(frameGains: IntArray, durationMills: Long, playbackMills: Long) {
+	/**
+	 * @param recordId Id of the record the waveform belongs to, heights of the waveform are cached by it.
+	 */
+	fun setWaveform(recordId: Long, waveform: WaveformPyramid, durationMills: Long, playbackMills: Long) {
 		post {
-			originalData = frameGains
+			this.recordId = recordId
+			this.waveform = waveform
 			viewWidthPx = width
 			viewHeightPx = height
 			playProgressMills = playbackMills
-			updateWaveform(frameGains, durationMills, playbackMills)
+			updateWaveform(waveform, durationMills, playbackMills)
 			requestLayout()
 		}
 	}
 
-	private fun updateWaveform(frameGains: IntArray, durationMills: Long, playbackMills: Long) {
-		drawLinesArray = FloatArray(viewWidthPx * 4)
-		updateValues(frameGains.size, durationMills)
+	private fun updateWaveform(waveform: WaveformPyramid, durationMills: Long, playbackMills: Long) {
+		val linesCount = viewWidthPx.coerceAtLeast(WAVEFORM_TILE_WIDTH)
+		if (drawLinesArray.size != linesCount * 4) {
+			drawLinesArray = FloatArray(linesCount * 4)
+		}
+		updateValues(waveform, durationMills)
 		if (viewHeightPx > 0 && viewWidthPx > 0) {
-			adjustWaveformHeights(frameGains)
+			adjustWaveformHeights(waveform)
 			setPlayback(playbackMills)
 		}
 	}
 
-	private fun updateValues(size: Int, durationMills: Long) {
+	private fun updateValues(waveform: WaveformPyramid, durationMills: Long) {
 		this.widthScale = calculateScale(durationMills)
 		this.durationMills = durationMills
-		this.durationSample = size
 		this.durationPx = when {
 			viewWidthPx == 0 -> {
 				return
@@ -220,6 +257,8 @@ class WaveformViewNew @JvmOverloads constructor(
 				(viewWidthPx * widthScale).toFloat()
 			}
 		}
+		this.waveformLevel = waveform.selectLevel(durationPx.toInt())
+		this.durationSample = waveform.getLevelSize(waveformLevel)
 
 		this.millsPerPx = durationMills.toFloat()/durationPx
 		this.pxPerMill = durationPx/durationMills.toFloat()
@@ -259,7 +298,7 @@ class WaveformViewNew @JvmOverloads constructor(
 	}
 
 	fun getWaveformLength(): Int {
-		return waveformData.size
+		return durationSample
 	}
 
 	override fun setSelected(selected: Boolean) {
@@ -275,20 +314,36 @@ class WaveformViewNew @JvmOverloads constructor(
 		super.onLayout(changed, left, top, right, bottom)
 		viewWidthPx = width
 		viewHeightPx = height
-		updateWaveform(originalData, durationMills, playProgressMills)
+		tiles.setViewSize(viewWidthPx, viewHeightPx)
+		updateWaveform(waveform, durationMills, playProgressMills)
+	}
+
+	override fun onDetachedFromWindow() {
+		//Release tile bitmaps, they are drawn again when the view is shown.
+		tiles.invalidate()
+		super.onDetachedFromWindow()
+	}
+
+	/**
+	 * Draw time statistics of the current run of frames, e.g. while scrolling or playing.
+	 */
+	fun getFrameTimeCounter(): FrameTimeCounter {
+		return frameTimeCounter
 	}
 
 	override fun onDraw(canvas: Canvas) {
+		val frameStart = frameTimeCounter.begin()
 		super.onDraw(canvas)
-		drawGrid(canvas)
-		drawWaveForm(canvas)
+		validateTiles()
+		tiles.draw(canvas, waveformShiftPx, viewWidthPx)
 		//Draw waveform start indication
 		canvas.drawLine(waveformShiftPx.toFloat(), textIndent, waveformShiftPx.toFloat(), height - textIndent, linePaint)
 		//Draw waveform end indication
-		canvas.drawLine(waveformShiftPx + sampleToPx(waveformData.size), textIndent,
-				waveformShiftPx + sampleToPx(waveformData.size), height - textIndent, linePaint)
+		canvas.drawLine(waveformShiftPx + sampleToPx(durationSample), textIndent,
+				waveformShiftPx + sampleToPx(durationSample), height - textIndent, linePaint)
 		//Draw scrubber
 		canvas.drawLine(viewWidthPx / 2f, 0f, viewWidthPx / 2f, height.toFloat(), scrubberPaint)
+		frameTimeCounter.end(frameStart)
 	}
 
 	private fun updateShifts(px: Int) {
@@ -332,129 +387,128 @@ class WaveformViewNew @JvmOverloads constructor(
 		return gridStep * k
 	}
 
-	private fun drawGrid(canvas: Canvas) {
-		val subStepPx = millsToPx(gridStepMills / 2)
-		val halfWidthMills = pxToMill(viewWidthPx / 2)
-		val gridEndMills = durationMills + halfWidthMills.toInt() + gridStepMills
-		val halfScreenStepCount = (halfWidthMills/gridStepMills).toInt()
-
-		for (indexMills in -halfScreenStepCount*gridStepMills until gridEndMills step gridStepMills) {
-			val sampleIndexPx = millsToPx(indexMills)
-			val xPos = (waveformShiftPx + sampleIndexPx)
-			if (xPos >= -gridStepMills && xPos <= viewWidthPx + gridStepMills) { // Draw only visible grid items +1
-				//Draw grid lines
-				//Draw main grid line
-				canvas.drawLine(xPos, textIndent, xPos, height - textIndent, gridPaint)
-				val xSubPos = xPos + subStepPx
-				//Draw grid top sub-line
-				canvas.drawLine(xSubPos, textIndent, xSubPos, GIRD_SUBLINE_HEIGHT + textIndent, gridPaint)
-				//Draw grid bottom sub-line
-				canvas.drawLine(xSubPos, height - GIRD_SUBLINE_HEIGHT - textIndent, xSubPos, height - textIndent, gridPaint)
-
-				if (showTimeline) {
-					//Draw timeline texts
-					if (indexMills >= 0) {
-						val text = TimeUtils.formatTimeIntervalHourMin(indexMills)
-						//Bottom timeline text
-						canvas.drawText(text, xPos, height - PADD, textPaint)
-						//Top timeline text
-						canvas.drawText(text, xPos, textHeight, textPaint)
-					}
-				}
-			}
+	/**
+	 * Drop tiles drawn with other waveform, heights, scale or appearance.
+	 */
+	private fun validateTiles() {
+		if (tilesWaveform !== waveform || tilesHeightTable !== heightTable
+				|| tilesWaveformLevel != waveformLevel || tilesDurationPx != durationPx
+				|| tilesGridStepMills != gridStepMills || tilesTextIndent != textIndent
+				|| tilesShowTimeline != showTimeline || tilesWaveformColor != waveformPaint.color) {
+			tilesWaveform = waveform
+			tilesHeightTable = heightTable
+			tilesWaveformLevel = waveformLevel
+			tilesDurationPx = durationPx
+			tilesGridStepMills = gridStepMills
+			tilesTextIndent = textIndent
+			tilesShowTimeline = showTimeline
+			tilesWaveformColor = waveformPaint.color
+			tiles.invalidate()
 		}
 	}
 
-	private fun drawWaveForm(canvas: Canvas) {
-		if (waveformData.isNotEmpty()) {
-			clearDrawLines()
-			val half = (height / 2).toFloat()
-			var step = 0
-			for (index in 0 until durationPx.toInt()) {
-				var sampleIndex = pxToSample(index)
-				if (sampleIndex >= waveformData.size) {
-					sampleIndex = waveformData.size - 1
-				}
-				val xPos = (waveformShiftPx + index).toFloat()
-				if (xPos >= 0 && xPos <= viewWidthPx && step + 3 < drawLinesArray.size) {  // Draw only visible part of waveform
-					drawLinesArray[step] = xPos
-					drawLinesArray[step + 1] = (half + waveformData[sampleIndex] + 1)
-					drawLinesArray[step + 2] = xPos
-					drawLinesArray[step + 3] = (half - waveformData[sampleIndex] - 1)
-					step += 4
-				}
-			}
-			canvas.drawLines(drawLinesArray, 0, drawLinesArray.size, waveformPaint)
+	/**
+	 * Draw grid lines and timeline in the range of canvas pixels.
+	 * @param originPx Position of waveform start on the canvas.
+	 */
+	private fun drawGrid(canvas: Canvas, originPx: Int, fromPx: Int, toPx: Int) {
+		val stepPx = millsToPx(gridStepMills)
+		if (stepPx <= 0f) {
+			return
 		}
-	}
-
-	private fun clearDrawLines() {
-		for (i in drawLinesArray.indices) {
-			drawLinesArray[i] = 0f
+		val subStepPx = stepPx / 2
+		val halfWidthMills = pxToMill(viewWidthPx / 2)
+		//Grid covers the record and half of the screen before and after it.
+		val minIndex = -(halfWidthMills / gridStepMills).toInt()
+		val maxIndex = ((durationMills + halfWidthMills + gridStepMills - 1) / gridStepMills).toInt()
+		//Only lines visible on screen, one step beyond each edge keeps sub-lines and labels.
+		val firstIndex = ceil((fromPx - stepPx - originPx) / stepPx).toInt().coerceAtLeast(minIndex)
+		val lastIndex = floor((toPx + stepPx - originPx) / stepPx).toInt().coerceAtMost(maxIndex)
+
+		for (index in firstIndex..lastIndex) {
+			val xPos = originPx + index * stepPx
+			//Draw grid lines
+			//Draw main grid line
+			canvas.drawLine(xPos, textIndent, xPos, height - textIndent, gridPaint)
+			val xSubPos = xPos + subStepPx
+			//Draw grid top sub-line
+			canvas.drawLine(xSubPos, textIndent, xSubPos, GIRD_SUBLINE_HEIGHT + textIndent, gridPaint)
+			//Draw grid bottom sub-line
+			canvas.drawLine(xSubPos, height - GIRD_SUBLINE_HEIGHT - textIndent, xSubPos, height - textIndent, gridPaint)
+
+			if (showTimeline && index >= 0) {
+				//Draw timeline texts
+				val text = gridLabel(index)
+				//Bottom timeline text
+				canvas.drawText(text, xPos, height - PADD, textPaint)
+				//Top timeline text
+				canvas.drawText(text, xPos, textHeight, textPaint)
+			}
 		}
 	}
 
 	/**
-	 * Called once when a new sound file is added
+	 * Timeline label of the grid line, labels are formatted once per grid step.
 	 */
-	private fun adjustWaveformHeights(frameGains: IntArray) {
-		val numFrames = frameGains.size
-
-		//Find the highest gain
-		var maxGain = 1.0f
-		for (i in 0 until numFrames) {
-			if (frameGains[i] > maxGain) {
-				maxGain = frameGains[i].toFloat()
-			}
+	private fun gridLabel(index: Int): String {
+		if (gridLabelsStepMills != gridStepMills) {
+			gridLabels.fill(null)
+			gridLabelsStepMills = gridStepMills
 		}
-		// Make sure the range is no more than 0 - 255
-		var scaleFactor = 1.0f
-		if (maxGain > 255.0) {
-			scaleFactor = 255 / maxGain
+		if (index >= gridLabels.size) {
+			gridLabels = gridLabels.copyOf((index + 1).coerceAtLeast(gridLabels.size * 2))
 		}
-
-		// Build histogram of 256 bins and figure out the new scaled max
-		maxGain = 0.0f
-		val gainHist = IntArray(256)
-		for (i in 0 until numFrames) {
-			var smoothedGain = (frameGains[i] * scaleFactor).toInt()
-			if (smoothedGain < 0) smoothedGain = 0
-			if (smoothedGain > 255) smoothedGain = 255
-			if (smoothedGain > maxGain) maxGain = smoothedGain.toFloat()
-			gainHist[smoothedGain]++
-		}
-
-		// Re-calibrate the min to be 5%
-		var minGain = 0.0f
-		var sum = 0
-		while (minGain < 255 && sum < numFrames / 20) {
-			sum += gainHist[minGain.toInt()]
-			minGain++
+		return gridLabels[index] ?: TimeUtils.formatTimeIntervalHourMin(index * gridStepMills).also {
+			gridLabels[index] = it
 		}
+	}
 
-		// Re-calibrate the max to be 99%
-		sum = 0
-		while (maxGain > 2 && sum < numFrames / 100) {
-			sum += gainHist[maxGain.toInt()]
-			maxGain--
+	/**
+	 * Draw waveform in the range of canvas pixels.
+	 * @param originPx Position of waveform start on the canvas.
+	 */
+	private fun drawWaveForm(canvas: Canvas, originPx: Int, fromPx: Int, toPx: Int) {
+		if (durationSample > 0) {
+			val half = (height / 2).toFloat()
+			// Draw only visible part of waveform
+			val startPx = (fromPx - originPx).coerceAtLeast(0)
+			val endPx = (toPx - originPx).coerceAtMost(durationPx.toInt())
+			var step = 0
+			for (index in startPx until endPx) {
+				if (step + 3 >= drawLinesArray.size) {
+					break
+				}
+				val fromSample = pxToSample(index).coerceAtMost(durationSample - 1)
+				val toSample = pxToSample(index + 1).coerceIn(fromSample + 1, durationSample)
+				val xPos = (originPx + index).toFloat()
+				drawLinesArray[step] = xPos
+				drawLinesArray[step + 1] = half + heightTable[waveform.getMin(waveformLevel, fromSample, toSample)] + 1
+				drawLinesArray[step + 2] = xPos
+				drawLinesArray[step + 3] = half - heightTable[waveform.getMax(waveformLevel, fromSample, toSample)] - 1
+				step += 4
+			}
+			canvas.drawLines(drawLinesArray, 0, step, waveformPaint)
 		}
+	}
 
-		// Compute the heights
-		val heights = FloatArray(numFrames)
-		var range = maxGain - minGain
-		if (range <= 0) {
-			range = 1.0f
-		}
-		for (i in 0 until numFrames) {
-			var value = (frameGains[i] * scaleFactor - minGain) / range
-			if (value < 0.0) value = 0.0f
-			if (value > 1.0) value = 1.0f
-			heights[i] = value * value
-		}
+	/**
+	 * Called when a new waveform is set or view size changed.
+	 * Height table is calculated on worker thread, current table is drawn until the new one is ready.
+	 */
+	private fun adjustWaveformHeights(waveform: WaveformPyramid) {
 		val halfHeight = viewHeightPx / 2 - textIndent.toInt() - 1
-		waveformData = IntArray(numFrames)
-		for (i in 0 until numFrames) {
-			waveformData[i] = (heights[i] * halfHeight).toInt()
+		if (waveform === requestedWaveform && halfHeight == requestedHalfHeight) {
+			return
+		}
+		heightsRequest?.cancel()
+		requestedWaveform = waveform
+		requestedHalfHeight = halfHeight
+		heightsRequest = WaveformHeightsCache.getInstance().requestHeightTable(
+			recordId, waveform, halfHeight
+		) { heights ->
+			heightsRequest = null
+			heightTable = heights
+			invalidate()
 		}
 	}
 
@@ -22,7 +22,6 @@ import android.media.MediaFormat;
 
 import com.dimowner.audiorecorder.ARApplication;
 import com.dimowner.audiorecorder.AppConstants;
-import com.dimowner.audiorecorder.IntArrayList;
 import com.dimowner.audiorecorder.app.info.RecordInfo;
 import com.dimowner.audiorecorder.util.FileUtil;
 
@@ -49,18 +48,25 @@ public class AudioDecoder {
 
 	private int sampleRate;
 	private int channelCount;
-	private int[] oneFrameAmps;
-	private int frameIndex = 0;
 
 	private long duration;
 	private static final String TRASH_EXT = "del";
 
-	private IntArrayList gains;
+	private WaveformEngine waveformEngine;
+	private WaveformPyramid.Builder waveformBuilder;
+
+	private MediaExtractor extractor;
+	private MediaCodec codec;
 
 	private AudioDecoder() {
 	}
 
-	public static void decode(@NonNull String fileName, @NonNull AudioDecodingListener decodeListener) {
+	/**
+	 * Start decoding of the file, listener callbacks are delivered on Looper of the calling thread.
+	 * @return Started decoder or null if decoding failed to start.
+	 */
+	public static AudioDecoder decode(@NonNull String fileName, @NonNull AudioDecodingListener decodeListener) {
+		AudioDecoder decoder = null;
 		try {
 			File file = new File(fileName);
 			if (!file.exists()) {
@@ -74,21 +80,49 @@ public class AudioDecoder {
 			if (!Arrays.asList(SUPPORTED_EXT).contains(components[components.length - 1])) {
 				throw new IOException();
 			}
-			AudioDecoder decoder = new AudioDecoder();
+			decoder = new AudioDecoder();
 			decoder.decodeFile(file, decodeListener, QUEUE_INPUT_BUFFER_EFFECTIVE);
+			return decoder;
 		} catch (Exception e) {
+			if (decoder != null) {
+				decoder.release();
+			}
 			decodeListener.onError(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stop decoding and release codec and extractor, does nothing if they are already released.
+	 * Call on the thread which started decoding.
+	 */
+	public void release() {
+		if (codec != null) {
+			try {
+				codec.stop();
+			} catch (IllegalStateException e) {
+				Timber.e(e);
+			}
+			codec.release();
+			codec = null;
+		}
+		if (extractor != null) {
+			extractor.release();
+			extractor = null;
 		}
 	}
 
-	private int calculateSamplesPerFrame() {
-		return (int)(sampleRate / dpPerSec);
+	/**
+	 * Size of single level waveform stored in {@link com.dimowner.audiorecorder.data.database.Record#getAmps()}.
+	 */
+	private int calculateGainsCount() {
+		return (int) Math.ceil(duration / 1000000f * dpPerSec);
 	}
 
 	private void decodeFile(@NonNull final File mInputFile, @NonNull final AudioDecodingListener decodeListener, final int queueType)
 			throws IOException, OutOfMemoryError, IllegalStateException {
-		gains = new IntArrayList();
 		final MediaExtractor extractor = new MediaExtractor();
+		this.extractor = extractor;
 		MediaFormat format = null;
 		int i;
 
@@ -109,15 +143,20 @@ public class AudioDecoder {
 		channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
 		sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
 
-		duration = format.getLong(MediaFormat.KEY_DURATION);
+		duration = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
 
-		//TODO: Make waveform independent from dpPerSec!!!
 		dpPerSec = ARApplication.getDpPerSecond((float) duration/1000000f);
-		oneFrameAmps = new int[calculateSamplesPerFrame() * channelCount];
+		//Points are reduced while decoding into a waveform of bounded size, so memory used does not
+		//depend on record duration. Builder merges points further if duration turns out to be longer.
+		waveformEngine = new WaveformEngine(channelCount,
+				WaveformPyramid.calculateBaseFramesPerPoint(sampleRate, duration / 1000));
+		waveformBuilder = new WaveformPyramid.Builder();
+		waveformEngine.setOnPointListener(waveformBuilder);
 
 		String mimeType = format.getString(MediaFormat.KEY_MIME);
 		//Start decoding
 		MediaCodec decoder = MediaCodec.createDecoderByType(mimeType);
+		codec = decoder;
 
 		decodeListener.onStartProcessing(duration, channelCount, sampleRate);
 		decoder.setCallback(new MediaCodec.Callback() {
@@ -127,15 +166,17 @@ public class AudioDecoder {
 			private long decoded = 0;
 			private long totalSize = mInputFile.length();
 			private int percent = 0;
+			private long lastPresentationTime = 0;
 
 			@Override
 			public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException exception) {
 				Timber.e(exception);
+				release();
 				if (queueType == QUEUE_INPUT_BUFFER_EFFECTIVE) {
 					try {
-						AudioDecoder decoder = new AudioDecoder();
-						decoder.decodeFile(mInputFile, decodeListener, QUEUE_INPUT_BUFFER_SIMPLE);
+						decodeFile(mInputFile, decodeListener, QUEUE_INPUT_BUFFER_SIMPLE);
 					} catch (IllegalStateException | IOException | OutOfMemoryError e) {
+						release();
 						decodeListener.onError(exception);
 					}
 				} else {
@@ -210,29 +251,10 @@ public class AudioDecoder {
 					if (outputBuffer != null) {
 						outputBuffer.rewind();
 						outputBuffer.order(ByteOrder.LITTLE_ENDIAN);
-						while (outputBuffer.remaining() > 0) {
-							oneFrameAmps[frameIndex] = outputBuffer.getShort();
-							frameIndex++;
-							if (frameIndex >= oneFrameAmps.length - 1) {
-								int j;
-								int gain, value;
-								gain = -1;
-								for (j = 0; j < oneFrameAmps.length; j += channelCount) {
-									value = 0;
-									for (int k = 0; k < channelCount; k++) {
-										value += oneFrameAmps[j + k];
-									}
-									value /= channelCount;
-									if (gain < value) {
-										gain = value;
-									}
-								}
-								gains.add((int) Math.sqrt(gain));
-								frameIndex = 0;
-							}
-						}
+						waveformEngine.process(outputBuffer.asShortBuffer());
 					}
 
+					lastPresentationTime = Math.max(lastPresentationTime, info.presentationTimeUs);
 					mOutputEOS |= ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0);
 					codec.releaseOutputBuffer(index, false);
 
@@ -241,11 +263,16 @@ public class AudioDecoder {
 							decodeListener.onProcessingCancel();
 						} else {
 							decodeListener.onProcessingProgress(100);
-							decodeListener.onFinishProcessing(gains.getData(), duration);
+							waveformEngine.flush();
+							if (duration <= 0) {
+								//Duration is missing in file metadata, take it from decoded stream.
+								duration = lastPresentationTime;
+								dpPerSec = ARApplication.getDpPerSecond((float) duration/1000000f);
+							}
+							WaveformPyramid waveform = waveformBuilder.build(duration / 1000);
+							decodeListener.onFinishProcessing(waveform.toGains(calculateGainsCount()), waveform, duration);
 						}
-						codec.stop();
-						codec.release();
-						extractor.release();
+						release();
 					}
 				} catch (IllegalStateException e) {
 					Timber.e(e);
@@ -260,6 +287,7 @@ public class AudioDecoder {
 			throws OutOfMemoryError, IllegalStateException {
 
 		boolean isInTrash = false;
+		MediaExtractor extractor = null;
 		try {
 			if (!inputFile.exists()) {
 				throw new java.io.FileNotFoundException(inputFile.getAbsolutePath());
@@ -274,7 +302,7 @@ public class AudioDecoder {
 				throw new IOException();
 			}
 
-			final MediaExtractor extractor = new MediaExtractor();
+			extractor = new MediaExtractor();
 			MediaFormat format = null;
 			int i;
 
@@ -352,10 +380,15 @@ public class AudioDecoder {
 					FileUtil.removeFileExtension(inputFile.getName()), "", 0, inputFile.length(),
 					inputFile.getAbsolutePath(), inputFile.lastModified(), 0, 0, 0, isInTrash
 			);
+		} finally {
+			if (extractor != null) {
+				extractor.release();
+			}
 		}
 	}
 
 	public static String readRecordMime(@NonNull final File inputFile) {
+		MediaExtractor extractor = null;
 		try {
 			if (!inputFile.exists()) {
 				throw new java.io.FileNotFoundException(inputFile.getAbsolutePath());
@@ -366,7 +399,7 @@ public class AudioDecoder {
 				throw new IOException();
 			}
 
-			final MediaExtractor extractor = new MediaExtractor();
+			extractor = new MediaExtractor();
 			MediaFormat format = null;
 			int i;
 
@@ -399,6 +432,10 @@ public class AudioDecoder {
 			return mimeType;
 		} catch (Exception e) {
 			Timber.e(e);
+		} finally {
+			if (extractor != null) {
+				extractor.release();
+			}
 		}
 		return "audio/*";
 	}
@@ -27,6 +27,6 @@ interface AudioDecodingListener {
 	fun onStartProcessing(duration: Long, channelsCount: Int, sampleRate: Int)
 	fun onProcessingProgress(percent: Int)
 	fun onProcessingCancel()
-	fun onFinishProcessing(data: IntArray, duration: Long)
+	fun onFinishProcessing(data: IntArray, waveform: WaveformPyramid, duration: Long)
 	fun onError(exception: Exception)
 }
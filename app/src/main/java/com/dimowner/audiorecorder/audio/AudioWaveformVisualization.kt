@@ -1,43 +1,126 @@
 package com.dimowner.audiorecorder.audio
 
-import com.dimowner.audiorecorder.BackgroundQueue
+import android.os.Handler
+import android.os.HandlerThread
 import java.lang.Exception
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+import timber.log.Timber
 
 /**
  * Created on 03.02.2021.
  * @author Dimowner
  */
 class AudioWaveformVisualization(
-		private val processingTasks: BackgroundQueue
+		private val decodeScheduler: DecodeScheduler
 ) {
 
-	fun decodeRecordWaveform(path: String, listener: AudioDecodingListener? = null) {
-		processingTasks.postRunnable {
-			AudioDecoder.decode(path, object : AudioDecodingListener {
+	companion object {
+		private const val CANCEL_WAIT_MILLS = 5000L
+		/** Decoding is abandoned when decoder reports no progress for this long. */
+		private const val STALL_TIMEOUT_MILLS = 30000L
+	}
+
+	/**
+	 * Schedule waveform decoding of the record, duplicate requests of the same record are merged
+	 * and the listener is added to the job which is already scheduled.
+	 * @return Decoding job or null if it was rejected.
+	 */
+	@JvmOverloads
+	fun decodeRecordWaveform(
+			recordId: Int,
+			path: String,
+			priority: Int = DecodeScheduler.PRIORITY_BACKGROUND,
+			listener: AudioDecodingListener? = null
+	): DecodeScheduler.Job? {
+		return decodeScheduler.schedule(recordId, priority, listener) { job ->
+			decodeRecordWaveform(job, path)
+		}
+	}
+
+	/**
+	 * Decode waveform of the record within a scheduled job and report it to listeners of the job.
+	 * Blocks until decoding is finished, so the job holds its place in scheduler while decoder
+	 * is running. Decoder which is stuck after cancel or which makes no progress is released
+	 * and listeners get an error.
+	 */
+	fun decodeRecordWaveform(job: DecodeScheduler.Job, path: String) {
+		val listener = job.listener
+		val canceled = { job.isCanceled || listener.isCanceled() }
+		//Decoder callbacks are delivered on Looper of the thread which started decoding.
+		val thread = HandlerThread("Decode-" + job.recordId)
+		thread.start()
+		val handler = Handler(thread.looper)
+		val done = CountDownLatch(1)
+		val lastProgress = AtomicLong(System.currentTimeMillis())
+		var decoder: AudioDecoder? = null
+		handler.post {
+			decoder = AudioDecoder.decode(path, object : AudioDecodingListener {
 				override fun isCanceled(): Boolean {
-					return listener?.isCanceled() ?: false
+					return canceled()
 				}
 
 				override fun onStartProcessing(duration: Long, channelsCount: Int, sampleRate: Int) {
-					listener?.onStartProcessing(duration, channelsCount, sampleRate)
+					lastProgress.set(System.currentTimeMillis())
+					listener.onStartProcessing(duration, channelsCount, sampleRate)
 				}
 
 				override fun onProcessingProgress(percent: Int) {
-					listener?.onProcessingProgress(percent)
+					lastProgress.set(System.currentTimeMillis())
+					listener.onProcessingProgress(percent)
 				}
 
 				override fun onProcessingCancel() {
-					listener?.onProcessingCancel()
+					listener.onProcessingCancel()
+					done.countDown()
 				}
 
-				override fun onFinishProcessing(data: IntArray, duration: Long) {
-					listener?.onFinishProcessing(data, duration)
+				override fun onFinishProcessing(data: IntArray, waveform: WaveformPyramid, duration: Long) {
+					listener.onFinishProcessing(data, waveform, duration)
+					done.countDown()
 				}
 
 				override fun onError(exception: Exception) {
-					listener?.onError(exception)
+					listener.onError(exception)
+					done.countDown()
 				}
 			})
 		}
+		try {
+			while (!done.await(CANCEL_WAIT_MILLS, TimeUnit.MILLISECONDS)) {
+				if (canceled()) {
+					//Decoder checks cancellation on its own, give it some time to stop and release codec.
+					done.await(CANCEL_WAIT_MILLS, TimeUnit.MILLISECONDS)
+					break
+				}
+				if (System.currentTimeMillis() - lastProgress.get() > STALL_TIMEOUT_MILLS) {
+					Timber.w("Decoding of record %d made no progress, abandon it", job.recordId)
+					break
+				}
+			}
+		} catch (e: InterruptedException) {
+			Thread.currentThread().interrupt()
+		} finally {
+			if (done.count > 0) {
+				//Release runs on decoder thread after callbacks which are already queued.
+				handler.post { decoder?.release() }
+				//Listeners get only the first final callback, late callbacks of decoder are dropped.
+				if (canceled()) {
+					listener.onProcessingCancel()
+				} else {
+					listener.onError(TimeoutException("Decoding of $path is stuck"))
+				}
+			}
+			thread.quitSafely()
+		}
+	}
+
+	/**
+	 * Cancel scheduled or running decoding of the record.
+	 */
+	fun cancel(recordId: Int): Boolean {
+		return decodeScheduler.cancel(recordId)
 	}
 }
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import timber.log.Timber;
+
+/**
+ * Runs waveform decoding jobs on a limited count of threads.
+ * Jobs with higher priority are started first, jobs of the same priority are started in order.
+ * There is at most one job per record: scheduling a record which already has a waiting job
+ * returns that job, raises its priority if needed and adds the listener to the job.
+ */
+public class DecodeScheduler {
+
+	/** Records decoded in bulk, like imported files. */
+	public static final int PRIORITY_BACKGROUND = 0;
+	/** Record shown to user, it is decoded before all background records. */
+	public static final int PRIORITY_ACTIVE = 10;
+
+	private final String name;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	private final Object lock = new Object();
+	private final PriorityQueue<Job> pending = new PriorityQueue<>();
+	/** Waiting and running jobs by record id. */
+	private final Map<Integer, Job> jobs = new HashMap<>();
+	private int maxConcurrency;
+	private int running = 0;
+	private long sequence = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param name Name prefix of worker threads.
+	 * @param maxConcurrency Max count of jobs running at the same time.
+	 * @param maxPending Max count of waiting jobs, new jobs are rejected when the limit is reached.
+	 */
+	public DecodeScheduler(String name, int maxConcurrency, int maxPending) {
+		this.name = name;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.maxPending = Math.max(1, maxPending);
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(() -> {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				runnable.run();
+			}, name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Schedule decoding of the record.
+	 * @param recordId Id of decoded record, used to find duplicate requests.
+	 * @param priority Job priority, see {@link #PRIORITY_ACTIVE} and {@link #PRIORITY_BACKGROUND}.
+	 * @param task Work of the job.
+	 * @return Scheduled job, existing job of the record or null if the job was rejected.
+	 */
+	public Job schedule(int recordId, int priority, Task task) {
+		return schedule(recordId, priority, null, task);
+	}
+
+	/**
+	 * Schedule decoding of the record.
+	 * @param recordId Id of decoded record, used to find duplicate requests.
+	 * @param priority Job priority, see {@link #PRIORITY_ACTIVE} and {@link #PRIORITY_BACKGROUND}.
+	 * @param listener Listener of decoding or null, it is added to the existing job of the record too.
+	 *                 Task reports decoding to listeners through {@link Job#getListener()}.
+	 * @param task Work of the job, it is not run when the record already has a job.
+	 * @return Scheduled job, existing job of the record or null if the job was rejected.
+	 */
+	public Job schedule(int recordId, int priority, AudioDecodingListener listener, Task task) {
+		Job job;
+		synchronized (lock) {
+			if (closed) {
+				return null;
+			}
+			job = jobs.get(recordId);
+			if (job != null && !job.isCanceled()) {
+				if (!job.started && priority > job.priority) {
+					pending.remove(job);
+					job.priority = priority;
+					pending.add(job);
+				}
+			} else if (pending.size() >= maxPending) {
+				Timber.w("%s: too many waiting jobs, record %d is rejected", name, recordId);
+				return null;
+			} else {
+				job = new Job(recordId, priority, sequence++, task);
+				jobs.put(recordId, job);
+				pending.add(job);
+				dispatch();
+			}
+		}
+		//Outside of the lock, listener of finished job is called right away.
+		job.listeners.add(listener);
+		return job;
+	}
+
+	/**
+	 * Cancel job of the record. Waiting job is removed and its listeners receive
+	 * {@link AudioDecodingListener#onProcessingCancel()}, running job is notified
+	 * through {@link Job#isCanceled()}.
+	 * @return True if there was a job for the record.
+	 */
+	public boolean cancel(int recordId) {
+		Job removed;
+		synchronized (lock) {
+			Job job = jobs.get(recordId);
+			if (job == null) {
+				return false;
+			}
+			removed = cancel(job) ? job : null;
+		}
+		if (removed != null) {
+			removed.listeners.onProcessingCancel();
+		}
+		return true;
+	}
+
+	public void cancelAll() {
+		List<Job> removed = new ArrayList<>();
+		synchronized (lock) {
+			for (Job job : new ArrayList<>(jobs.values())) {
+				if (cancel(job)) {
+					removed.add(job);
+				}
+			}
+		}
+		//Outside of the lock, listeners may schedule other jobs.
+		for (Job job : removed) {
+			job.listeners.onProcessingCancel();
+		}
+	}
+
+	public boolean isScheduled(int recordId) {
+		synchronized (lock) {
+			return jobs.containsKey(recordId);
+		}
+	}
+
+	/**
+	 * Ids of records which have waiting or running jobs.
+	 */
+	public List<Integer> getScheduledIds() {
+		synchronized (lock) {
+			return new ArrayList<>(jobs.keySet());
+		}
+	}
+
+	public int getMaxConcurrency() {
+		synchronized (lock) {
+			return maxConcurrency;
+		}
+	}
+
+	/**
+	 * Change count of jobs running at the same time. Running jobs are not interrupted when
+	 * the count is reduced, new jobs wait until running count drops below the limit.
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		synchronized (lock) {
+			this.maxConcurrency = Math.max(1, maxConcurrency);
+			dispatch();
+		}
+	}
+
+	/**
+	 * Cancel all jobs and stop worker threads.
+	 */
+	public void close() {
+		synchronized (lock) {
+			closed = true;
+		}
+		cancelAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Mark the job canceled and remove it if it is waiting.
+	 * @return True if the job was waiting and its listeners have to be notified about cancel.
+	 */
+	private boolean cancel(Job job) {
+		job.canceled = true;
+		if (!job.started) {
+			pending.remove(job);
+			jobs.remove(job.recordId);
+			return true;
+		}
+		return false;
+	}
+
+	private void dispatch() {
+		while (running < maxConcurrency && !pending.isEmpty()) {
+			final Job job = pending.poll();
+			job.started = true;
+			running++;
+			executor.execute(() -> run(job));
+		}
+	}
+
+	private void run(Job job) {
+		try {
+			if (job.isCanceled()) {
+				job.listeners.onProcessingCancel();
+			} else {
+				job.task.run(job);
+			}
+		} catch (Exception e) {
+			Timber.e(e, "%s: decoding of record %d failed", name, job.recordId);
+			job.listeners.onError(e);
+		} finally {
+			synchronized (lock) {
+				running--;
+				if (jobs.get(job.recordId) == job) {
+					jobs.remove(job.recordId);
+				}
+				if (!closed) {
+					dispatch();
+				}
+			}
+		}
+	}
+
+	public interface Task {
+		/**
+		 * Do the work of the job, called on a worker thread.
+		 * Long work should stop when {@link Job#isCanceled()} returns true.
+		 */
+		void run(Job job);
+	}
+
+	public static class Job implements Comparable<Job> {
+
+		private final int recordId;
+		private final long sequence;
+		private final Task task;
+		private int priority;
+		/** Accessed under scheduler lock. */
+		private boolean started = false;
+		private volatile boolean canceled = false;
+		private final Listeners listeners = new Listeners();
+
+		Job(int recordId, int priority, long sequence, Task task) {
+			this.recordId = recordId;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.task = task;
+		}
+
+		public int getRecordId() {
+			return recordId;
+		}
+
+		/**
+		 * Listener which passes decoding callbacks to listeners of all requests of the job.
+		 */
+		public AudioDecodingListener getListener() {
+			return listeners;
+		}
+
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * Listeners of a job. Progress is passed to every listener, only the first of cancel, finish
+	 * or error is passed and it is also passed to listeners added later. Decoding is canceled
+	 * when all listeners cancel it, unless the job was also requested without a listener.
+	 */
+	private static class Listeners implements AudioDecodingListener {
+
+		private final List<AudioDecodingListener> listeners = new ArrayList<>();
+		private boolean unobserved = false;
+		/** Last callback of decoding, null while decoding is running. */
+		private Callback result;
+
+		void add(AudioDecodingListener listener) {
+			Callback finished;
+			synchronized (this) {
+				if (listener == null) {
+					unobserved = true;
+					return;
+				}
+				finished = result;
+				if (finished == null) {
+					listeners.add(listener);
+					return;
+				}
+			}
+			finished.call(listener);
+		}
+
+		@Override
+		public boolean isCanceled() {
+			List<AudioDecodingListener> copy;
+			synchronized (this) {
+				if (unobserved || listeners.isEmpty()) {
+					return false;
+				}
+				copy = new ArrayList<>(listeners);
+			}
+			for (AudioDecodingListener l : copy) {
+				if (!l.isCanceled()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void onStartProcessing(long duration, int channelsCount, int sampleRate) {
+			progress(l -> l.onStartProcessing(duration, channelsCount, sampleRate));
+		}
+
+		@Override
+		public void onProcessingProgress(int percent) {
+			progress(l -> l.onProcessingProgress(percent));
+		}
+
+		@Override
+		public void onProcessingCancel() {
+			finish(AudioDecodingListener::onProcessingCancel);
+		}
+
+		@Override
+		public void onFinishProcessing(@NonNull int[] data, @NonNull WaveformPyramid waveform, long duration) {
+			finish(l -> l.onFinishProcessing(data, waveform, duration));
+		}
+
+		@Override
+		public void onError(@NonNull Exception exception) {
+			finish(l -> l.onError(exception));
+		}
+
+		private void progress(Callback callback) {
+			List<AudioDecodingListener> copy;
+			synchronized (this) {
+				if (result != null) {
+					return;
+				}
+				copy = new ArrayList<>(listeners);
+			}
+			for (AudioDecodingListener l : copy) {
+				callback.call(l);
+			}
+		}
+
+		private void finish(Callback callback) {
+			List<AudioDecodingListener> copy;
+			synchronized (this) {
+				if (result != null) {
+					return;
+				}
+				result = callback;
+				copy = new ArrayList<>(listeners);
+				listeners.clear();
+			}
+			for (AudioDecodingListener l : copy) {
+				callback.call(l);
+			}
+		}
+
+		private interface Callback {
+			void call(AudioDecodingListener listener);
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dimowner.audiorecorder.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import timber.log.Timber;
+
+/**
+ * Map between position in a record file and wall-clock recording time, for records where
+ * silent spans were not written. Every segment is a span of the file recorded without gaps,
+ * it starts at file time and recording time, a gap in recording time between segments is
+ * the skipped silence. Map is kept in a sidecar file next to the record.
+ */
+public class RecordTimeMap {
+
+	/** "TMP1" */
+	private static final int MAGIC = 0x544D5031;
+	private static final int HEADER_SIZE = 28;
+	private static final String SIDECAR_EXTENSION = ".tmap";
+
+	/** Positions are counted in sample frames, so appending many short spans does not accumulate rounding. */
+	private final int sampleRate;
+	/** Segment starts in frames of the file. */
+	private long[] fileFrames;
+	/** Segment starts in frames of recording. */
+	private long[] recordingFrames;
+	private int count = 0;
+	/** End of the last segment in file and recording frames. */
+	private long fileEnd = 0;
+	private long recordingEnd = 0;
+
+	public RecordTimeMap(int sampleRate) {
+		this(sampleRate, 16);
+	}
+
+	private RecordTimeMap(int sampleRate, int capacity) {
+		this.sampleRate = Math.max(1, sampleRate);
+		fileFrames = new long[Math.max(1, capacity)];
+		recordingFrames = new long[fileFrames.length];
+	}
+
+	/**
+	 * Append recorded span to the map.
+	 * @param frames Count of sample frames in the span.
+	 * @param written True if the span was written into the file, false if it was skipped.
+	 */
+	public void append(long frames, boolean written) {
+		if (frames <= 0) {
+			return;
+		}
+		if (written) {
+			if (count == 0 || fileEnd - fileFrames[count - 1] != recordingEnd - recordingFrames[count - 1]) {
+				//Previous span was skipped, start a new segment.
+				if (count == fileFrames.length) {
+					fileFrames = Arrays.copyOf(fileFrames, count * 2);
+					recordingFrames = Arrays.copyOf(recordingFrames, count * 2);
+				}
+				fileFrames[count] = fileEnd;
+				recordingFrames[count] = recordingEnd;
+				count++;
+			}
+			fileEnd += frames;
+		}
+		recordingEnd += frames;
+	}
+
+	/**
+	 * @return True if some span was skipped, otherwise file time is the same as recording time.
+	 */
+	public boolean hasGaps() {
+		return recordingEnd != fileEnd;
+	}
+
+	public int getSegmentCount() {
+		return count;
+	}
+
+	/**
+	 * Duration of recording including skipped spans.
+	 */
+	public long getRecordingDurationUs() {
+		return recordingEnd * 1000000 / sampleRate;
+	}
+
+	/**
+	 * Duration of audio written into the file.
+	 */
+	public long getFileDurationUs() {
+		return fileEnd * 1000000 / sampleRate;
+	}
+
+	/**
+	 * Convert position in the file into recording time.
+	 */
+	public long fileToRecording(long fileMills) {
+		long frame = fileMills * sampleRate / 1000;
+		int i = findSegment(fileFrames, frame);
+		if (i < 0) {
+			return fileMills;
+		}
+		long segmentEnd = recordingEnd;
+		if (i + 1 < count) {
+			segmentEnd = recordingFrames[i + 1];
+		}
+		return Math.min(recordingFrames[i] + (frame - fileFrames[i]), segmentEnd) * 1000 / sampleRate;
+	}
+
+	/**
+	 * Convert recording time into position in the file. Time inside a skipped span is mapped
+	 * to the start of the next written segment.
+	 */
+	public long recordingToFile(long recordingMills) {
+		long frame = recordingMills * sampleRate / 1000;
+		int i = findSegment(recordingFrames, frame);
+		if (i < 0) {
+			return 0;
+		}
+		if (i + 1 < count && frame >= recordingFrames[i] + fileFrames[i + 1] - fileFrames[i]) {
+			//Inside skipped span.
+			return fileFrames[i + 1] * 1000 / sampleRate;
+		}
+		return Math.min(fileFrames[i] + (frame - recordingFrames[i]), fileEnd) * 1000 / sampleRate;
+	}
+
+	/**
+	 * @return Index of the last segment which starts at or before the time or -1.
+	 */
+	private int findSegment(long[] starts, long frame) {
+		int low = 0;
+		int high = count - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] <= frame) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	public byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * 16);
+		buffer.putInt(MAGIC);
+		buffer.putInt(sampleRate);
+		buffer.putInt(count);
+		buffer.putLong(fileEnd);
+		buffer.putLong(recordingEnd);
+		for (int i = 0; i < count; i++) {
+			buffer.putLong(fileFrames[i]);
+			buffer.putLong(recordingFrames[i]);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Read map serialized by {@link #toBytes()}.
+	 * @return Map or null if data is not a valid map.
+	 */
+	public static RecordTimeMap fromBytes(byte[] data) {
+		if (data == null || data.length < HEADER_SIZE) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if (buffer.getInt() != MAGIC) {
+			return null;
+		}
+		int sampleRate = buffer.getInt();
+		int count = buffer.getInt();
+		if (sampleRate <= 0 || count < 0 || buffer.remaining() != 16 + (long) count * 16) {
+			return null;
+		}
+		RecordTimeMap map = new RecordTimeMap(sampleRate, count);
+		map.fileEnd = buffer.getLong();
+		map.recordingEnd = buffer.getLong();
+		for (int i = 0; i < count; i++) {
+			map.fileFrames[i] = buffer.getLong();
+			map.recordingFrames[i] = buffer.getLong();
+		}
+		map.count = count;
+		return map;
+	}
+
+	public static File getSidecarFile(File record) {
+		return new File(record.getPath() + SIDECAR_EXTENSION);
+	}
+
+	/**
+	 * Write the map next to the record, or delete the sidecar if nothing was skipped.
+	 */
+	public boolean save(File record) {
+		File sidecar = getSidecarFile(record);
+		if (!hasGaps()) {
+			return !sidecar.exists() || sidecar.delete();
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer data = ByteBuffer.wrap(toBytes());
+			channel.truncate(0);
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			channel.force(false);
+			return true;
+		} catch (IOException e) {
+			Timber.e(e, "Failed to save time map of %s", record);
+			return false;
+		}
+	}
+
+	/**
+	 * Read the map of the record.
+	 * @return Map or null if the record has no time map.
+	 */
+	public static RecordTimeMap load(File record) {
+		File sidecar = getSidecarFile(record);
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(sidecar, "r")) {
+			long length = raf.length();
+			if (length > Integer.MAX_VALUE) {
+				return null;
+			}
+			byte[] data = new byte[(int) length];
+			raf.readFully(data);
+			return fromBytes(data);
+		} catch (IOException e) {
+			Timber.e(e, "Failed to read time map of %s", record);
+			return null;
+		}
+	}
+
+	/**
+	 * Keep the sidecar with the record when the record file is renamed or moved.
+	 */
+	public static void moveSidecar(File from, File to) {
+		File sidecar = getSidecarFile(from);
+		if (sidecar.exists() && !sidecar.renameTo(getSidecarFile(to))) {
+			Timber.w("Failed to move time map of %s", from);
+		}
+	}
+
+	public static void deleteSidecar(File record) {
+		File sidecar = getSidecarFile(record);
+		if (sidecar.exists() && !sidecar.delete()) {
+			Timber.w("Failed to delete time map of %s", record);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio;
+
+import com.dimowner.audiorecorder.IntArrayList;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Reduces interleaved 16 bit PCM into waveform frames.
+ * Every point covers {@link #getFramesPerPoint()} sample frames: channels are downmixed
+ * into one value, their mean rounded toward zero, and reduced into min, max, peak
+ * (max absolute value) and RMS values in one pass.
+ * The class has no Android dependencies so it can be used and measured on plain JVM.
+ * Not thread safe, one instance per decoding session.
+ */
+public class WaveformEngine {
+
+	/** Max size of chunk copied out of a {@link ShortBuffer} at once. */
+	private static final int CHUNK_SIZE = 8192;
+
+	private final int channelCount;
+	private final int framesPerPoint;
+
+	private final IntArrayList peaks = new IntArrayList();
+	private final IntArrayList rms = new IntArrayList();
+
+	/** Shorts left from the previous chunk that did not form a whole sample frame. */
+	private final short[] carry;
+	private int carryCount = 0;
+
+	private short[] chunk;
+
+	/** State of the current, not finished waveform point. */
+	private int pointFrames = 0;
+	private int pointMin = 0;
+	private int pointMax = 0;
+	private long pointSquares = 0;
+
+	private OnPointListener pointListener;
+
+	/**
+	 * @param channelCount Count of interleaved channels in the PCM stream.
+	 * @param framesPerPoint Count of sample frames reduced into one waveform point.
+	 */
+	public WaveformEngine(int channelCount, int framesPerPoint) {
+		if (channelCount <= 0) {
+			throw new IllegalArgumentException("Channel count must be positive: " + channelCount);
+		}
+		this.channelCount = channelCount;
+		this.framesPerPoint = Math.max(1, framesPerPoint);
+		this.carry = new short[channelCount];
+	}
+
+	/**
+	 * Deliver waveform points to the listener. When listener is set points are not collected
+	 * by the engine and {@link #getPeaks()}, {@link #getRms()} return empty arrays.
+	 */
+	public void setOnPointListener(OnPointListener listener) {
+		this.pointListener = listener;
+	}
+
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	public int getFramesPerPoint() {
+		return framesPerPoint;
+	}
+
+	/**
+	 * Process all remaining samples of the buffer. Buffer position is moved to its limit.
+	 */
+	public void process(ShortBuffer buffer) {
+		if (buffer.hasArray()) {
+			int length = buffer.remaining();
+			process(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+			buffer.position(buffer.position() + length);
+		} else {
+			if (chunk == null) {
+				chunk = new short[CHUNK_SIZE - CHUNK_SIZE % channelCount];
+			}
+			while (buffer.hasRemaining()) {
+				int length = Math.min(chunk.length, buffer.remaining());
+				buffer.get(chunk, 0, length);
+				process(chunk, 0, length);
+			}
+		}
+	}
+
+	/**
+	 * Process interleaved samples. Chunks may end in the middle of a sample frame,
+	 * the rest of the frame is expected at the beginning of the next chunk.
+	 */
+	public void process(short[] samples, int offset, int length) {
+		int pos = offset;
+		int end = offset + length;
+		if (carryCount > 0) {
+			while (carryCount < channelCount && pos < end) {
+				carry[carryCount++] = samples[pos++];
+			}
+			if (carryCount < channelCount) {
+				return;
+			}
+			processFrames(carry, 0, 1);
+			carryCount = 0;
+		}
+		int frames = (end - pos) / channelCount;
+		processFrames(samples, pos, frames);
+		pos += frames * channelCount;
+		while (pos < end) {
+			carry[carryCount++] = samples[pos++];
+		}
+	}
+
+	/**
+	 * Emit the last not finished waveform point, if there is one.
+	 */
+	public void flush() {
+		if (pointFrames > 0) {
+			emitPoint();
+		}
+		carryCount = 0;
+	}
+
+	/**
+	 * Peak values of processed waveform points.
+	 */
+	public int[] getPeaks() {
+		return peaks.getData();
+	}
+
+	/**
+	 * RMS values of processed waveform points.
+	 */
+	public int[] getRms() {
+		return rms.getData();
+	}
+
+	/**
+	 * Count of processed waveform points.
+	 */
+	public int getPointCount() {
+		return peaks.size();
+	}
+
+	public void reset() {
+		peaks.clear();
+		rms.clear();
+		carryCount = 0;
+		pointFrames = 0;
+		pointMin = 0;
+		pointMax = 0;
+		pointSquares = 0;
+	}
+
+	private void processFrames(short[] samples, int offset, int frames) {
+		int pos = offset;
+		while (frames > 0) {
+			int n = Math.min(frames, framesPerPoint - pointFrames);
+			switch (channelCount) {
+				case 1:
+					reduceMono(samples, pos, n);
+					break;
+				case 2:
+					reduceStereo(samples, pos, n);
+					break;
+				default:
+					reduceMulti(samples, pos, n);
+			}
+			pos += n * channelCount;
+			frames -= n;
+			pointFrames += n;
+			if (pointFrames == framesPerPoint) {
+				emitPoint();
+			}
+		}
+	}
+
+	private void reduceMono(short[] samples, int offset, int frames) {
+		int min = pointMin;
+		int max = pointMax;
+		long squares = pointSquares;
+		int end = offset + frames;
+		for (int i = offset; i < end; i++) {
+			int v = samples[i];
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+			squares += (long) v * v;
+		}
+		pointMin = min;
+		pointMax = max;
+		pointSquares = squares;
+	}
+
+	private void reduceStereo(short[] samples, int offset, int frames) {
+		int min = pointMin;
+		int max = pointMax;
+		long squares = pointSquares;
+		int end = offset + frames * 2;
+		for (int i = offset; i < end; i += 2) {
+			//Division rounds toward zero like the N channel downmix, so positive and negative
+			//halves of the waveform are symmetric.
+			int v = (samples[i] + samples[i + 1]) / 2;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+			squares += (long) v * v;
+		}
+		pointMin = min;
+		pointMax = max;
+		pointSquares = squares;
+	}
+
+	private void reduceMulti(short[] samples, int offset, int frames) {
+		int min = pointMin;
+		int max = pointMax;
+		long squares = pointSquares;
+		int pos = offset;
+		for (int f = 0; f < frames; f++) {
+			int sum = 0;
+			for (int c = 0; c < channelCount; c++) {
+				sum += samples[pos++];
+			}
+			int v = sum / channelCount;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+			squares += (long) v * v;
+		}
+		pointMin = min;
+		pointMax = max;
+		pointSquares = squares;
+	}
+
+	private void emitPoint() {
+		int pointRms = (int) Math.sqrt((double) pointSquares / pointFrames);
+		if (pointListener != null) {
+			pointListener.onPoint(pointMin, pointMax, pointRms);
+		} else {
+			peaks.add(Math.max(pointMax, -pointMin));
+			rms.add(pointRms);
+		}
+		pointFrames = 0;
+		pointMin = 0;
+		pointMax = 0;
+		pointSquares = 0;
+	}
+
+	public interface OnPointListener {
+		/**
+		 * @param min Min downmixed sample value of the point, less or equal to 0.
+		 * @param max Max downmixed sample value of the point, greater or equal to 0.
+		 * @param rms Root mean square of downmixed sample values of the point.
+		 */
+		void onPoint(int min, int max, int rms);
+	}
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Multi level min/max waveform of a record.
+ * Level 0 is the finest one, every next level is two times coarser than the previous one.
+ * Values are gains in range 0 - 255: square root of max sample value above zero and
+ * square root of max sample magnitude below zero. So waveform drawn from any level for any
+ * zoom or screen width does not require decoding or resampling of the whole record.
+ * Waveforms built from PCM also keep square root of RMS of every point, waveforms converted
+ * from single level gains have no RMS.
+ */
+public class WaveformPyramid {
+
+	/** "WFP1", levels of min and max gains. */
+	private static final int MAGIC = 0x57465031;
+	/** "WFP2", levels of min, max and RMS gains. */
+	private static final int MAGIC_RMS = 0x57465032;
+
+	/** Finest time resolution of level 0. */
+	private static final int BASE_POINT_MILLS = 10;
+	/** Max point count of level 0 which bounds memory used for long records. */
+	private static final int MAX_BASE_POINTS = 65536;
+
+	public static final WaveformPyramid EMPTY = new WaveformPyramid(0,
+			new ByteBuffer[]{ByteBuffer.allocate(0)}, new ByteBuffer[]{ByteBuffer.allocate(0)}, null);
+
+	private final long durationMills;
+	/** Levels are heap buffers for built waveforms or read only views of serialized data. */
+	private final ByteBuffer[] mins;
+	private final ByteBuffer[] maxs;
+	/** Null when waveform has no RMS. */
+	private final ByteBuffer[] rms;
+	private Calibration calibration;
+
+	private WaveformPyramid(long durationMills, ByteBuffer[] mins, ByteBuffer[] maxs, ByteBuffer[] rms) {
+		this.durationMills = durationMills;
+		this.mins = mins;
+		this.maxs = maxs;
+		this.rms = rms;
+	}
+
+	/**
+	 * Count of PCM sample frames reduced into one point of level 0.
+	 */
+	public static int calculateBaseFramesPerPoint(int sampleRate, long durationMills) {
+		long totalFrames = durationMills * sampleRate / 1000;
+		long byDuration = (totalFrames + MAX_BASE_POINTS - 1) / MAX_BASE_POINTS;
+		return (int) Math.max(Math.max(1, sampleRate * BASE_POINT_MILLS / 1000), byDuration);
+	}
+
+	/**
+	 * Build waveform from single level gains array, used for records which were processed
+	 * before pyramid was introduced.
+	 */
+	public static WaveformPyramid fromGains(int[] gains, long durationMills) {
+		if (gains == null || gains.length == 0) {
+			return EMPTY;
+		}
+		byte[] base = new byte[gains.length];
+		for (int i = 0; i < gains.length; i++) {
+			base[i] = (byte) clampGain(gains[i]);
+		}
+		return build(base, base.clone(), null, base.length, durationMills);
+	}
+
+	/**
+	 * Read waveform serialized by {@link #toBytes()}.
+	 * @return Waveform or null if data is not a valid waveform.
+	 */
+	public static WaveformPyramid fromBytes(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		return fromBuffer(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Read waveform serialized by {@link #toBytes()} without copying it,
+	 * levels of the result are views of the buffer content.
+	 * @return Waveform or null if buffer does not contain a valid waveform.
+	 */
+	public static WaveformPyramid fromBuffer(ByteBuffer data) {
+		if (data == null || data.remaining() < 16) {
+			return null;
+		}
+		ByteBuffer buffer = data.duplicate();
+		try {
+			int magic = buffer.getInt();
+			if (magic != MAGIC && magic != MAGIC_RMS) {
+				return null;
+			}
+			long duration = buffer.getLong();
+			int levelCount = buffer.getInt();
+			if (levelCount <= 0 || levelCount > 32) {
+				return null;
+			}
+			ByteBuffer[] mins = new ByteBuffer[levelCount];
+			ByteBuffer[] maxs = new ByteBuffer[levelCount];
+			ByteBuffer[] rms = magic == MAGIC_RMS ? new ByteBuffer[levelCount] : null;
+			for (int i = 0; i < levelCount; i++) {
+				int size = buffer.getInt();
+				mins[i] = view(buffer, size);
+				maxs[i] = view(buffer, size);
+				if (rms != null) {
+					rms[i] = view(buffer, size);
+				}
+			}
+			return new WaveformPyramid(duration, mins, maxs, rms);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static ByteBuffer view(ByteBuffer buffer, int size) {
+		if (size < 0 || size > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer view = buffer.slice();
+		view.limit(size);
+		buffer.position(buffer.position() + size);
+		return view.slice();
+	}
+
+	public byte[] toBytes() {
+		int valuesPerPoint = rms != null ? 3 : 2;
+		int size = 16;
+		for (ByteBuffer level : mins) {
+			size += 4 + level.capacity() * valuesPerPoint;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(rms != null ? MAGIC_RMS : MAGIC);
+		buffer.putLong(durationMills);
+		buffer.putInt(mins.length);
+		for (int i = 0; i < mins.length; i++) {
+			buffer.putInt(mins[i].capacity());
+			buffer.put(mins[i].duplicate());
+			buffer.put(maxs[i].duplicate());
+			if (rms != null) {
+				buffer.put(rms[i].duplicate());
+			}
+		}
+		return buffer.array();
+	}
+
+	public long getDurationMills() {
+		return durationMills;
+	}
+
+	public boolean isEmpty() {
+		return maxs[0].capacity() == 0;
+	}
+
+	public int getLevelCount() {
+		return maxs.length;
+	}
+
+	public int getLevelSize(int level) {
+		return maxs[level].capacity();
+	}
+
+	/**
+	 * Find the coarsest level that has at least one point per pixel for the given waveform width.
+	 * @param widthPx Width of the whole waveform in pixels.
+	 */
+	public int selectLevel(int widthPx) {
+		for (int level = maxs.length - 1; level > 0; level--) {
+			if (maxs[level].capacity() >= widthPx) {
+				return level;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Max gain above zero of points [from, to) of the level.
+	 */
+	public int getMax(int level, int from, int to) {
+		ByteBuffer values = maxs[level];
+		int result = 0;
+		for (int i = from; i < to; i++) {
+			result = Math.max(result, values.get(i) & 0xff);
+		}
+		return result;
+	}
+
+	/**
+	 * Max gain below zero of points [from, to) of the level.
+	 */
+	public int getMin(int level, int from, int to) {
+		ByteBuffer values = mins[level];
+		int result = 0;
+		for (int i = from; i < to; i++) {
+			result = Math.max(result, values.get(i) & 0xff);
+		}
+		return result;
+	}
+
+	public boolean hasRms() {
+		return rms != null;
+	}
+
+	/**
+	 * RMS gain of points [from, to) of the level: square root of RMS of all samples of the points.
+	 * @return Gain or 0 if waveform has no RMS.
+	 */
+	public int getRms(int level, int from, int to) {
+		if (rms == null || to <= from) {
+			return 0;
+		}
+		ByteBuffer values = rms[level];
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += pow4(values.get(i) & 0xff);
+		}
+		return rmsGain(sum / (to - from));
+	}
+
+	/**
+	 * Max gain of both signs of points [from, to) of the level.
+	 */
+	public int getPeak(int level, int from, int to) {
+		return Math.max(getMax(level, from, to), getMin(level, from, to));
+	}
+
+	/**
+	 * Resample waveform into single level peak gains array.
+	 * @param count Size of result array.
+	 */
+	public int[] toGains(int count) {
+		int[] gains = new int[Math.max(0, count)];
+		if (isEmpty() || count <= 0) {
+			return gains;
+		}
+		int level = selectLevel(count);
+		int size = maxs[level].capacity();
+		for (int i = 0; i < count; i++) {
+			int from = (int) ((long) i * size / count);
+			int to = Math.max(from + 1, (int) ((long) (i + 1) * size / count));
+			gains[i] = getPeak(level, from, Math.min(to, size));
+		}
+		return gains;
+	}
+
+	/**
+	 * Gains calibration for waveform display, calculated once per waveform.
+	 */
+	public Calibration getCalibration() {
+		if (calibration == null) {
+			calibration = new Calibration(maxs[0], mins[0]);
+		}
+		return calibration;
+	}
+
+	private static int clampGain(int gain) {
+		if (gain < 0) {
+			return 0;
+		} else if (gain > 255) {
+			return 255;
+		}
+		return gain;
+	}
+
+	/**
+	 * Gain of the mean of squared RMS values given as gains to the 4th power.
+	 */
+	private static int rmsGain(double meanPow4) {
+		return clampGain((int) Math.round(Math.sqrt(Math.sqrt(meanPow4))));
+	}
+
+	private static double pow4(int gain) {
+		double square = (double) gain * gain;
+		return square * square;
+	}
+
+	/**
+	 * @param baseRms RMS gains of level 0 or null if waveform has no RMS.
+	 */
+	private static WaveformPyramid build(byte[] baseMins, byte[] baseMaxs, byte[] baseRms, int baseSize,
+													 long durationMills) {
+		int levelCount = 1;
+		for (int size = baseSize; size > 1; size = (size + 1) / 2) {
+			levelCount++;
+		}
+		ByteBuffer[] mins = new ByteBuffer[levelCount];
+		ByteBuffer[] maxs = new ByteBuffer[levelCount];
+		ByteBuffer[] rms = baseRms != null ? new ByteBuffer[levelCount] : null;
+		byte[] levelMins = baseMins.length == baseSize ? baseMins : Arrays.copyOf(baseMins, baseSize);
+		byte[] levelMaxs = baseMaxs.length == baseSize ? baseMaxs : Arrays.copyOf(baseMaxs, baseSize);
+		byte[] levelRms = baseRms == null || baseRms.length == baseSize ? baseRms : Arrays.copyOf(baseRms, baseSize);
+		mins[0] = ByteBuffer.wrap(levelMins);
+		maxs[0] = ByteBuffer.wrap(levelMaxs);
+		if (rms != null) {
+			rms[0] = ByteBuffer.wrap(levelRms);
+		}
+		for (int level = 1; level < levelCount; level++) {
+			levelMins = downsample(levelMins);
+			levelMaxs = downsample(levelMaxs);
+			mins[level] = ByteBuffer.wrap(levelMins);
+			maxs[level] = ByteBuffer.wrap(levelMaxs);
+			if (rms != null) {
+				levelRms = downsampleRms(levelRms);
+				rms[level] = ByteBuffer.wrap(levelRms);
+			}
+		}
+		return new WaveformPyramid(durationMills, mins, maxs, rms);
+	}
+
+	private static byte[] downsample(byte[] values) {
+		byte[] result = new byte[(values.length + 1) / 2];
+		int last = values.length - 1;
+		for (int i = 0; i < result.length; i++) {
+			int a = values[2 * i] & 0xff;
+			int b = values[Math.min(2 * i + 1, last)] & 0xff;
+			result[i] = (byte) Math.max(a, b);
+		}
+		return result;
+	}
+
+	private static byte[] downsampleRms(byte[] values) {
+		byte[] result = new byte[(values.length + 1) / 2];
+		int last = values.length - 1;
+		for (int i = 0; i < result.length; i++) {
+			int a = values[2 * i] & 0xff;
+			int b = values[Math.min(2 * i + 1, last)] & 0xff;
+			result[i] = (byte) rmsGain((pow4(a) + pow4(b)) / 2);
+		}
+		return result;
+	}
+
+	/**
+	 * Collects level 0 points produced by {@link WaveformEngine}.
+	 * Memory is bounded by capacity regardless of record duration: when the builder is full
+	 * every two neighbour points are merged into one and next incoming points are merged
+	 * two times more. So a record longer than expected, or with unknown duration, is reduced
+	 * into at most capacity points, and waveform can be built at any moment of decoding.
+	 */
+	public static class Builder implements WaveformEngine.OnPointListener {
+
+		private final int capacity;
+		private byte[] mins = new byte[1024];
+		private byte[] maxs = new byte[1024];
+		private byte[] rms = new byte[1024];
+		private int size = 0;
+		/** Count of incoming points merged into one stored point. */
+		private int pointsPerSlot = 1;
+		/** Count of incoming points merged into the pending point. */
+		private int slotPoints = 0;
+		private int slotMin = 0;
+		private int slotMax = 0;
+		/** Sum of squared RMS values of points merged into the pending point. */
+		private double slotSquares = 0;
+
+		public Builder() {
+			this(MAX_BASE_POINTS);
+		}
+
+		/**
+		 * @param capacity Max count of level 0 points, rounded up to even number.
+		 */
+		public Builder(int capacity) {
+			this.capacity = Math.max(2, capacity + (capacity & 1));
+		}
+
+		@Override
+		public void onPoint(int min, int max, int rms) {
+			int minGain = clampGain((int) Math.sqrt(-min));
+			int maxGain = clampGain((int) Math.sqrt(max));
+			double square = (double) rms * rms;
+			if (slotPoints == 0) {
+				if (size == capacity) {
+					fold();
+				}
+				slotMin = minGain;
+				slotMax = maxGain;
+				slotSquares = square;
+			} else {
+				slotMin = Math.max(slotMin, minGain);
+				slotMax = Math.max(slotMax, maxGain);
+				slotSquares += square;
+			}
+			slotPoints++;
+			if (slotPoints == pointsPerSlot) {
+				store(slotMin, slotMax, slotRmsGain());
+				slotPoints = 0;
+			}
+		}
+
+		/**
+		 * Count of level 0 points of waveform built now.
+		 */
+		public int size() {
+			return slotPoints > 0 ? size + 1 : size;
+		}
+
+		/**
+		 * Count of incoming points merged into one level 0 point.
+		 */
+		public int getPointsPerSlot() {
+			return pointsPerSlot;
+		}
+
+		/**
+		 * Build waveform of points collected so far, builder keeps collecting points after that.
+		 */
+		public WaveformPyramid build(long durationMills) {
+			int count = size();
+			if (count == 0) {
+				return EMPTY;
+			}
+			byte[] baseMins = Arrays.copyOf(mins, count);
+			byte[] baseMaxs = Arrays.copyOf(maxs, count);
+			byte[] baseRms = Arrays.copyOf(rms, count);
+			if (count > size) {
+				baseMins[size] = (byte) slotMin;
+				baseMaxs[size] = (byte) slotMax;
+				baseRms[size] = (byte) slotRmsGain();
+			}
+			return WaveformPyramid.build(baseMins, baseMaxs, baseRms, count, durationMills);
+		}
+
+		/**
+		 * Gain of RMS of all points merged into the pending point.
+		 */
+		private int slotRmsGain() {
+			return clampGain((int) Math.sqrt(Math.sqrt(slotSquares / slotPoints)));
+		}
+
+		private void store(int min, int max, int rmsGain) {
+			if (size == maxs.length) {
+				int length = Math.min(size * 2, capacity);
+				mins = Arrays.copyOf(mins, length);
+				maxs = Arrays.copyOf(maxs, length);
+				rms = Arrays.copyOf(rms, length);
+			}
+			mins[size] = (byte) min;
+			maxs[size] = (byte) max;
+			rms[size] = (byte) rmsGain;
+			size++;
+		}
+
+		/**
+		 * Merge every two stored points into one, capacity is even so no point is left alone.
+		 */
+		private void fold() {
+			int half = size / 2;
+			for (int i = 0; i < half; i++) {
+				mins[i] = (byte) Math.max(mins[2 * i] & 0xff, mins[2 * i + 1] & 0xff);
+				maxs[i] = (byte) Math.max(maxs[2 * i] & 0xff, maxs[2 * i + 1] & 0xff);
+				rms[i] = (byte) rmsGain((pow4(rms[2 * i] & 0xff) + pow4(rms[2 * i + 1] & 0xff)) / 2);
+			}
+			size = half;
+			pointsPerSlot *= 2;
+		}
+	}
+
+	/**
+	 * Maps gains into waveform heights. Ignores 5% of the quietest and 1% of the loudest points
+	 * so a few spikes or a long silence do not flatten the waveform.
+	 */
+	public static class Calibration {
+
+		private final float minGain;
+		private final float range;
+
+		Calibration(ByteBuffer maxs, ByteBuffer mins) {
+			int numFrames = maxs.capacity();
+			int[] gainHist = new int[256];
+			float maxGain = 0;
+			for (int i = 0; i < numFrames; i++) {
+				int gain = Math.max(maxs.get(i) & 0xff, mins.get(i) & 0xff);
+				if (gain > maxGain) maxGain = gain;
+				gainHist[gain]++;
+			}
+
+			// Re-calibrate the min to be 5%
+			float minGain = 0;
+			int sum = 0;
+			while (minGain < 255 && sum < numFrames / 20) {
+				sum += gainHist[(int) minGain];
+				minGain++;
+			}
+
+			// Re-calibrate the max to be 99%
+			sum = 0;
+			while (maxGain > 2 && sum < numFrames / 100) {
+				sum += gainHist[(int) maxGain];
+				maxGain--;
+			}
+			float range = maxGain - minGain;
+			if (range <= 0) {
+				range = 1;
+			}
+			this.minGain = minGain;
+			this.range = range;
+		}
+
+		/**
+		 * @return Waveform height in range 0 - 1 for the gain.
+		 */
+		public float height(int gain) {
+			float value = (gain - minGain) / range;
+			if (value < 0) value = 0;
+			if (value > 1) value = 1;
+			return value * value;
+		}
+
+		/**
+		 * Precalculate heights in pixels for all 256 gain values.
+		 */
+		public int[] heightTable(int maxHeightPx) {
+			int[] table = new int[256];
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (int) (height(i) * maxHeightPx);
+			}
+			return table;
+		}
+	}
+}
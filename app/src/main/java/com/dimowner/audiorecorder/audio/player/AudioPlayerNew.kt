@@ -20,10 +20,12 @@ import android.media.MediaPlayer
 import android.media.MediaPlayer.OnPreparedListener
 import android.os.Handler
 import com.dimowner.audiorecorder.AppConstants
+import com.dimowner.audiorecorder.audio.RecordTimeMap
 import com.dimowner.audiorecorder.exception.AppException
 import com.dimowner.audiorecorder.exception.PlayerDataSourceException
 import com.dimowner.audiorecorder.exception.PlayerInitException
 import timber.log.Timber
+import java.io.File
 import java.util.*
 
 class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
@@ -34,6 +36,8 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 	private var playerState = PlayerState.STOPPED
 	private var pauseTimeMills: Long = 0
 	private var prevPosMills: Long = 0
+	/** Map of records recorded with skipped silence, positions of listeners are in recording time. */
+	private var timeMap: RecordTimeMap? = null
 	private val handler = Handler()
 
 	override fun addPlayerCallback(callback: PlayerContractNew.PlayerCallback) {
@@ -59,6 +63,7 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 	override fun play(filePath: String) {
 		try {
 			if (playerState != PlayerState.PLAYING) {
+				timeMap = RecordTimeMap.load(File(filePath))
 				restartPlayer(filePath)
 				try {
 					mediaPlayer.setOnPreparedListener(this)
@@ -82,7 +87,7 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 
 	override fun onPrepared(mp: MediaPlayer) {
 		mediaPlayer.start()
-		mediaPlayer.seekTo(pauseTimeMills.toInt())
+		mediaPlayer.seekTo(toFileMills(pauseTimeMills).toInt())
 		pauseTimeMills = 0
 		playerState = PlayerState.PLAYING
 		onStartPlay()
@@ -97,7 +102,7 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 		prevPosMills = 0
 		try {
 			if (playerState == PlayerState.PLAYING) {
-				mediaPlayer.seekTo(mills.toInt())
+				mediaPlayer.seekTo(toFileMills(mills).toInt())
 				onSeek(mills)
 			}
 		} catch (e: IllegalStateException) {
@@ -109,7 +114,7 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 		stopPlaybackTimeUpdate()
 		if (playerState == PlayerState.PLAYING) {
 			mediaPlayer.pause()
-			pauseTimeMills = mediaPlayer.currentPosition.toLong()
+			pauseTimeMills = toRecordingMills(mediaPlayer.currentPosition.toLong())
 			prevPosMills = 0
 			playerState = PlayerState.PAUSED
 			onPausePlay()
@@ -119,7 +124,7 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 	override fun unpause() {
 		if (playerState == PlayerState.PAUSED) {
 			mediaPlayer.start()
-			mediaPlayer.seekTo(pauseTimeMills.toInt())
+			mediaPlayer.seekTo(toFileMills(pauseTimeMills).toInt())
 			pauseTimeMills = 0
 			playerState = PlayerState.PLAYING
 			onStartPlay()
@@ -163,7 +168,7 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 		handler.postDelayed({
 			try {
 				if (playerState == PlayerState.PLAYING) {
-					var pos = mediaPlayer.currentPosition.toLong()
+					var pos = toRecordingMills(mediaPlayer.currentPosition.toLong())
 					if (pos < prevPosMills) {
 						pos = prevPosMills
 					} else {
@@ -180,6 +185,14 @@ class AudioPlayerNew: PlayerContractNew.Player, OnPreparedListener {
 		}, AppConstants.PLAYBACK_VISUALIZATION_INTERVAL.toLong())
 	}
 
+	private fun toFileMills(mills: Long): Long {
+		return timeMap?.recordingToFile(mills) ?: mills
+	}
+
+	private fun toRecordingMills(mills: Long): Long {
+		return timeMap?.fileToRecording(mills) ?: mills
+	}
+
 	private fun stopPlaybackTimeUpdate() {
 		handler.removeCallbacksAndMessages(null)
 	}
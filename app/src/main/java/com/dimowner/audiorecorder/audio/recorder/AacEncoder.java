@@ -0,0 +1,424 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import timber.log.Timber;
+
+/**
+ * Encodes captured 16 bit PCM into AAC in MPEG-4 container on its own thread.
+ * Capture thread takes a buffer from a pool of direct buffers, fills it and submits it back,
+ * same as with {@link PcmWriter}. Encoder thread copies submitted PCM into input buffers of
+ * {@link MediaCodec} working in asynchronous mode and writes encoded frames with {@link MediaMuxer}.
+ * Presentation time is counted from submitted sample frames, so pauses leave no gaps in the file.
+ */
+public class AacEncoder {
+
+	private static final String MIME_TYPE = MediaFormat.MIMETYPE_AUDIO_AAC;
+	/** Max time capture thread waits for encoder to finish the file. */
+	private static final long FINISH_TIMEOUT_MILLS = 5000;
+
+	private final File file;
+	private final int sampleRate;
+	private final int channelCount;
+	private final int bitrate;
+	private final int bufferSize;
+	private final int bufferCount;
+	private final int bytesPerFrame;
+	/** Buffers ready to be filled by capture, only encoder thread returns buffers here. */
+	private final SpscRing<ByteBuffer> free;
+	/** Buffers filled by capture waiting to be encoded. */
+	private final SpscRing<ByteBuffer> filled;
+	private final ByteBuffer scratch;
+	private final OnErrorListener errorListener;
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	private HandlerThread thread;
+	private Handler handler;
+	private MediaCodec codec;
+	private MediaMuxer muxer;
+
+	/** Accessed on encoder thread only. */
+	private final ArrayDeque<Integer> inputIndices = new ArrayDeque<>();
+	private ByteBuffer pending;
+	private long framesQueued = 0;
+	private int trackIndex = -1;
+	private boolean muxerStarted = false;
+	private boolean inputEos = false;
+	private boolean released = false;
+
+	private volatile boolean finishing = false;
+	private volatile boolean failed = false;
+	private volatile long overrunCount = 0;
+	private volatile long droppedBytes = 0;
+	private volatile long bytesSubmitted = 0;
+
+	private final Runnable drain = this::drainInput;
+
+	/**
+	 * @param file Output file, it is overwritten.
+	 * @param bufferSize Size of a pool buffer in bytes.
+	 * @param bufferCount Count of pool buffers, bounds how long encoder may stall without losing data.
+	 * @param errorListener Called on encoder thread when encoding fails, next buffers are dropped.
+	 */
+	public AacEncoder(File file, int sampleRate, int channelCount, int bitrate,
+							int bufferSize, int bufferCount, OnErrorListener errorListener) {
+		this.file = file;
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		this.bitrate = bitrate;
+		this.bytesPerFrame = channelCount * 2;
+		this.bufferSize = bufferSize - bufferSize % bytesPerFrame;
+		this.bufferCount = Math.max(2, bufferCount);
+		this.errorListener = errorListener;
+		this.free = new SpscRing<>(this.bufferCount);
+		this.filled = new SpscRing<>(this.bufferCount);
+		for (int i = 0; i < this.bufferCount; i++) {
+			free.offer(allocate(this.bufferSize));
+		}
+		this.scratch = allocate(this.bufferSize);
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Create and start encoder and muxer.
+	 * Codec is created on encoder thread so its callbacks are called on that thread.
+	 */
+	public void start() throws IOException {
+		thread = new HandlerThread("AacEncoder Thread");
+		thread.start();
+		handler = new Handler(thread.getLooper());
+		FutureTask<Void> task = new FutureTask<>(() -> {
+			prepare();
+			return null;
+		});
+		handler.post(task);
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			handler.post(this::release);
+			throw new IOException("Interrupted while starting encoder", e);
+		} catch (ExecutionException e) {
+			handler.post(this::release);
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Failed to start encoder", cause);
+		}
+	}
+
+	private void prepare() throws IOException {
+		MediaFormat format = MediaFormat.createAudioFormat(MIME_TYPE, sampleRate, channelCount);
+		format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+		format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+		format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, bufferSize);
+		muxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+		try {
+			codec = MediaCodec.createEncoderByType(MIME_TYPE);
+			codec.setCallback(callback);
+			codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+			codec.start();
+		} catch (IllegalStateException | IllegalArgumentException e) {
+			throw new IOException("Failed to configure AAC encoder", e);
+		}
+	}
+
+	/**
+	 * Take a buffer to fill, called by capture thread.
+	 * @return Empty buffer of {@link #getBufferSize()} bytes.
+	 */
+	public ByteBuffer obtainBuffer() {
+		ByteBuffer buffer = free.poll();
+		return buffer != null ? buffer : scratch;
+	}
+
+	/**
+	 * Check whether PCM of the buffer is encoded when it is submitted.
+	 * @return False for the scratch buffer given while all pool buffers are in use, it is dropped.
+	 */
+	public boolean willEncode(ByteBuffer buffer) {
+		return buffer != scratch;
+	}
+
+	/**
+	 * Pass filled buffer to encoder, called by capture thread.
+	 * @param buffer Buffer taken by {@link #obtainBuffer()}.
+	 * @param length Count of bytes filled from the beginning of the buffer, buffer is recycled if
+	 * the count is not positive. Empty buffers are recycled by encoder thread as well, because
+	 * only encoder may return buffers into the pool.
+	 */
+	public void submit(ByteBuffer buffer, int length) {
+		if (buffer == scratch) {
+			if (length > 0) {
+				overrunCount++;
+				droppedBytes += length;
+			}
+			return;
+		}
+		buffer.position(0);
+		buffer.limit(Math.max(0, length - length % bytesPerFrame));
+		filled.offer(buffer);
+		bytesSubmitted += buffer.limit();
+		handler.post(drain);
+	}
+
+	/**
+	 * Encode all submitted buffers, finish the file and release encoder, called by capture thread.
+	 * Waits for the encoder even if the calling thread is interrupted, interrupted status is kept.
+	 * @return True if the file was finished successfully.
+	 */
+	public boolean finish() {
+		finishing = true;
+		handler.post(drain);
+		boolean interrupted = false;
+		boolean done = false;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FINISH_TIMEOUT_MILLS);
+		while (true) {
+			try {
+				done = finished.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (!done) {
+			Timber.e("Encoder did not finish in time");
+			failed = true;
+			handler.post(this::release);
+		}
+		return done && !failed;
+	}
+
+	/** Copy submitted PCM into free codec input buffers, called on encoder thread. */
+	private void drainInput() {
+		if (released || inputEos) {
+			return;
+		}
+		try {
+			while (!inputIndices.isEmpty()) {
+				while (pending == null || !pending.hasRemaining()) {
+					if (pending != null) {
+						//Empty buffer, nothing to encode.
+						pending.clear();
+						free.offer(pending);
+					}
+					pending = filled.poll();
+					if (pending == null) {
+						break;
+					}
+				}
+				if (pending == null) {
+					if (finishing) {
+						long pts = framesQueued * 1000000L / sampleRate;
+						codec.queueInputBuffer(inputIndices.poll(), 0, 0, pts, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+						inputEos = true;
+					}
+					return;
+				}
+				int index = inputIndices.poll();
+				ByteBuffer input = codec.getInputBuffer(index);
+				if (input == null) {
+					continue;
+				}
+				input.clear();
+				int length = Math.min(input.remaining(), pending.remaining());
+				length -= length % bytesPerFrame;
+				int limit = pending.limit();
+				pending.limit(pending.position() + length);
+				input.put(pending);
+				pending.limit(limit);
+				long pts = framesQueued * 1000000L / sampleRate;
+				framesQueued += length / bytesPerFrame;
+				codec.queueInputBuffer(index, 0, length, pts, 0);
+				if (!pending.hasRemaining()) {
+					pending.clear();
+					free.offer(pending);
+					pending = null;
+				}
+			}
+		} catch (IllegalStateException e) {
+			fail(e);
+		}
+	}
+
+	private final MediaCodec.Callback callback = new MediaCodec.Callback() {
+		@Override
+		public void onInputBufferAvailable(@NonNull MediaCodec mc, int index) {
+			inputIndices.add(index);
+			drainInput();
+		}
+
+		@Override
+		public void onOutputBufferAvailable(@NonNull MediaCodec mc, int index, @NonNull MediaCodec.BufferInfo info) {
+			if (released) {
+				return;
+			}
+			try {
+				ByteBuffer output = mc.getOutputBuffer(index);
+				if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+					//Codec specific data is passed to muxer with output format.
+					info.size = 0;
+				}
+				if (output != null && info.size > 0 && muxerStarted) {
+					output.position(info.offset);
+					output.limit(info.offset + info.size);
+					muxer.writeSampleData(trackIndex, output, info);
+				}
+				mc.releaseOutputBuffer(index, false);
+				if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+					complete();
+				}
+			} catch (IllegalStateException | IllegalArgumentException e) {
+				fail(e);
+			}
+		}
+
+		@Override
+		public void onError(@NonNull MediaCodec mc, @NonNull MediaCodec.CodecException e) {
+			fail(e);
+		}
+
+		@Override
+		public void onOutputFormatChanged(@NonNull MediaCodec mc, @NonNull MediaFormat format) {
+			if (!muxerStarted) {
+				trackIndex = muxer.addTrack(format);
+				muxer.start();
+				muxerStarted = true;
+			}
+		}
+	};
+
+	private void complete() {
+		boolean stopped = muxerStarted;
+		if (muxerStarted) {
+			try {
+				muxer.stop();
+			} catch (IllegalStateException e) {
+				Timber.e(e);
+				stopped = false;
+			}
+			muxerStarted = false;
+		}
+		if (!stopped) {
+			failed = true;
+		}
+		release();
+	}
+
+	private void fail(Exception e) {
+		Timber.e(e);
+		if (!failed) {
+			failed = true;
+			if (errorListener != null) {
+				errorListener.onError(e);
+			}
+		}
+		if (muxerStarted) {
+			try {
+				muxer.stop();
+			} catch (IllegalStateException ex) {
+				Timber.e(ex);
+			}
+			muxerStarted = false;
+		}
+		release();
+	}
+
+	/** Release codec, muxer and encoder thread, called on encoder thread. */
+	private void release() {
+		if (released) {
+			return;
+		}
+		released = true;
+		if (codec != null) {
+			try {
+				codec.stop();
+			} catch (IllegalStateException e) {
+				Timber.e(e);
+			}
+			codec.release();
+			codec = null;
+		}
+		if (muxer != null) {
+			muxer.release();
+			muxer = null;
+		}
+		if (thread != null) {
+			thread.quitSafely();
+		}
+		finished.countDown();
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getBufferCount() {
+		return bufferCount;
+	}
+
+	/**
+	 * Count of captured buffers dropped because all pool buffers were waiting to be encoded.
+	 */
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * Count of PCM bytes accepted for encoding.
+	 */
+	public long getBytesSubmitted() {
+		return bytesSubmitted;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public interface OnErrorListener {
+		void onError(Exception e);
+	}
+}
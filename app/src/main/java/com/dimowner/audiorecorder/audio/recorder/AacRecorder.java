@@ -0,0 +1,349 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import com.dimowner.audiorecorder.AmplitudeChannel;
+import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.audio.WaveformEngine;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
+import com.dimowner.audiorecorder.exception.InvalidOutputFile;
+import com.dimowner.audiorecorder.exception.NoSpaceAvailableException;
+import com.dimowner.audiorecorder.exception.RecorderInitException;
+import com.dimowner.audiorecorder.exception.RecordingException;
+import com.dimowner.audiorecorder.util.AmplitudeUtils;
+import com.dimowner.audiorecorder.util.AndroidUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import timber.log.Timber;
+
+/**
+ * Records M4A: captures PCM with {@link AudioRecord} and encodes it into AAC with {@link AacEncoder}.
+ * Captured PCM is also reduced into waveform with the same {@link WaveformEngine} used for decoding,
+ * so the waveform of a record is ready when recording stops.
+ */
+public class AacRecorder implements RecorderContract.WaveformRecorder {
+
+	private AudioRecord recorder = null;
+
+	private static final int RECORDER_BPP = 16; //bits per sample
+	/** Duration of audio kept in encoder buffers while encoder is busy. */
+	private static final int ENCODER_BUFFER_MILLS = 2000;
+
+	private File recordFile = null;
+	private int bufferSize = 0;
+	/** PCM bytes of the current recording accepted by encoder, recording duration is derived from it. */
+	private volatile long recordedBytes = 0;
+
+	private Thread recordingThread;
+
+	private final RecordingStateMachine state = new RecordingStateMachine();
+	private final ProgressTicker progressTicker = new ProgressTicker(
+			AppConstants.RECORDING_PROGRESS_INTERVAL, this::onProgressTick);
+
+	private int channelCount = 1;
+	private int sampleRate = AppConstants.RECORD_SAMPLE_RATE_44100;
+	private int bitrate = AppConstants.RECORD_ENCODING_BITRATE_128000;
+
+	/** Amplitudes for recording visualisation, capture thread is the only writer. */
+	private volatile AmplitudeChannel amplitudeChannel;
+
+	private volatile WaveformPyramid recordedWaveform;
+
+	private RecorderContract.RecorderCallback recorderCallback;
+
+	private static class AacRecorderSingletonHolder {
+		private static final AacRecorder singleton = new AacRecorder();
+
+		public static AacRecorder getSingleton() {
+			return AacRecorderSingletonHolder.singleton;
+		}
+	}
+
+	public static AacRecorder getInstance() {
+		return AacRecorderSingletonHolder.getSingleton();
+	}
+
+	private AacRecorder() { }
+
+	@Override
+	public void setRecorderCallback(RecorderContract.RecorderCallback callback) {
+		recorderCallback = callback;
+	}
+
+	@Override
+	public void startRecording(String outputFile, int channelCount, int sampleRate, int bitrate) {
+		if (state.getState() != RecordingStateMachine.STATE_IDLE) {
+			Timber.e("Previous recording is not finished");
+			if (recorderCallback != null) {
+				recorderCallback.onError(new RecorderInitException());
+			}
+			return;
+		}
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		this.bitrate = bitrate;
+		recordFile = new File(outputFile);
+		if (recordFile.exists() && recordFile.isFile()) {
+			int channel = channelCount == 1 ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+			try {
+				bufferSize = AudioRecord.getMinBufferSize(sampleRate,
+						channel,
+						AudioFormat.ENCODING_PCM_16BIT);
+				recorder = new AudioRecord(
+						MediaRecorder.AudioSource.MIC,
+						sampleRate,
+						channel,
+						AudioFormat.ENCODING_PCM_16BIT,
+						bufferSize
+				);
+			} catch (IllegalArgumentException e) {
+				Timber.e(e, "sampleRate = " + sampleRate + " channel = " + channel + " bufferSize = " + bufferSize);
+				if (recorder != null) {
+					recorder.release();
+				}
+				recorder = null;
+			}
+			AacEncoder encoder = null;
+			if (recorder != null && recorder.getState() == AudioRecord.STATE_INITIALIZED) {
+				encoder = createEncoder(recordFile);
+			}
+			if (encoder != null) {
+				recorder.startRecording();
+				recordedBytes = 0;
+				recordedWaveform = null;
+				state.start();
+				final AudioRecord audioRecord = recorder;
+				final File file = recordFile;
+				final AacEncoder aacEncoder = encoder;
+				recordingThread = new Thread(() -> captureAudio(audioRecord, aacEncoder, file), "AudioRecorder Thread");
+
+				recordingThread.start();
+				progressTicker.start();
+				if (recorderCallback != null) {
+					recorderCallback.onStartRecord(recordFile);
+				}
+			} else {
+				Timber.e("prepare() failed");
+				if (recorder != null) {
+					recorder.release();
+					recorder = null;
+				}
+				if (recorderCallback != null) {
+					recorderCallback.onError(new RecorderInitException());
+				}
+			}
+		} else {
+			if (recorderCallback != null) {
+				recorderCallback.onError(new InvalidOutputFile());
+			}
+		}
+	}
+
+	private SpaceGovernor createSpaceGovernor(File file) {
+		SpaceGovernor governor = new SpaceGovernor(file, bitrate / 8, AppConstants.MIN_REMAIN_RECORDING_TIME);
+		governor.setOnLowSpaceListener(remainingMills -> AndroidUtils.runOnUIThread(() -> {
+			if (recorderCallback != null) {
+				recorderCallback.onError(new NoSpaceAvailableException());
+			}
+			stopRecording();
+		}));
+		return governor;
+	}
+
+	private AacEncoder createEncoder(File file) {
+		int bytesPerSecond = sampleRate * channelCount * (RECORDER_BPP/8);
+		int bufferCount = (int) Math.ceil((double) bytesPerSecond * ENCODER_BUFFER_MILLS / 1000 / bufferSize);
+		AacEncoder encoder = new AacEncoder(file, sampleRate, channelCount, bitrate, bufferSize, bufferCount, e ->
+				AndroidUtils.runOnUIThread(() -> {
+					if (recorderCallback != null) {
+						recorderCallback.onError(new RecordingException());
+					}
+					stopRecording();
+				}));
+		try {
+			encoder.start();
+			return encoder;
+		} catch (IOException e) {
+			Timber.e(e);
+			return null;
+		}
+	}
+
+	@Override
+	public void resumeRecording() {
+		if (recorder != null && recorder.getState() == AudioRecord.STATE_INITIALIZED) {
+			if (state.isPaused()) {
+				progressTicker.start();
+				recorder.startRecording();
+				//Wake up capture thread after recorder is started.
+				state.resume();
+				if (recorderCallback != null) {
+					recorderCallback.onResumeRecord();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void pauseRecording() {
+		if (state.pause()) {
+			//Pending read returns and capture thread blocks until resume or stop.
+			recorder.stop();
+			progressTicker.stop();
+
+			if (recorderCallback != null) {
+				recorderCallback.onPauseRecord();
+			}
+		}
+	}
+
+	@Override
+	public void stopRecording() {
+		if (recorder != null && state.stop()) {
+			progressTicker.stop();
+			if (recorder.getState() == AudioRecord.STATE_INITIALIZED) {
+				try {
+					recorder.stop();
+				} catch (IllegalStateException e) {
+					Timber.e(e, "stopRecording() problems");
+				}
+			}
+			//Capture thread releases the recorder and reports stop when the file is finished.
+			recorder = null;
+		}
+	}
+
+	@Override
+	public boolean isRecording() {
+		return state.isRecording();
+	}
+
+	@Override
+	public boolean isPaused() {
+		return state.isPaused();
+	}
+
+	@Override
+	public WaveformPyramid getRecordedWaveform() {
+		return recordedWaveform;
+	}
+
+	/**
+	 * Capture loop. Reads PCM into pooled direct buffers, reduces it into waveform
+	 * and passes it to {@link AacEncoder}.
+	 */
+	private void captureAudio(AudioRecord audioRecord, AacEncoder encoder, File recordFile) {
+		//Muxer owns the file, so space is only watched, not reserved.
+		SpaceGovernor governor = createSpaceGovernor(recordFile);
+		WaveformEngine waveformEngine = new WaveformEngine(channelCount,
+				WaveformPyramid.calculateBaseFramesPerPoint(sampleRate, 0));
+		//Duration is not known while recording, builder merges points when recording gets long.
+		WaveformPyramid.Builder waveformBuilder = new WaveformPyramid.Builder();
+		waveformEngine.setOnPointListener(waveformBuilder);
+		AmplitudeChannel channel = amplitudeChannel;
+		long publishInterval = progressTicker.getInterval();
+		long nextPublishMills = publishInterval;
+		//Blocks while paused.
+		while (state.awaitCapture()) {
+			ByteBuffer buffer = encoder.obtainBuffer();
+			int read = audioRecord.read(buffer, encoder.getBufferSize());
+			int level = 0;
+			if (read > 0) {
+				level = AmplitudeUtils.calculateLevel(buffer, read);
+				//Waveform matches the file, PCM dropped on encoder overrun is not in it.
+				if (encoder.willEncode(buffer)) {
+					ShortBuffer samples = buffer.asShortBuffer();
+					samples.limit(read / 2);
+					waveformEngine.process(samples);
+				}
+			}
+			encoder.submit(buffer, read);
+			recordedBytes = encoder.getBytesSubmitted();
+			if (channel != null && read > 0) {
+				//One amplitude per progress interval of recording time, as progress ticks report them.
+				long mills = getDurationMills();
+				while (nextPublishMills <= mills) {
+					channel.publish(level, mills);
+					nextPublishMills += publishInterval;
+				}
+			}
+			governor.checkSpace();
+		}
+		boolean success = encoder.finish();
+		if (encoder.getOverrunCount() > 0) {
+			Timber.w("Recording dropped %d buffers (%d bytes) of %d",
+					encoder.getOverrunCount(), encoder.getDroppedBytes(), encoder.getBufferCount());
+		}
+		if (success) {
+			waveformEngine.flush();
+			recordedWaveform = waveformBuilder.build(getDurationMills());
+		}
+		finishRecording(audioRecord, recordFile);
+	}
+
+	/**
+	 * Called on capture thread when capture has ended and the file is complete.
+	 */
+	private void finishRecording(AudioRecord audioRecord, File recordFile) {
+		audioRecord.release();
+		AndroidUtils.runOnUIThread(() -> {
+			if (recorder == audioRecord) {
+				//Capture ended without stopRecording() call.
+				progressTicker.stop();
+				recorder = null;
+			}
+			state.finish();
+			if (recorderCallback != null) {
+				recorderCallback.onStopRecord(recordFile);
+			}
+		});
+	}
+
+	/**
+	 * Duration of captured PCM, it matches duration of the file and does not depend on clock.
+	 */
+	private long getDurationMills() {
+		long bytesPerFrame = (long) channelCount * (RECORDER_BPP/8);
+		return recordedBytes / bytesPerFrame * 1000 / sampleRate;
+	}
+
+	private void onProgressTick() {
+		if (recorderCallback != null && recorder != null) {
+			AmplitudeChannel channel = amplitudeChannel;
+			int amp = channel != null ? Math.max(0, channel.getLastAmp()) : 0;
+			recorderCallback.onRecordProgress(getDurationMills(), amp);
+		}
+	}
+
+	@Override
+	public void setProgressInterval(long mills) {
+		progressTicker.setInterval(mills);
+	}
+
+	@Override
+	public void setAmplitudeChannel(AmplitudeChannel channel) {
+		this.amplitudeChannel = channel;
+	}
+}
@@ -18,8 +18,9 @@ package com.dimowner.audiorecorder.audio.recorder;
 
 import android.media.MediaRecorder;
 import android.os.Build;
-import android.os.Handler;
 
+import com.dimowner.audiorecorder.AmplitudeChannel;
+import com.dimowner.audiorecorder.AppConstants;
 import com.dimowner.audiorecorder.exception.InvalidOutputFile;
 import com.dimowner.audiorecorder.exception.RecorderInitException;
 
@@ -29,20 +30,20 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import timber.log.Timber;
 
-import static com.dimowner.audiorecorder.AppConstants.RECORDING_VISUALIZATION_INTERVAL;
-
 public class AudioRecorder implements RecorderContract.Recorder {
 
 	private MediaRecorder recorder = null;
 	private File recordFile = null;
-	private long updateTime = 0;
-	private long durationMills = 0;
+	private final RecordingClock clock = new RecordingClock();
+	private final ProgressTicker progressTicker = new ProgressTicker(
+			AppConstants.RECORDING_PROGRESS_INTERVAL, this::onProgressTick);
 
 	private final AtomicBoolean isRecording = new AtomicBoolean(false);
 	private final AtomicBoolean isPaused = new AtomicBoolean(false);
-	private final Handler handler = new Handler();
 
 	private RecorderContract.RecorderCallback recorderCallback;
+	/** Amplitudes are measured and published on main thread by progress ticks. */
+	private AmplitudeChannel amplitudeChannel;
 
 	private static class RecorderSingletonHolder {
 		private static final AudioRecorder singleton = new AudioRecorder();
@@ -79,9 +80,9 @@ public class AudioRecorder implements RecorderContract.Recorder {
 			try {
 				recorder.prepare();
 				recorder.start();
-				updateTime = System.currentTimeMillis();
+				clock.start();
 				isRecording.set(true);
-				scheduleRecordingTimeUpdate();
+				progressTicker.start();
 				if (recorderCallback != null) {
 					recorderCallback.onStartRecord(recordFile);
 				}
@@ -104,8 +105,8 @@ public class AudioRecorder implements RecorderContract.Recorder {
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && isPaused.get()) {
 			try {
 				recorder.resume();
-				updateTime = System.currentTimeMillis();
-				scheduleRecordingTimeUpdate();
+				clock.resume();
+				progressTicker.start();
 				if (recorderCallback != null) {
 					recorderCallback.onResumeRecord();
 				}
@@ -126,8 +127,8 @@ public class AudioRecorder implements RecorderContract.Recorder {
 				if (!isPaused.get()) {
 					try {
 						recorder.pause();
-						durationMills += System.currentTimeMillis() - updateTime;
-						pauseRecordingTimer();
+						clock.pause();
+						progressTicker.stop();
 						if (recorderCallback != null) {
 							recorderCallback.onPauseRecord();
 						}
@@ -149,7 +150,7 @@ public class AudioRecorder implements RecorderContract.Recorder {
 	@Override
 	public void stopRecording() {
 		if (isRecording.get()) {
-			stopRecordingTimer();
+			progressTicker.stop();
 			try {
 				recorder.stop();
 			} catch (RuntimeException e) {
@@ -159,7 +160,7 @@ public class AudioRecorder implements RecorderContract.Recorder {
 			if (recorderCallback != null) {
 				recorderCallback.onStopRecord(recordFile);
 			}
-			durationMills = 0;
+			clock.reset();
 			recordFile = null;
 			isRecording.set(false);
 			isPaused.set(false);
@@ -169,30 +170,29 @@ public class AudioRecorder implements RecorderContract.Recorder {
 		}
 	}
 
-	private void scheduleRecordingTimeUpdate() {
-		handler.postDelayed(() -> {
-			if (recorderCallback != null && recorder != null) {
-				try {
-					long curTime = System.currentTimeMillis();
-					durationMills += curTime - updateTime;
-					updateTime = curTime;
-					recorderCallback.onRecordProgress(durationMills, recorder.getMaxAmplitude());
-				} catch (IllegalStateException e) {
-					Timber.e(e);
+	private void onProgressTick() {
+		if (recorderCallback != null && recorder != null) {
+			try {
+				long mills = clock.getDurationMills();
+				int amp = recorder.getMaxAmplitude();
+				if (amplitudeChannel != null) {
+					amplitudeChannel.publish(amp, mills);
 				}
-				scheduleRecordingTimeUpdate();
+				recorderCallback.onRecordProgress(mills, amp);
+			} catch (IllegalStateException e) {
+				Timber.e(e);
 			}
-		}, RECORDING_VISUALIZATION_INTERVAL);
+		}
 	}
 
-	private void stopRecordingTimer() {
-		handler.removeCallbacksAndMessages(null);
-		updateTime = 0;
+	@Override
+	public void setProgressInterval(long mills) {
+		progressTicker.setInterval(mills);
 	}
 
-	private void pauseRecordingTimer() {
-		handler.removeCallbacksAndMessages(null);
-		updateTime = 0;
+	@Override
+	public void setAmplitudeChannel(AmplitudeChannel channel) {
+		this.amplitudeChannel = channel;
 	}
 
 	@Override
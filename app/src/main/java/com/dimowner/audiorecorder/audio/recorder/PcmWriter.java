@@ -0,0 +1,304 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes captured PCM into a file on its own thread, so storage stalls do not block capture.
+ * Capture thread takes a buffer from a pool of direct buffers, fills it and submits it back,
+ * buffers pass between the threads through lock-free rings. When all buffers are waiting
+ * to be written capture gets a scratch buffer which is dropped and counted as overrun.
+ */
+public class PcmWriter {
+
+	/** Max time writer sleeps waiting for buffers, a submit wakes it earlier. */
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final FileChannel channel;
+	private final int bufferSize;
+	private final int bufferCount;
+	/** Buffers ready to be filled by capture, only writer thread returns buffers here. */
+	private final SpscRing<ByteBuffer> free;
+	/** Buffers filled by capture waiting to be written. */
+	private final SpscRing<ByteBuffer> filled;
+	private final ByteBuffer scratch;
+	private final OnErrorListener errorListener;
+
+	private SpaceGovernor spaceGovernor;
+	private OnFlushListener flushListener;
+	private long flushIntervalNanos = 0;
+	private long lastFlushTime;
+
+	private Thread thread;
+	private volatile boolean finishing = false;
+	private volatile boolean failed = false;
+
+	private volatile long position;
+	private volatile long bytesSubmitted = 0;
+	private volatile long bytesWritten = 0;
+	private volatile long overrunCount = 0;
+	private volatile long droppedBytes = 0;
+	private volatile int maxQueuedCount = 0;
+
+	/**
+	 * @param channel File to write, writer does not close it.
+	 * @param startPosition File position of the first PCM byte.
+	 * @param bufferSize Size of a pool buffer in bytes.
+	 * @param bufferCount Count of pool buffers, bounds how long storage may stall without losing data.
+	 * @param errorListener Called on writer thread when writing fails, next buffers are dropped.
+	 */
+	public PcmWriter(FileChannel channel, long startPosition, int bufferSize, int bufferCount,
+						  OnErrorListener errorListener) {
+		this.channel = channel;
+		this.position = startPosition;
+		this.bufferSize = bufferSize;
+		this.bufferCount = Math.max(2, bufferCount);
+		this.errorListener = errorListener;
+		this.free = new SpscRing<>(this.bufferCount);
+		this.filled = new SpscRing<>(this.bufferCount);
+		for (int i = 0; i < this.bufferCount; i++) {
+			free.offer(allocate(bufferSize));
+		}
+		this.scratch = allocate(bufferSize);
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Periodically call the listener and flush written data to storage, instead of doing it
+	 * for every buffer. Set before {@link #start()}.
+	 * @param intervalMills Flush interval, not positive value disables periodic flushes.
+	 */
+	public void setFlushListener(long intervalMills, OnFlushListener listener) {
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMills));
+		this.flushListener = listener;
+	}
+
+	/**
+	 * Check space before each write, buffers are dropped when governor reports low space.
+	 * Set before {@link #start()}.
+	 */
+	public void setSpaceGovernor(SpaceGovernor governor) {
+		this.spaceGovernor = governor;
+	}
+
+	public void start() {
+		lastFlushTime = System.nanoTime();
+		thread = new Thread(this::writeLoop, "PcmWriter Thread");
+		thread.start();
+	}
+
+	/**
+	 * Take a buffer to fill, called by capture thread.
+	 * @return Empty buffer of {@link #getBufferSize()} bytes.
+	 */
+	public ByteBuffer obtainBuffer() {
+		ByteBuffer buffer = free.poll();
+		return buffer != null ? buffer : scratch;
+	}
+
+	/**
+	 * Pass filled buffer to writer, called by capture thread.
+	 * @param buffer Buffer taken by {@link #obtainBuffer()}.
+	 * @param length Count of bytes filled from the beginning of the buffer, buffer is recycled if
+	 * the count is not positive. Empty buffers are recycled by writer thread as well, because
+	 * only writer may return buffers into the pool.
+	 * @return True if the data was queued for writing, false if it was dropped or empty.
+	 */
+	public boolean submit(ByteBuffer buffer, int length) {
+		if (buffer == scratch) {
+			if (length > 0) {
+				overrunCount++;
+				droppedBytes += length;
+			}
+			return false;
+		}
+		buffer.position(0);
+		if (length <= 0) {
+			buffer.limit(0);
+			filled.offer(buffer);
+			LockSupport.unpark(thread);
+			return false;
+		}
+		buffer.limit(length);
+		filled.offer(buffer);
+		bytesSubmitted += length;
+		int queued = filled.size();
+		if (queued > maxQueuedCount) {
+			maxQueuedCount = queued;
+		}
+		LockSupport.unpark(thread);
+		return true;
+	}
+
+	/**
+	 * Write all submitted buffers and stop writer thread, called by capture thread.
+	 * Waits for the writer even if the calling thread is interrupted, interrupted status is kept.
+	 */
+	public void finish() {
+		finishing = true;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			boolean interrupted = false;
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void writeLoop() {
+		while (true) {
+			ByteBuffer buffer = filled.poll();
+			if (buffer == null) {
+				if (finishing) {
+					if (filled.isEmpty()) {
+						break;
+					}
+				} else {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				continue;
+			}
+			if (!failed && buffer.hasRemaining()) {
+				try {
+					write(buffer);
+					maybeFlush();
+				} catch (IOException e) {
+					failed = true;
+					if (errorListener != null) {
+						errorListener.onError(e);
+					}
+				}
+			}
+			buffer.clear();
+			free.offer(buffer);
+		}
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		long pos = position;
+		int length = buffer.remaining();
+		if (spaceGovernor != null && !spaceGovernor.ensureSpace(pos + length)) {
+			//Recording is being stopped, do not write into the last free space.
+			return;
+		}
+		while (buffer.hasRemaining()) {
+			pos += channel.write(buffer, pos);
+		}
+		position = pos;
+		bytesWritten += length;
+	}
+
+	private void maybeFlush() throws IOException {
+		if (flushListener == null || flushIntervalNanos <= 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (now - lastFlushTime >= flushIntervalNanos) {
+			lastFlushTime = now;
+			flushListener.onFlush(channel, bytesWritten);
+			channel.force(false);
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getBufferCount() {
+		return bufferCount;
+	}
+
+	/**
+	 * Count of filled buffers waiting to be written.
+	 */
+	public int getQueuedCount() {
+		return filled.size();
+	}
+
+	/**
+	 * Max count of filled buffers which were waiting to be written at the same time.
+	 */
+	public int getMaxQueuedCount() {
+		return maxQueuedCount;
+	}
+
+	/**
+	 * Count of captured buffers dropped because all pool buffers were waiting to be written.
+	 */
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * Count of PCM bytes accepted for writing. The file has the same count of bytes when
+	 * all submitted buffers are written unless writing fails.
+	 */
+	public long getBytesSubmitted() {
+		return bytesSubmitted;
+	}
+
+	/**
+	 * Count of PCM bytes written into the file.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * File position after the last written byte.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public interface OnErrorListener {
+		void onError(IOException e);
+	}
+
+	public interface OnFlushListener {
+		/**
+		 * Called on writer thread before written data is flushed to storage.
+		 * @param bytesWritten Count of PCM bytes written so far.
+		 */
+		void onFlush(FileChannel channel, long bytesWritten) throws IOException;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Calls a listener on main thread at a fixed rate while recording to report progress.
+ * Recorders measure duration and amplitude on their own, the ticker only decides how often
+ * the latest values are reported, so UI update rate does not affect measured duration.
+ * Ticks which were missed because main thread was busy are coalesced into one.
+ */
+public class ProgressTicker {
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final OnTickListener listener;
+	private long intervalMills;
+	private long nextTickTime = 0;
+	private boolean running = false;
+
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			if (!running) {
+				return;
+			}
+			listener.onTick();
+			long now = SystemClock.uptimeMillis();
+			nextTickTime += intervalMills;
+			if (nextTickTime <= now) {
+				//Skip missed ticks instead of calling the listener several times in a row.
+				nextTickTime = now + intervalMills;
+			}
+			handler.postAtTime(this, nextTickTime);
+		}
+	};
+
+	/**
+	 * @param intervalMills Time between ticks.
+	 * @param listener Called on main thread.
+	 */
+	public ProgressTicker(long intervalMills, OnTickListener listener) {
+		this.intervalMills = Math.max(1, intervalMills);
+		this.listener = listener;
+	}
+
+	/**
+	 * Change tick interval, applied from the next tick.
+	 */
+	public void setInterval(long intervalMills) {
+		this.intervalMills = Math.max(1, intervalMills);
+	}
+
+	public long getInterval() {
+		return intervalMills;
+	}
+
+	/**
+	 * Start ticking, the first tick is called after one interval. Must be called on main thread.
+	 */
+	public void start() {
+		handler.removeCallbacks(tick);
+		running = true;
+		nextTickTime = SystemClock.uptimeMillis() + intervalMills;
+		handler.postAtTime(tick, nextTickTime);
+	}
+
+	/**
+	 * Stop ticking. Must be called on main thread.
+	 */
+	public void stop() {
+		running = false;
+		handler.removeCallbacks(tick);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public interface OnTickListener {
+		void onTick();
+	}
+}
@@ -16,6 +16,8 @@
 
 package com.dimowner.audiorecorder.audio.recorder;
 
+import com.dimowner.audiorecorder.AmplitudeChannel;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.exception.AppException;
 
 import java.io.File;
@@ -39,5 +41,23 @@ public interface RecorderContract {
 		void stopRecording();
 		boolean isRecording();
 		boolean isPaused();
+		/** Set how often {@link RecorderCallback#onRecordProgress(long, int)} is called. */
+		void setProgressInterval(long mills);
+		/**
+		 * Set channel the recorder publishes amplitudes to, once per progress interval of recording time.
+		 * Amplitudes are published by the thread which measures them, it is the only writer of the channel.
+		 */
+		void setAmplitudeChannel(AmplitudeChannel channel);
+	}
+
+	/**
+	 * Recorder which builds waveform from captured PCM, so its records need no decoding.
+	 */
+	interface WaveformRecorder extends Recorder {
+		/**
+		 * Waveform of the last finished recording, available in {@link RecorderCallback#onStopRecord(File)}.
+		 * @return Waveform or null if it was not built.
+		 */
+		WaveformPyramid getRecordedWaveform();
 	}
 }
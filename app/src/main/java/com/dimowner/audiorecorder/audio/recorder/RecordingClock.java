@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import android.os.SystemClock;
+
+/**
+ * Measures recording duration with monotonic {@link SystemClock#elapsedRealtimeNanos()},
+ * which does not jump when wall clock time is changed and keeps counting in deep sleep.
+ * Time between {@link #pause()} and {@link #resume()} is not counted.
+ */
+public class RecordingClock {
+
+	private long accumulatedNanos = 0;
+	private long startNanos = 0;
+	private boolean running = false;
+
+	public synchronized void start() {
+		accumulatedNanos = 0;
+		startNanos = SystemClock.elapsedRealtimeNanos();
+		running = true;
+	}
+
+	public synchronized void pause() {
+		if (running) {
+			accumulatedNanos += SystemClock.elapsedRealtimeNanos() - startNanos;
+			running = false;
+		}
+	}
+
+	public synchronized void resume() {
+		if (!running) {
+			startNanos = SystemClock.elapsedRealtimeNanos();
+			running = true;
+		}
+	}
+
+	public synchronized void reset() {
+		accumulatedNanos = 0;
+		running = false;
+	}
+
+	public synchronized long getDurationMills() {
+		long nanos = accumulatedNanos;
+		if (running) {
+			nanos += SystemClock.elapsedRealtimeNanos() - startNanos;
+		}
+		return nanos / 1000000;
+	}
+}
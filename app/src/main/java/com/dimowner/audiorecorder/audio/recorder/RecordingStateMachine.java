@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Start, pause, resume and stop transitions of a recorder with a capture thread.
+ * Capture thread calls {@link #awaitCapture()} before every read, the call blocks without
+ * using CPU while recording is paused and is woken up by resume or stop.
+ * Interrupting the capture thread is the same as stop: it ends capture.
+ * The class has no Android dependencies so it can be used and tested on plain JVM.
+ *
+ * <pre>
+ * IDLE --start--> RECORDING --pause--> PAUSED --resume--> RECORDING
+ * RECORDING, PAUSED --stop or interrupt--> STOPPING --finish--> IDLE
+ * </pre>
+ */
+public class RecordingStateMachine {
+
+	public static final int STATE_IDLE = 0;
+	public static final int STATE_RECORDING = 1;
+	public static final int STATE_PAUSED = 2;
+	/** Stop was requested, capture thread is finishing the file. */
+	public static final int STATE_STOPPING = 3;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private volatile int state = STATE_IDLE;
+
+	/**
+	 * @return False if the recorder is not idle.
+	 */
+	public boolean start() {
+		return transition(STATE_IDLE, STATE_RECORDING);
+	}
+
+	/**
+	 * @return False if the recorder is not recording.
+	 */
+	public boolean pause() {
+		return transition(STATE_RECORDING, STATE_PAUSED);
+	}
+
+	/**
+	 * @return False if the recorder is not paused.
+	 */
+	public boolean resume() {
+		return transition(STATE_PAUSED, STATE_RECORDING);
+	}
+
+	/**
+	 * Request capture to stop.
+	 * @return False if the recorder is neither recording nor paused.
+	 */
+	public boolean stop() {
+		lock.lock();
+		try {
+			if (state != STATE_RECORDING && state != STATE_PAUSED) {
+				return false;
+			}
+			state = STATE_STOPPING;
+			changed.signalAll();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called by capture thread when it has finished the file after stop, recorder can be started again.
+	 */
+	public void finish() {
+		lock.lock();
+		try {
+			state = STATE_IDLE;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called by capture thread before reading next data. Blocks while recording is paused.
+	 * When the thread is interrupted capture is stopped, interrupted status is cleared
+	 * so the thread can finish writing the file.
+	 * @return True to read next data, false when capture should end.
+	 */
+	public boolean awaitCapture() {
+		if (Thread.interrupted()) {
+			stop();
+			return false;
+		}
+		if (state == STATE_RECORDING) {
+			return true;
+		}
+		lock.lock();
+		try {
+			while (state == STATE_PAUSED) {
+				changed.await();
+			}
+			return state == STATE_RECORDING;
+		} catch (InterruptedException e) {
+			stop();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * @return True while recording or paused.
+	 */
+	public boolean isRecording() {
+		int s = state;
+		return s == STATE_RECORDING || s == STATE_PAUSED;
+	}
+
+	public boolean isPaused() {
+		return state == STATE_PAUSED;
+	}
+
+	private boolean transition(int from, int to) {
+		lock.lock();
+		try {
+			if (state != from) {
+				return false;
+			}
+			state = to;
+			changed.signalAll();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
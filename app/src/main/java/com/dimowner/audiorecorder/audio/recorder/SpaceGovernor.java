@@ -0,0 +1,213 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.util.FileUtil;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Watches free storage space while recording and stops recording before writing fails.
+ * Remaining recording time is projected from free space and the data rate of the recording format.
+ * When the recorder owns the output file, the governor also reserves space for it ahead of writes
+ * in large chunks, which reduces file system fragmentation and metadata updates and turns
+ * out of space into a reservation failure instead of a failed write.
+ * Reserved space beyond written data must be truncated when recording ends.
+ */
+public class SpaceGovernor {
+
+	/** How often free space is read from file system. */
+	private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+	/** Min time between reservations after one failed for lack of space, unless free space grows. */
+	private static final long RESERVE_RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final File file;
+	private final long bytesPerSecond;
+	private final long minRemainMills;
+
+	private FileDescriptor fd;
+	private long chunkSize;
+	/** File length reserved so far. */
+	private long reservedEnd = 0;
+	/** File length after the last write. */
+	private long writtenEnd = 0;
+	private boolean reserveFailed = false;
+	private long reserveFailTime = 0;
+	/** Free space read when reservation failed. */
+	private long reserveFailFreeSpace = 0;
+
+	private long freeSpace = -1;
+	private long lastCheckTime = 0;
+	private volatile long remainingMills = Long.MAX_VALUE;
+	private volatile boolean lowSpace = false;
+	private OnLowSpaceListener lowSpaceListener;
+
+	/**
+	 * @param file Output file of the recording.
+	 * @param bytesPerSecond Count of bytes the recording format writes per second.
+	 * @param minRemainMills Recording is stopped when less recording time remains.
+	 */
+	public SpaceGovernor(File file, long bytesPerSecond, long minRemainMills) {
+		this.file = file;
+		this.bytesPerSecond = Math.max(1, bytesPerSecond);
+		this.minRemainMills = minRemainMills;
+	}
+
+	/**
+	 * Data rate of recording format.
+	 * @return Bytes per second or 0 for unknown format.
+	 */
+	public static long calculateBytesPerSecond(String format, int sampleRate, int bitrate, int channelCount) {
+		switch (format) {
+			case AppConstants.FORMAT_WAV:
+				return (long) sampleRate * channelCount * 2;
+			case AppConstants.FORMAT_3GP:
+				return AppConstants.RECORD_ENCODING_BITRATE_12000 / 8;
+			case AppConstants.FORMAT_M4A:
+				return bitrate / 8;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Reserve file space ahead of writes.
+	 * @param fd Descriptor of the output file.
+	 * @param startLength Current length of the file.
+	 * @param chunkMills Recording time reserved at once.
+	 */
+	public void setPreallocation(FileDescriptor fd, long startLength, long chunkMills) {
+		this.fd = fd;
+		this.reservedEnd = startLength;
+		this.chunkSize = Math.max(1, bytesPerSecond * chunkMills / 1000);
+	}
+
+	/**
+	 * Called once, on the thread which detected low space.
+	 */
+	public void setOnLowSpaceListener(OnLowSpaceListener listener) {
+		this.lowSpaceListener = listener;
+	}
+
+	/**
+	 * Make sure there is space to write file up to the position and check free space.
+	 * Called by the thread which writes the file before each write.
+	 * @param endPosition File position after the next write.
+	 * @return False when recording should stop because there is not enough space.
+	 */
+	public boolean ensureSpace(long endPosition) {
+		if (lowSpace) {
+			return false;
+		}
+		writtenEnd = endPosition;
+		if (fd != null && endPosition + chunkSize / 2 > reservedEnd && canReserve()) {
+			long end = Math.max(endPosition, reservedEnd) + chunkSize;
+			try {
+				Os.posix_fallocate(fd, reservedEnd, end - reservedEnd);
+				reservedEnd = end;
+				reserveFailed = false;
+				//Reservation changed free space.
+				lastCheckTime = 0;
+			} catch (ErrnoException e) {
+				if (e.errno == OsConstants.ENOSPC) {
+					Timber.w("No space to reserve %d bytes for recording", end - reservedEnd);
+					if (endPosition > reservedEnd) {
+						onLowSpace(0);
+						return false;
+					}
+					//Written data still fits, next writes go past the reserved space without
+					//a reservation attempt on every write.
+					reserveFailed = true;
+					reserveFailTime = System.nanoTime();
+					freeSpace = FileUtil.getFree(file);
+					lastCheckTime = reserveFailTime;
+					reserveFailFreeSpace = freeSpace;
+				} else {
+					//File system does not support reservation, only watch free space.
+					Timber.w(e, "Space reservation is not supported");
+					fd = null;
+				}
+			}
+		}
+		return checkSpace();
+	}
+
+	/**
+	 * After a reservation failed for lack of space it is retried when {@link #checkSpace()} sees
+	 * more free space than there was at the failure, or when {@link #RESERVE_RETRY_NANOS} passed.
+	 */
+	private boolean canReserve() {
+		return !reserveFailed || freeSpace > reserveFailFreeSpace
+				|| System.nanoTime() - reserveFailTime >= RESERVE_RETRY_NANOS;
+	}
+
+	/**
+	 * Check free space, file system is queried once in {@link #CHECK_INTERVAL_NANOS}.
+	 * Called periodically by recorders which do not write the file on their own.
+	 * @return False when recording should stop because there is not enough space.
+	 */
+	public boolean checkSpace() {
+		if (lowSpace) {
+			return false;
+		}
+		long now = System.nanoTime();
+		if (freeSpace < 0 || now - lastCheckTime >= CHECK_INTERVAL_NANOS) {
+			lastCheckTime = now;
+			freeSpace = FileUtil.getFree(file);
+		}
+		long available = freeSpace + Math.max(0, reservedEnd - writtenEnd);
+		long remaining = available * 1000 / bytesPerSecond;
+		remainingMills = remaining;
+		if (remaining < minRemainMills) {
+			onLowSpace(remaining);
+			return false;
+		}
+		return true;
+	}
+
+	private void onLowSpace(long remaining) {
+		remainingMills = remaining;
+		lowSpace = true;
+		if (lowSpaceListener != null) {
+			lowSpaceListener.onLowSpace(remaining);
+		}
+	}
+
+	/**
+	 * Projected recording time left, in milliseconds.
+	 */
+	public long getRemainingMills() {
+		return remainingMills;
+	}
+
+	public boolean isLowSpace() {
+		return lowSpace;
+	}
+
+	public interface OnLowSpaceListener {
+		void onLowSpace(long remainingMills);
+	}
+}
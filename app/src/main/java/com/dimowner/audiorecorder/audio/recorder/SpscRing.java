@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ * Only {@link #offer(Object)} may be called by producer and only {@link #poll()} by consumer.
+ */
+public class SpscRing<T> {
+
+	private final Object[] items;
+	private final int mask;
+	/** Index of the next item to poll, written by consumer only. */
+	private final AtomicLong head = new AtomicLong();
+	/** Index of the next item to offer, written by producer only. */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * @param capacity Max count of items, rounded up to power of two.
+	 */
+	public SpscRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		items = new Object[Math.max(2, size)];
+		mask = items.length - 1;
+	}
+
+	/**
+	 * @return False if the ring is full.
+	 */
+	public boolean offer(T item) {
+		long t = tail.get();
+		if (t - head.get() == items.length) {
+			return false;
+		}
+		items[(int) t & mask] = item;
+		//Publish the item before the new tail becomes visible to consumer.
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * @return Next item or null if the ring is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return null;
+		}
+		int index = (int) h & mask;
+		T item = (T) items[index];
+		items[index] = null;
+		head.lazySet(h + 1);
+		return item;
+	}
+
+	/**
+	 * Count of items in the ring, exact only when called by producer or consumer.
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return items.length;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+/**
+ * Classifies captured buffers as voice or silence from their level and zero crossing count.
+ * A buffer is voice when its level is well above the noise floor, or when it is moderately
+ * above the floor and crosses zero often, as unvoiced speech does. The noise floor follows
+ * the level of silent buffers, so steady background noise is treated as silence.
+ * After the last voice buffer silence is kept for hangover time, so speech pauses and
+ * word endings are not cut. Capture starts as voice.
+ */
+public class VoiceActivityDetector {
+
+	/** Level ratio to noise floor of a voice buffer. */
+	private static final float VOICE_RATIO = 3.0f;
+	/** Level ratio to noise floor of a buffer which is voice if it crosses zero often. */
+	private static final float WEAK_VOICE_RATIO = 1.6f;
+	/** Zero crossings per frame above which a weak buffer is unvoiced speech. */
+	private static final float UNVOICED_CROSSING_RATE = 0.2f;
+	/** Level below which a buffer is always silence, in units of {@link com.dimowner.audiorecorder.util.AmplitudeUtils#calculateLevel}. */
+	private static final int MIN_VOICE_LEVEL = 200;
+	/** Floor changes slower when level rises, so speech does not raise it. */
+	private static final float FLOOR_RISE = 0.05f;
+	private static final float FLOOR_FALL = 0.5f;
+
+	private final long hangoverFrames;
+	private float noiseFloor = -1;
+	/** Frames left until silence is skipped. */
+	private long hangoverLeft;
+	private boolean voice = true;
+
+	/**
+	 * @param hangoverMills Time silence is kept after voice.
+	 */
+	public VoiceActivityDetector(int sampleRate, long hangoverMills) {
+		this.hangoverFrames = Math.max(0, hangoverMills) * sampleRate / 1000;
+		this.hangoverLeft = hangoverFrames;
+	}
+
+	/**
+	 * Classify next buffer, called for every captured buffer in order.
+	 * @param level Level of the buffer as calculated for visualisation.
+	 * @param zeroCrossings Count of zero crossings in the buffer.
+	 * @param frames Count of sample frames in the buffer.
+	 * @return True if the buffer should be kept: it is voice or falls into hangover after voice.
+	 */
+	public boolean process(int level, int zeroCrossings, int frames) {
+		if (frames <= 0) {
+			return voice;
+		}
+		if (noiseFloor < 0) {
+			noiseFloor = level;
+		}
+		float floor = Math.max(noiseFloor, 1);
+		boolean active = level >= MIN_VOICE_LEVEL && (level > floor * VOICE_RATIO
+				|| (level > floor * WEAK_VOICE_RATIO && zeroCrossings > frames * UNVOICED_CROSSING_RATE));
+		if (active) {
+			hangoverLeft = hangoverFrames;
+			voice = true;
+		} else {
+			noiseFloor += (level - noiseFloor) * (level > noiseFloor ? FLOOR_RISE : FLOOR_FALL);
+			if (hangoverLeft > 0) {
+				hangoverLeft -= frames;
+				voice = true;
+			} else {
+				voice = false;
+			}
+		}
+		return voice;
+	}
+
+	/**
+	 * @return Result of the last {@link #process(int, int, int)} call.
+	 */
+	public boolean isVoice() {
+		return voice;
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import com.dimowner.audiorecorder.AppConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import timber.log.Timber;
+
+/**
+ * RIFF WAVE header of 16 bit PCM files. Writes the 44 bytes header used by {@link WavRecorder}
+ * and repairs chunk sizes of WAV files which were not finished, for example when the app
+ * was killed while recording.
+ */
+public class WavHeader {
+
+	public static final int SIZE = 44;
+	private static final long MAX_CHUNK_SIZE = 0xFFFFFFFFL;
+	/**
+	 * Recording time which may be written after the last header update: one update interval
+	 * and buffers written while the header was updated.
+	 */
+	private static final long UNSYNCED_MILLS = 2 * AppConstants.WAV_HEADER_UPDATE_INTERVAL;
+
+	private final int sampleRate;
+	private final int channelCount;
+	private final int blockAlign;
+	private final long dataOffset;
+	private final long dataSize;
+
+	private WavHeader(int sampleRate, int channelCount, int blockAlign, long dataOffset, long dataSize) {
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		this.blockAlign = blockAlign;
+		this.dataOffset = dataOffset;
+		this.dataSize = dataSize;
+	}
+
+	/**
+	 * Write header at the beginning of the file with a positional write, channel position is not changed.
+	 * @param dataSize Size of PCM data which follows the header.
+	 */
+	public static void write(FileChannel channel, long dataSize, int sampleRate, int channelCount,
+									 int bitsPerSample) throws IOException {
+		ByteBuffer header = generate(dataSize, sampleRate, channelCount, bitsPerSample);
+		long position = 0;
+		while (header.hasRemaining()) {
+			position += channel.write(header, position);
+		}
+	}
+
+	public static ByteBuffer generate(long dataSize, int sampleRate, int channelCount, int bitsPerSample) {
+		int blockAlign = channelCount * (bitsPerSample / 8);
+		long size = Math.min(dataSize, MAX_CHUNK_SIZE - 36);
+		ByteBuffer header = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[]{'R', 'I', 'F', 'F'});
+		header.putInt((int) (size + 36));
+		header.put(new byte[]{'W', 'A', 'V', 'E'});
+		header.put(new byte[]{'f', 'm', 't', ' '});
+		header.putInt(16); //Size of 'fmt ' chunk for PCM
+		header.putShort((short) 1); //PCM format
+		header.putShort((short) channelCount);
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * blockAlign); //Byte rate
+		header.putShort((short) blockAlign);
+		header.putShort((short) bitsPerSample);
+		header.put(new byte[]{'d', 'a', 't', 'a'});
+		header.putInt((int) size);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Fix RIFF and data chunk sizes of the WAV file if they do not match file length.
+	 * Data chunk is expected to be the last chunk, files with other chunks after it are not changed.
+	 * Zero filled space reserved for recording after the data is truncated. Recorded audio may follow
+	 * the data size of the header by up to {@link #UNSYNCED_MILLS}, zeros there are kept as silence.
+	 * @return Repaired header or null if the file is not a PCM WAV file or does not need repair.
+	 */
+	public static WavHeader repair(File file) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			long fileLength = channel.size();
+			WavHeader header = read(channel, fileLength);
+			if (header == null) {
+				return null;
+			}
+			long available = fileLength - header.dataOffset;
+			long actual = header.blockAlign > 0 ? available - available % header.blockAlign : available;
+			actual = Math.min(actual, MAX_CHUNK_SIZE - header.dataOffset);
+			if (header.dataSize == actual) {
+				return null;
+			}
+			if (header.dataSize > 0 && header.dataSize < actual && hasChunkAt(channel, header.dataOffset + header.dataSize, fileLength)) {
+				//Some chunk follows data, sizes are valid.
+				return null;
+			}
+			if (header.dataSize < actual) {
+				//Space reserved ahead of writes is zero filled, it is not recorded audio. It starts after
+				//the audio written since the last header update, zeros before that are recorded silence.
+				long unsynced = (long) header.sampleRate * header.blockAlign * UNSYNCED_MILLS / 1000;
+				long keep = Math.min(actual, header.dataSize + unsynced);
+				long dataEnd = findDataEnd(channel, header.dataOffset + keep, header.dataOffset + actual);
+				long trimmed = dataEnd - header.dataOffset;
+				if (header.blockAlign > 0 && trimmed % header.blockAlign != 0) {
+					trimmed += header.blockAlign - trimmed % header.blockAlign;
+				}
+				if (trimmed < actual) {
+					actual = trimmed;
+					channel.truncate(header.dataOffset + actual);
+				}
+			}
+			ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			size.putInt(0, (int) (header.dataOffset + actual - 8));
+			writeFully(channel, size, 4);
+			size.clear();
+			size.putInt(0, (int) actual);
+			writeFully(channel, size, header.dataOffset - 4);
+			channel.force(false);
+			Timber.d("Repaired WAV header of %s, data size %d -> %d", file, header.dataSize, actual);
+			return new WavHeader(header.sampleRate, header.channelCount, header.blockAlign,
+					header.dataOffset, actual);
+		} catch (IOException e) {
+			Timber.e(e, "Failed to repair WAV header of %s", file);
+			return null;
+		}
+	}
+
+	/**
+	 * Read RIFF header and find 'fmt ' and 'data' chunks.
+	 * @return Header or null if the file is not a PCM WAV file.
+	 */
+	private static WavHeader read(FileChannel channel, long fileLength) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.limit(12);
+		if (!readFully(channel, buffer, 0) || !isId(buffer, 0, "RIFF") || !isId(buffer, 8, "WAVE")) {
+			return null;
+		}
+		int sampleRate = 0;
+		int channelCount = 0;
+		int blockAlign = 0;
+		long position = 12;
+		while (position + 8 <= fileLength) {
+			buffer.clear();
+			buffer.limit(8);
+			if (!readFully(channel, buffer, position)) {
+				return null;
+			}
+			long chunkSize = buffer.getInt(4) & MAX_CHUNK_SIZE;
+			if (isId(buffer, 0, "fmt ")) {
+				buffer.clear();
+				buffer.limit(16);
+				if (chunkSize < 16 || !readFully(channel, buffer, position + 8)) {
+					return null;
+				}
+				if (buffer.getShort(0) != 1) {
+					//Not PCM
+					return null;
+				}
+				channelCount = buffer.getShort(2);
+				sampleRate = buffer.getInt(4);
+				blockAlign = buffer.getShort(12);
+			} else if (isId(buffer, 0, "data")) {
+				if (sampleRate <= 0 || channelCount <= 0) {
+					return null;
+				}
+				return new WavHeader(sampleRate, channelCount, blockAlign, position + 8, chunkSize);
+			}
+			position += 8 + chunkSize + (chunkSize & 1);
+		}
+		return null;
+	}
+
+	private static boolean hasChunkAt(FileChannel channel, long position, long fileLength) throws IOException {
+		if (position + 8 > fileLength) {
+			return false;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		if (!readFully(channel, buffer, position)) {
+			return false;
+		}
+		for (int i = 0; i < 4; i++) {
+			byte b = buffer.get(i);
+			if (b < 0x20 || b > 0x7e) {
+				return false;
+			}
+		}
+		long size = buffer.getInt(4) & MAX_CHUNK_SIZE;
+		return position + 8 + size <= fileLength;
+	}
+
+	/**
+	 * Find the end of data in the range, trailing zero bytes are not counted.
+	 * @return Position after the last not zero byte or start of the range.
+	 */
+	private static long findDataEnd(FileChannel channel, long start, long end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long blockEnd = end;
+		while (blockEnd > start) {
+			long blockStart = Math.max(start, blockEnd - buffer.capacity());
+			buffer.clear();
+			buffer.limit((int) (blockEnd - blockStart));
+			if (!readFully(channel, buffer, blockStart)) {
+				return end;
+			}
+			for (int i = buffer.limit() - 1; i >= 0; i--) {
+				if (buffer.get(i) != 0) {
+					return blockStart + i + 1;
+				}
+			}
+			blockEnd = blockStart;
+		}
+		return start;
+	}
+
+	private static boolean isId(ByteBuffer buffer, int offset, String id) {
+		for (int i = 0; i < 4; i++) {
+			if (buffer.get(offset + i) != id.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	public long getDataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * Duration of PCM data in microseconds.
+	 */
+	public long getDurationUs() {
+		if (blockAlign <= 0 || sampleRate <= 0) {
+			return 0;
+		}
+		return dataSize / blockAlign * 1000000L / sampleRate;
+	}
+}
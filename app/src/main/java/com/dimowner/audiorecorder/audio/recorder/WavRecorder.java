@@ -19,51 +19,69 @@ package com.dimowner.audiorecorder.audio.recorder;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
-import android.os.Handler;
 
+import com.dimowner.audiorecorder.AmplitudeChannel;
 import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.audio.RecordTimeMap;
+import com.dimowner.audiorecorder.audio.WaveformEngine;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.exception.InvalidOutputFile;
+import com.dimowner.audiorecorder.exception.NoSpaceAvailableException;
 import com.dimowner.audiorecorder.exception.RecorderInitException;
 import com.dimowner.audiorecorder.exception.RecordingException;
+import com.dimowner.audiorecorder.util.AmplitudeUtils;
 import com.dimowner.audiorecorder.util.AndroidUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 
 import timber.log.Timber;
 
-import static com.dimowner.audiorecorder.AppConstants.RECORDING_VISUALIZATION_INTERVAL;
-
-public class WavRecorder implements RecorderContract.Recorder {
+/**
+ * Records 16 bit PCM WAV files. With silence skipping enabled silent spans are not written,
+ * a {@link RecordTimeMap} saved next to the file maps file time to recording time and
+ * waveform is built from all captured PCM, so both match wall-clock time of recording.
+ */
+public class WavRecorder implements RecorderContract.WaveformRecorder {
 
 	private AudioRecord recorder = null;
 
 	private static final int RECORDER_BPP = 16; //bits per sample
+	/** Duration of audio kept in writer buffers while storage is busy. */
+	private static final int WRITER_BUFFER_MILLS = 2000;
+	/** Duration of audio for which file space is reserved at once. */
+	private static final int PREALLOCATE_MILLS = 30000;
 
 	private File recordFile = null;
 	private int bufferSize = 0;
-	private long updateTime = 0;
-	private long durationMills = 0;
+	/**
+	 * PCM bytes of the current recording accepted by writer, recording duration is derived from it.
+	 * When silence is skipped it counts all captured bytes, skipped ones too.
+	 */
+	private volatile long recordedBytes = 0;
+	private boolean skipSilence = false;
+	private long silenceHangoverMills = AppConstants.SILENCE_HANGOVER_MILLS;
+	private volatile WaveformPyramid recordedWaveform;
 
 	private Thread recordingThread;
 
-	private final AtomicBoolean isRecording = new AtomicBoolean(false);
-	private final AtomicBoolean isPaused = new AtomicBoolean(false);
-	private final Handler handler = new Handler();
+	private final RecordingStateMachine state = new RecordingStateMachine();
+	private final ProgressTicker progressTicker = new ProgressTicker(
+			AppConstants.RECORDING_PROGRESS_INTERVAL, this::onProgressTick);
 
 	private int channelCount = 1;
 
-	/** Value for recording used visualisation. */
-	private int lastVal = 0;
+	/** Amplitudes for recording visualisation, capture thread is the only writer. */
+	private volatile AmplitudeChannel amplitudeChannel;
 
 	private int sampleRate = AppConstants.RECORD_SAMPLE_RATE_44100;
 
+	private long headerUpdateIntervalMills = AppConstants.WAV_HEADER_UPDATE_INTERVAL;
+
 	private RecorderContract.RecorderCallback recorderCallback;
 
 	private static class WavRecorderSingletonHolder {
@@ -80,6 +98,23 @@ public class WavRecorder implements RecorderContract.Recorder {
 
 	private WavRecorder() { }
 
+	/**
+	 * Set how often WAV header sizes are updated and written data is flushed to storage
+	 * while recording. Applied to the next recording.
+	 */
+	public void setHeaderUpdateInterval(long mills) {
+		headerUpdateIntervalMills = mills;
+	}
+
+	/**
+	 * Do not write silent spans of recording. Applied to the next recording.
+	 * @param hangoverMills Silence kept after voice.
+	 */
+	public void setSilenceSkipping(boolean enabled, long hangoverMills) {
+		skipSilence = enabled;
+		silenceHangoverMills = hangoverMills;
+	}
+
 	@Override
 	public void setRecorderCallback(RecorderContract.RecorderCallback callback) {
 		recorderCallback = callback;
@@ -87,6 +122,13 @@ public class WavRecorder implements RecorderContract.Recorder {
 
 	@Override
 	public void startRecording(String outputFile, int channelCount, int sampleRate, int bitrate) {
+		if (state.getState() != RecordingStateMachine.STATE_IDLE) {
+			Timber.e("Previous recording is not finished");
+			if (recorderCallback != null) {
+				recorderCallback.onError(new RecorderInitException());
+			}
+			return;
+		}
 		this.sampleRate = sampleRate;
 //		this.framesPerVisInterval = (int)((VISUALIZATION_INTERVAL/1000f)/(1f/sampleRate));
 		this.channelCount = channelCount;
@@ -117,16 +159,19 @@ public class WavRecorder implements RecorderContract.Recorder {
 			}
 			if (recorder != null && recorder.getState() == AudioRecord.STATE_INITIALIZED) {
 				recorder.startRecording();
-				updateTime = System.currentTimeMillis();
-				isRecording.set(true);
-				recordingThread = new Thread(this::writeAudioDataToFile, "AudioRecorder Thread");
+				recordedBytes = 0;
+				recordedWaveform = null;
+				state.start();
+				final AudioRecord audioRecord = recorder;
+				final File file = recordFile;
+				final boolean skip = skipSilence;
+				recordingThread = new Thread(() -> writeAudioDataToFile(audioRecord, file, skip), "AudioRecorder Thread");
 
 				recordingThread.start();
-				scheduleRecordingTimeUpdate();
+				progressTicker.start();
 				if (recorderCallback != null) {
 					recorderCallback.onStartRecord(recordFile);
 				}
-				isPaused.set(false);
 			} else {
 				Timber.e("prepare() failed");
 				if (recorderCallback != null) {
@@ -143,26 +188,25 @@ public class WavRecorder implements RecorderContract.Recorder {
 	@Override
 	public void resumeRecording() {
 		if (recorder != null && recorder.getState() == AudioRecord.STATE_INITIALIZED) {
-			if (isPaused.get()) {
-				updateTime = System.currentTimeMillis();
-				scheduleRecordingTimeUpdate();
+			if (state.isPaused()) {
+				progressTicker.start();
 				recorder.startRecording();
+				//Wake up capture thread after recorder is started.
+				state.resume();
 				if (recorderCallback != null) {
 					recorderCallback.onResumeRecord();
 				}
-				isPaused.set(false);
 			}
 		}
 	}
 
 	@Override
 	public void pauseRecording() {
-		if (isRecording.get()) {
+		if (state.pause()) {
+			//Pending read returns and capture thread blocks until resume or stop.
 			recorder.stop();
-			durationMills += System.currentTimeMillis() - updateTime;
-			pauseRecordingTimer();
+			progressTicker.stop();
 
-			isPaused.set(true);
 			if (recorderCallback != null) {
 				recorderCallback.onPauseRecord();
 			}
@@ -171,10 +215,8 @@ public class WavRecorder implements RecorderContract.Recorder {
 
 	@Override
 	public void stopRecording() {
-		if (recorder != null) {
-			isRecording.set(false);
-			isPaused.set(false);
-			stopRecordingTimer();
+		if (recorder != null && state.stop()) {
+			progressTicker.stop();
 			if (recorder.getState() == AudioRecord.STATE_INITIALIZED) {
 				try {
 					recorder.stop();
@@ -182,173 +224,194 @@ public class WavRecorder implements RecorderContract.Recorder {
 					Timber.e(e, "stopRecording() problems");
 				}
 			}
-			durationMills = 0;
-			recorder.release();
-			recordingThread.interrupt();
-			if (recorderCallback != null) {
-				recorderCallback.onStopRecord(recordFile);
-			}
+			//Capture thread releases the recorder and reports stop when the file is finished.
+			recorder = null;
 		}
 	}
 
 	@Override
 	public boolean isRecording() {
-		return isRecording.get();
+		return state.isRecording();
 	}
 
 	@Override
 	public boolean isPaused() {
-		return isPaused.get();
+		return state.isPaused();
+	}
+
+	@Override
+	public WaveformPyramid getRecordedWaveform() {
+		return recordedWaveform;
 	}
 
-	private void writeAudioDataToFile() {
-		byte[] data = new byte[bufferSize];
-		FileOutputStream fos;
+	/**
+	 * Capture loop. Reads PCM into pooled direct buffers and passes them to {@link PcmWriter},
+	 * so a slow storage does not delay reading from {@link AudioRecord}.
+	 * @param skipSilence Pass only buffers classified as voice by {@link VoiceActivityDetector}.
+	 */
+	private void writeAudioDataToFile(AudioRecord audioRecord, File recordFile, boolean skipSilence) {
+		RandomAccessFile file;
+		FileChannel channel;
 		try {
-			fos = new FileOutputStream(recordFile);
-		} catch (FileNotFoundException e) {
+			file = new RandomAccessFile(recordFile, "rw");
+			channel = file.getChannel();
+			channel.truncate(0);
+			//Placeholder header with zero sizes, sizes are set when recording stops.
+			WavHeader.write(channel, 0, sampleRate, channelCount, RECORDER_BPP);
+		} catch (IOException e) {
 			Timber.e(e);
-			fos = null;
+			state.stop();
+			finishRecording(audioRecord, recordFile);
+			return;
 		}
-		if (null != fos) {
-			int chunksCount = 0;
-			ByteBuffer shortBuffer = ByteBuffer.allocate(2);
-			shortBuffer.order(ByteOrder.LITTLE_ENDIAN);
-			//TODO: Disable loop while pause.
-			while (isRecording.get()) {
-				if (!isPaused.get()) {
-					chunksCount += recorder.read(data, 0, bufferSize);
-					if (AudioRecord.ERROR_INVALID_OPERATION != chunksCount) {
-						long sum = 0;
-						for (int i = 0; i < bufferSize; i+=2) {
-							//TODO: find a better way to covert bytes into shorts.
-							shortBuffer.put(data[i]);
-							shortBuffer.put(data[i+1]);
-							sum += Math.abs(shortBuffer.getShort(0));
-							shortBuffer.clear();
-						}
-						lastVal = (int)(sum/(bufferSize/16));
-						try {
-							fos.write(data);
-						} catch (IOException e) {
-							Timber.e(e);
-							AndroidUtils.runOnUIThread(() -> {
-								recorderCallback.onError(new RecordingException());
-								stopRecording();
-							});
-						}
-					}
+		int bytesPerSecond = sampleRate * channelCount * (RECORDER_BPP/8);
+		int bufferCount = (int) Math.ceil((double) bytesPerSecond * WRITER_BUFFER_MILLS / 1000 / bufferSize);
+		PcmWriter writer = new PcmWriter(channel, WavHeader.SIZE, bufferSize, bufferCount, e -> {
+			Timber.e(e);
+			AndroidUtils.runOnUIThread(() -> {
+				if (recorderCallback != null) {
+					recorderCallback.onError(new RecordingException());
 				}
+				stopRecording();
+			});
+		});
+		//Keep header sizes close to written data, so a crash loses at most one interval of audio.
+		writer.setFlushListener(headerUpdateIntervalMills, (ch, bytesWritten) ->
+				WavHeader.write(ch, bytesWritten, sampleRate, channelCount, RECORDER_BPP));
+		SpaceGovernor governor = new SpaceGovernor(recordFile, bytesPerSecond, AppConstants.MIN_REMAIN_RECORDING_TIME);
+		try {
+			governor.setPreallocation(file.getFD(), WavHeader.SIZE, PREALLOCATE_MILLS);
+		} catch (IOException e) {
+			Timber.e(e);
+		}
+		governor.setOnLowSpaceListener(remainingMills -> AndroidUtils.runOnUIThread(() -> {
+			if (recorderCallback != null) {
+				recorderCallback.onError(new NoSpaceAvailableException());
 			}
-
-			try {
-				fos.close();
-			} catch (IOException e) {
-				Timber.e(e);
+			stopRecording();
+		}));
+		writer.setSpaceGovernor(governor);
+		int bytesPerFrame = channelCount * (RECORDER_BPP/8);
+		VoiceActivityDetector detector = null;
+		RecordTimeMap timeMap = null;
+		WaveformEngine waveformEngine = null;
+		WaveformPyramid.Builder waveformBuilder = null;
+		if (skipSilence) {
+			detector = new VoiceActivityDetector(sampleRate, silenceHangoverMills);
+			timeMap = new RecordTimeMap(sampleRate);
+			//File does not have skipped audio, so waveform is built from captured PCM.
+			waveformEngine = new WaveformEngine(channelCount,
+					WaveformPyramid.calculateBaseFramesPerPoint(sampleRate, 0));
+			waveformBuilder = new WaveformPyramid.Builder();
+			waveformEngine.setOnPointListener(waveformBuilder);
+		}
+		long capturedBytes = 0;
+		AmplitudeChannel amplitudes = amplitudeChannel;
+		long publishInterval = progressTicker.getInterval();
+		long nextPublishMills = publishInterval;
+		writer.start();
+		//Blocks while paused.
+		while (state.awaitCapture()) {
+			ByteBuffer buffer = writer.obtainBuffer();
+			int read = audioRecord.read(buffer, bufferSize);
+			int level = 0;
+			if (read > 0) {
+				level = AmplitudeUtils.calculateLevel(buffer, read);
+			}
+			if (detector == null) {
+				writer.submit(buffer, read);
+				recordedBytes = writer.getBytesSubmitted();
+			} else if (read > 0) {
+				int frames = read / bytesPerFrame;
+				boolean voice = detector.process(level,
+						AmplitudeUtils.countZeroCrossings(buffer, read, channelCount), frames);
+				ShortBuffer samples = buffer.asShortBuffer();
+				samples.limit(read / 2);
+				waveformEngine.process(samples);
+				//Skipped buffer is recycled by submitting it empty.
+				boolean written = writer.submit(buffer, voice ? read : 0);
+				timeMap.append(frames, written);
+				capturedBytes += read;
+				recordedBytes = capturedBytes;
+			} else {
+				writer.submit(buffer, read);
+			}
+			if (amplitudes != null && read > 0) {
+				//One amplitude per progress interval of recording time, as progress ticks report them.
+				long mills = getDurationMills();
+				while (nextPublishMills <= mills) {
+					amplitudes.publish(level, mills);
+					nextPublishMills += publishInterval;
+				}
 			}
-			setWaveFileHeader(recordFile, channelCount);
 		}
-	}
-
-	private void setWaveFileHeader(File file, int channels) {
-		long fileSize = file.length() - 8;
-		long totalSize = fileSize + 36;
-		long byteRate = sampleRate * channels * (RECORDER_BPP/8); //2 byte per 1 sample for 1 channel.
-
+		writer.finish();
+		if (writer.getOverrunCount() > 0) {
+			Timber.w("Recording dropped %d buffers (%d bytes), max queued %d of %d",
+					writer.getOverrunCount(), writer.getDroppedBytes(),
+					writer.getMaxQueuedCount(), writer.getBufferCount());
+		}
 		try {
-			final RandomAccessFile wavFile = randomAccessFile(file);
-			wavFile.seek(0); // to the beginning
-			wavFile.write(generateHeader(fileSize, totalSize, sampleRate, channels, byteRate));
-			wavFile.close();
-		} catch (FileNotFoundException e) {
-			Timber.e(e);
+			//Drop space reserved beyond written data.
+			channel.truncate(writer.getPosition());
+			WavHeader.write(channel, writer.getBytesWritten(), sampleRate, channelCount, RECORDER_BPP);
+			channel.force(false);
+			file.close();
 		} catch (IOException e) {
 			Timber.e(e);
 		}
+		if (timeMap != null) {
+			Timber.d("Skipped silence: recorded %d ms, written %d ms in %d segments",
+					timeMap.getRecordingDurationUs() / 1000, timeMap.getFileDurationUs() / 1000,
+					timeMap.getSegmentCount());
+			timeMap.save(recordFile);
+			waveformEngine.flush();
+			recordedWaveform = waveformBuilder.build(getDurationMills());
+		}
+		finishRecording(audioRecord, recordFile);
 	}
 
-	private RandomAccessFile randomAccessFile(File file) {
-		RandomAccessFile randomAccessFile;
-		try {
-			randomAccessFile = new RandomAccessFile(file, "rw");
-		} catch (FileNotFoundException e) {
-			throw new RuntimeException(e);
-		}
-		return randomAccessFile;
+	/**
+	 * Called on capture thread when capture has ended and the file is complete.
+	 */
+	private void finishRecording(AudioRecord audioRecord, File recordFile) {
+		audioRecord.release();
+		AndroidUtils.runOnUIThread(() -> {
+			if (recorder == audioRecord) {
+				//Capture ended without stopRecording() call.
+				progressTicker.stop();
+				recorder = null;
+			}
+			state.finish();
+			if (recorderCallback != null) {
+				recorderCallback.onStopRecord(recordFile);
+			}
+		});
 	}
 
-	private byte[] generateHeader(
-			long totalAudioLen, long totalDataLen, long longSampleRate, int channels,
-			long byteRate) {
-
-		byte[] header = new byte[44];
-
-		header[0] = 'R'; // RIFF/WAVE header
-		header[1] = 'I';
-		header[2] = 'F';
-		header[3] = 'F';
-		header[4] = (byte) (totalDataLen & 0xff);
-		header[5] = (byte) ((totalDataLen >> 8) & 0xff);
-		header[6] = (byte) ((totalDataLen >> 16) & 0xff);
-		header[7] = (byte) ((totalDataLen >> 24) & 0xff);
-		header[8] = 'W';
-		header[9] = 'A';
-		header[10] = 'V';
-		header[11] = 'E';
-		header[12] = 'f'; // 'fmt ' chunk
-		header[13] = 'm';
-		header[14] = 't';
-		header[15] = ' ';
-		header[16] = 16; //16 for PCM. 4 bytes: size of 'fmt ' chunk
-		header[17] = 0;
-		header[18] = 0;
-		header[19] = 0;
-		header[20] = 1; // format = 1
-		header[21] = 0;
-		header[22] = (byte) channels;
-		header[23] = 0;
-		header[24] = (byte) (longSampleRate & 0xff);
-		header[25] = (byte) ((longSampleRate >> 8) & 0xff);
-		header[26] = (byte) ((longSampleRate >> 16) & 0xff);
-		header[27] = (byte) ((longSampleRate >> 24) & 0xff);
-		header[28] = (byte) (byteRate & 0xff);
-		header[29] = (byte) ((byteRate >> 8) & 0xff);
-		header[30] = (byte) ((byteRate >> 16) & 0xff);
-		header[31] = (byte) ((byteRate >> 24) & 0xff);
-		header[32] = (byte) (channels * (RECORDER_BPP/8)); // block align
-		header[33] = 0;
-		header[34] = RECORDER_BPP; // bits per sample
-		header[35] = 0;
-		header[36] = 'd';
-		header[37] = 'a';
-		header[38] = 't';
-		header[39] = 'a';
-		header[40] = (byte) (totalAudioLen & 0xff);
-		header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
-		header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
-		header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
-		return header;
+	/**
+	 * Duration of captured PCM, it matches duration of the file and does not depend on clock.
+	 */
+	private long getDurationMills() {
+		long bytesPerFrame = (long) channelCount * (RECORDER_BPP/8);
+		return recordedBytes / bytesPerFrame * 1000 / sampleRate;
 	}
 
-	private void scheduleRecordingTimeUpdate() {
-		handler.postDelayed(() -> {
-			if (recorderCallback != null && recorder != null) {
-				long curTime = System.currentTimeMillis();
-				durationMills += curTime - updateTime;
-				updateTime = curTime;
-				recorderCallback.onRecordProgress(durationMills, lastVal);
-				scheduleRecordingTimeUpdate();
-			}
-		}, RECORDING_VISUALIZATION_INTERVAL);
+	private void onProgressTick() {
+		if (recorderCallback != null && recorder != null) {
+			AmplitudeChannel channel = amplitudeChannel;
+			int amp = channel != null ? Math.max(0, channel.getLastAmp()) : 0;
+			recorderCallback.onRecordProgress(getDurationMills(), amp);
+		}
 	}
 
-	private void stopRecordingTimer() {
-		handler.removeCallbacksAndMessages(null);
-		updateTime = 0;
+	@Override
+	public void setProgressInterval(long mills) {
+		progressTicker.setInterval(mills);
 	}
 
-	private void pauseRecordingTimer() {
-		handler.removeCallbacksAndMessages(null);
-		updateTime = 0;
+	@Override
+	public void setAmplitudeChannel(AmplitudeChannel channel) {
+		this.amplitudeChannel = channel;
 	}
 }
@@ -25,6 +25,8 @@ import timber.log.Timber;
 
 import com.dimowner.audiorecorder.ARApplication;
 import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.audio.RecordTimeMap;
+import com.dimowner.audiorecorder.audio.recorder.SpaceGovernor;
 import com.dimowner.audiorecorder.exception.CantCreateFileException;
 import com.dimowner.audiorecorder.util.FileUtil;
 
@@ -155,6 +157,7 @@ public class FileRepositoryImpl implements FileRepository {
 	@Override
 	public boolean deleteRecordFile(String path) {
 		if (path != null) {
+			RecordTimeMap.deleteSidecar(new File(path));
 			return FileUtil.deleteFile(new File(path));
 		}
 		return false;
@@ -164,6 +167,7 @@ public class FileRepositoryImpl implements FileRepository {
 	public String markAsTrashRecord(String path) {
 		String trashLocation = FileUtil.addExtension(path, AppConstants.TRASH_MARK_EXTENSION);
 		if (FileUtil.renameFile(new File(path), new File(trashLocation))) {
+			RecordTimeMap.moveSidecar(new File(path), new File(trashLocation));
 			return trashLocation;
 		}
 		return null;
@@ -173,6 +177,7 @@ public class FileRepositoryImpl implements FileRepository {
 	public String unmarkTrashRecord(String path) {
 		String restoredFile = FileUtil.removeFileExtension(path);
 		if (FileUtil.renameFile(new File(path), new File(restoredFile))) {
+			RecordTimeMap.moveSidecar(new File(path), new File(restoredFile));
 			return restoredFile;
 		}
 		return null;
@@ -186,7 +191,12 @@ public class FileRepositoryImpl implements FileRepository {
 
 	@Override
 	public boolean renameFile(String path, String newName, String extension) {
-		return FileUtil.renameFile(new File(path), newName, extension);
+		File file = new File(path);
+		if (FileUtil.renameFile(file, newName, extension)) {
+			RecordTimeMap.moveSidecar(file, new File(file.getParentFile(), newName + AppConstants.EXTENSION_SEPARATOR + extension));
+			return true;
+		}
+		return false;
 	}
 
 	public void updateRecordingDir(Context context, Prefs prefs) {
@@ -231,15 +241,7 @@ public class FileRepositoryImpl implements FileRepository {
 	}
 
 	private long spaceToTimeSecs(long spaceBytes, String recordingFormat, int sampleRate, int bitrate, int channels) {
-		switch (recordingFormat) {
-			case AppConstants.FORMAT_3GP:
-				return 1000 * (spaceBytes/(AppConstants.RECORD_ENCODING_BITRATE_12000/8));
-			case AppConstants.FORMAT_M4A:
-				return 1000 * (spaceBytes/(bitrate/8));
-			case AppConstants.FORMAT_WAV:
-				return 1000 * (spaceBytes/(sampleRate * channels * 2));
-			default:
-				return 0;
-		}
+		long bytesPerSecond = SpaceGovernor.calculateBytesPerSecond(recordingFormat, sampleRate, bitrate, channels);
+		return bytesPerSecond > 0 ? 1000 * (spaceBytes/bytesPerSecond) : 0;
 	}
 }
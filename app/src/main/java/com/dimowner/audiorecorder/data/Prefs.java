@@ -45,6 +45,9 @@ public interface Prefs {
 	void setKeepScreenOn(boolean on);
 	boolean isKeepScreenOn();
 
+	void setSkipSilence(boolean skip);
+	boolean isSkipSilence();
+
 	void setRecordOrder(int order);
 	int getRecordsOrder();
 
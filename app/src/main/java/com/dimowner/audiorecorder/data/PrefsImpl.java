@@ -39,6 +39,7 @@ public class PrefsImpl implements Prefs {
 	private static final String PREF_KEY_RECORD_COUNTER = "record_counter";
 	private static final String PREF_KEY_THEME_COLORMAP_POSITION = "theme_color";
 	private static final String PREF_KEY_KEEP_SCREEN_ON = "keep_screen_on";
+	private static final String PREF_KEY_SKIP_SILENCE = "skip_silence";
 	private static final String PREF_KEY_FORMAT = "pref_format";
 	private static final String PREF_KEY_BITRATE = "pref_bitrate";
 	private static final String PREF_KEY_SAMPLE_RATE = "pref_sample_rate";
@@ -198,6 +199,18 @@ public class PrefsImpl implements Prefs {
 		return sharedPreferences.getBoolean(PREF_KEY_KEEP_SCREEN_ON, false);
 	}
 
+	@Override
+	public void setSkipSilence(boolean skip) {
+		SharedPreferences.Editor editor = sharedPreferences.edit();
+		editor.putBoolean(PREF_KEY_SKIP_SILENCE, skip);
+		editor.apply();
+	}
+
+	@Override
+	public boolean isSkipSilence() {
+		return sharedPreferences.getBoolean(PREF_KEY_SKIP_SILENCE, false);
+	}
+
 	public int getFormat() {
 		return sharedPreferences.getInt(PREF_KEY_FORMAT, AppConstants.RECORDING_FORMAT_M4A);
 	}
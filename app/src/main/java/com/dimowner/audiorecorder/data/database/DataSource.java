@@ -17,17 +17,24 @@
 package com.dimowner.audiorecorder.data.database;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.dimowner.audiorecorder.AppConstants;
-import com.dimowner.audiorecorder.BuildConfig;
 
 /**
  * Base class to communicate with some table T in database.
@@ -35,15 +42,33 @@ import com.dimowner.audiorecorder.BuildConfig;
  */
 public abstract class DataSource<T> {
 
+	/** Max count of bound arguments in one query, SQLite before 3.32 allows at most 999. */
+	private static final int MAX_QUERY_ARGS = 900;
+
+	/**
+	 * Batch transaction open on the current thread, shared by nested batches of all data sources.
+	 * Database transactions are bound to the thread which started them.
+	 */
+	private static final ThreadLocal<BatchScope> batchScope = new ThreadLocal<>();
+
 	/** SQLite database manager. */
 	protected SQLiteHelper dbHelper;
 
 	/** Class provides access to database. */
 	protected SQLiteDatabase db;
 
+	/** True while this data source holds the shared connection open. */
+	private boolean opened = false;
+
 	/** Source table name. */
 	protected String tableName;
 
+	/** Columns selected by queries of items. */
+	protected String columns;
+
+	/** Receives timings of queries. */
+	private volatile QueryTracer tracer = QueryTracer.NONE;
+
 	/** Tag for logging messages. */
 	private final String LOG_TAG = getClass().getSimpleName();
 
@@ -54,27 +79,55 @@ public abstract class DataSource<T> {
 	 * @param tableName Table name.
 	 */
 	public DataSource (Context context, String tableName) {
-		dbHelper = new SQLiteHelper(context);
+		this(context, tableName, "*");
+	}
+
+	/**
+	 * Constructor.
+	 * @param context Application context.
+	 * @param tableName Table name.
+	 * @param columns Columns selected by queries of items.
+	 */
+	public DataSource (Context context, String tableName, String columns) {
+		dbHelper = SQLiteHelper.getInstance(context);
 		this.tableName = tableName;
+		this.columns = columns;
 	}
 
 	/**
-	 * Open connection to SQLite database.
+	 * Open connection to SQLite database. Connection is shared by all data sources.
 	 */
-	public void open() {
-		db = dbHelper.getWritableDatabase();
+	public synchronized void open() {
+		if (opened) {
+			//Already counted, only get the current connection.
+			db = dbHelper.getWritableDatabase();
+		} else {
+			db = dbHelper.acquire();
+			opened = true;
+		}
 	}
 
 	/**
-	 * Close connection to SQLite database.
+	 * Close connection to SQLite database. Shared connection is closed only
+	 * when all data sources which opened it are closed.
 	 */
-	public void close() {
-		db.close();
-		dbHelper.close();
+	public synchronized void close() {
+		if (opened) {
+			opened = false;
+			dbHelper.release();
+		}
+	}
+
+	public synchronized boolean isOpen() {
+		return opened && db != null && db.isOpen();
 	}
 
-	public boolean isOpen() {
-		return db != null && db.isOpen();
+	/**
+	 * Set tracer of queries run by the data source.
+	 * @param tracer Tracer or null to stop tracing.
+	 */
+	public void setQueryTracer(QueryTracer tracer) {
+		this.tracer = tracer != null ? tracer : QueryTracer.NONE;
 	}
 
 	/**
@@ -86,6 +139,9 @@ public abstract class DataSource<T> {
 		if (values != null) {
 			int insertId = (int) db.insert(tableName, null, values);
 			Log.d(LOG_TAG, "Insert into " + tableName + " id = " + insertId);
+			if (insertId >= 0) {
+				afterCommit(() -> onItemSaved(insertId, item, true));
+			}
 			return getItem(insertId);
 		} else {
 			Log.e(LOG_TAG, "Unable to write empty item!");
@@ -100,13 +156,102 @@ public abstract class DataSource<T> {
 	 */
 	public abstract ContentValues itemToContentValues(T item);
 
+	/**
+	 * Called when item is inserted or updated to save item data that is kept outside of the table.
+	 * @param id Item id.
+	 * @param item Saved item.
+	 * @param inserted True if item was inserted as a new row.
+	 */
+	protected void onItemSaved(int id, T item, boolean inserted) {
+	}
+
+	/**
+	 * Called when item is deleted to remove item data that is kept outside of the table.
+	 * @param id Item id.
+	 */
+	protected void onItemDeleted(int id) {
+	}
+
+	/**
+	 * Called when all items are deleted.
+	 */
+	protected void onAllItemsDeleted() {
+	}
+
+	/**
+	 * Called before {@link #onItemSaved} and {@link #onItemDeleted} calls of a committed batch.
+	 */
+	protected void onBatchSaveStarted() {
+	}
+
+	/**
+	 * Called after {@link #onItemSaved} and {@link #onItemDeleted} calls of a committed batch.
+	 */
+	protected void onBatchSaveFinished() {
+	}
+
+	/**
+	 * Run writes of many items in a single transaction. Statements are compiled once per batch
+	 * and reused for every item. Batches of data sources can be nested, all data sources share
+	 * one database connection. Data kept outside of the table is saved when the outermost batch
+	 * is committed and is not saved at all when the transaction is rolled back.
+	 * @param writes Writes to run.
+	 */
+	public void runBatch(BatchWrites<T> writes) {
+		BatchScope scope = batchScope.get();
+		boolean outermost = scope == null;
+		if (outermost) {
+			scope = new BatchScope();
+			batchScope.set(scope);
+		}
+		Batch batch = new Batch();
+		boolean successful = false;
+		try {
+			db.beginTransaction();
+			try {
+				writes.run(batch);
+				db.setTransactionSuccessful();
+				successful = true;
+			} finally {
+				batch.close();
+				//Failed nested transaction rolls back the outermost one.
+				scope.failed |= !successful;
+				db.endTransaction();
+			}
+		} finally {
+			if (outermost) {
+				batchScope.remove();
+			}
+		}
+		if (outermost && !scope.failed) {
+			scope.runPending();
+		}
+	}
+
+	/**
+	 * Run item data changes kept outside of the table. Inside of a batch they run
+	 * after the outermost batch is committed, otherwise right away.
+	 */
+	private void afterCommit(Runnable change) {
+		BatchScope scope = batchScope.get();
+		if (scope == null) {
+			change.run();
+		} else {
+			scope.add(this, change);
+		}
+	}
+
 	/**
 	 * Delete item from database for table T.
 	 * @param id Item id of element that will be deleted from table T.
 	 */
 	public int deleteItem(int id) {
 		Log.d(LOG_TAG, tableName + " deleted ID = " + id);
-		return db.delete(tableName, SQLiteHelper.COLUMN_ID + " = " + id, null);
+		int n = db.delete(tableName, SQLiteHelper.COLUMN_ID + " = " + id, null);
+		if (n > 0) {
+			afterCommit(() -> onItemDeleted(id));
+		}
+		return n;
 	}
 
 	/**
@@ -120,6 +265,10 @@ public abstract class DataSource<T> {
 					+ values.get(SQLiteHelper.COLUMN_ID);
 			int n = db.update(tableName, values, where, null);
 			Log.d(LOG_TAG, "Updated records count = " + n);
+			if (n > 0) {
+				final int id = values.getAsInteger(SQLiteHelper.COLUMN_ID);
+				afterCommit(() -> onItemSaved(id, item, false));
+			}
 			return n;
 		} else {
 			Log.e(LOG_TAG, "Unable to update empty item!");
@@ -132,7 +281,7 @@ public abstract class DataSource<T> {
 	 * @return List that contains all records of table T.
 	 */
 	public ArrayList<T> getAll() {
-		Cursor cursor = queryLocal("SELECT * FROM " + tableName + " ORDER BY " + SQLiteHelper.COLUMN_DATE_ADDED + " DESC");
+		Cursor cursor = queryLocal("SELECT " + columns + " FROM " + tableName + " ORDER BY " + SQLiteHelper.COLUMN_DATE_ADDED + " DESC");
 		return convertCursor(cursor);
 	}
 
@@ -145,12 +294,47 @@ public abstract class DataSource<T> {
 		return convertCursorIds(cursor);
 	}
 
+	/**
+	 * Find which of the paths belong to records of table T, paths are looked up
+	 * in chunks with one query per chunk.
+	 * @return Set of found paths.
+	 */
+	public Set<String> findPaths(Collection<String> paths) {
+		Set<String> found = new HashSet<>();
+		List<String> chunk = new ArrayList<>(MAX_QUERY_ARGS);
+		for (String path : paths) {
+			chunk.add(path);
+			if (chunk.size() == MAX_QUERY_ARGS) {
+				findPaths(chunk, found);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			findPaths(chunk, found);
+		}
+		return found;
+	}
+
+	private void findPaths(List<String> paths, Set<String> found) {
+		StringBuilder query = new StringBuilder("SELECT " + SQLiteHelper.COLUMN_PATH + " FROM " + tableName
+				+ " WHERE " + SQLiteHelper.COLUMN_PATH + " IN (");
+		for (int i = 0; i < paths.size(); i++) {
+			query.append(i == 0 ? "?" : ",?");
+		}
+		query.append(")");
+		Cursor cursor = queryLocal(query.toString(), paths.toArray(new String[0]));
+		while (cursor.moveToNext()) {
+			found.add(cursor.getString(0));
+		}
+		cursor.close();
+	}
+
 	/**
 	 * Get records from database for table T.
 	 * @return List that contains all records of table T.
 	 */
 	public ArrayList<T> getRecords(int page) {
-		Cursor cursor = queryLocal("SELECT * FROM " + tableName
+		Cursor cursor = queryLocal("SELECT " + columns + " FROM " + tableName
 				+ " ORDER BY " + SQLiteHelper.COLUMN_DATE_ADDED + " DESC"
 				+ " LIMIT " + AppConstants.DEFAULT_PER_PAGE
 				+ " OFFSET " + (page-1) * AppConstants.DEFAULT_PER_PAGE);
@@ -176,7 +360,7 @@ public abstract class DataSource<T> {
 	 * @return List that contains all records of table T.
 	 */
 	public ArrayList<T> getRecords(int page, String order) {
-		Cursor cursor = queryLocal("SELECT * FROM " + tableName
+		Cursor cursor = queryLocal("SELECT " + columns + " FROM " + tableName
 				+ " ORDER BY " + order
 				+ " LIMIT " + AppConstants.DEFAULT_PER_PAGE
 				+ " OFFSET " + (page-1) * AppConstants.DEFAULT_PER_PAGE);
@@ -189,6 +373,7 @@ public abstract class DataSource<T> {
 	 */
 	public void deleteAll() throws SQLException {
 		db.execSQL("DELETE FROM " + tableName);
+		afterCommit(this::onAllItemsDeleted);
 	}
 
 	/**
@@ -197,7 +382,7 @@ public abstract class DataSource<T> {
 	 * @return List of some records from table T.
 	 */
 	public ArrayList<T> getItems(String where) {
-		Cursor cursor = queryLocal("SELECT * FROM "
+		Cursor cursor = queryLocal("SELECT " + columns + " FROM "
 				+ tableName + " WHERE " + where);
 		return convertCursor(cursor);
 	}
@@ -208,7 +393,7 @@ public abstract class DataSource<T> {
 	 * @return Selected item from table.
 	 */
 	public T getItem(int id) {
-		Cursor cursor = queryLocal("SELECT * FROM " + tableName
+		Cursor cursor = queryLocal("SELECT " + columns + " FROM " + tableName
 				+ " WHERE " + SQLiteHelper.COLUMN_ID + " = " + id);
 		List<T> list = convertCursor(cursor);
 		if (list.size() > 0) {
@@ -263,49 +448,31 @@ public abstract class DataSource<T> {
 	public abstract T recordToItem(Cursor cursor);
 
 	/**
-	 * Query to local SQLite database with write to log query text and query result.
+	 * Query to local SQLite database.
 	 * @param query Query string.
 	 * @return Cursor that contains query result.
 	 */
 	protected Cursor queryLocal(String query) {
-		Log.d(LOG_TAG, "queryLocal: " + query);
-		Cursor c = db.rawQuery(query, null);
-		if (BuildConfig.DEBUG) {
-			StringBuilder data = new StringBuilder("Cursor[");
-			if (c.moveToFirst()) {
-				do {
-					int columnCount = c.getColumnCount();
-					data.append("row[");
-					for (int i = 0; i < columnCount; ++i) {
-						data.append(c.getColumnName(i)).append(" = ");
-
-						switch (c.getType(i)) {
-							case Cursor.FIELD_TYPE_BLOB:
-								data.append("byte array");
-								break;
-							case Cursor.FIELD_TYPE_FLOAT:
-								data.append(c.getFloat(i));
-								break;
-							case Cursor.FIELD_TYPE_INTEGER:
-								data.append(c.getInt(i));
-								break;
-							case Cursor.FIELD_TYPE_NULL:
-								data.append("null");
-								break;
-							case Cursor.FIELD_TYPE_STRING:
-								data.append(c.getString(i));
-								break;
-						}
-						if (i != columnCount - 1) {
-							data.append(", ");
-						}
-					}
-					data.append("]\n");
-				} while (c.moveToNext());
-			}
-			data.append("]");
-			Log.d(LOG_TAG, data.toString());
+		return queryLocal(query, null);
+	}
+
+	/**
+	 * Query to local SQLite database. Sampled queries are executed right away and
+	 * reported to the query tracer with their result row count and time.
+	 * @param query Query string.
+	 * @param args Values bound to ? placeholders of the query.
+	 * @return Cursor that contains query result.
+	 */
+	protected Cursor queryLocal(String query, String[] args) {
+		QueryTracer queryTracer = tracer;
+		if (!queryTracer.shouldTrace()) {
+			return db.rawQuery(query, args);
 		}
+		long start = System.nanoTime();
+		Cursor c = db.rawQuery(query, args);
+		//Cursor is lazy, counting rows runs the query.
+		int rowCount = c.getCount();
+		queryTracer.onQuery(query, rowCount, System.nanoTime() - start);
 		return c;
 	}
 
@@ -324,4 +491,169 @@ public abstract class DataSource<T> {
 		}
 		return items;
 	}
+
+	public interface BatchWrites<T> {
+		void run(DataSource<T>.Batch batch);
+	}
+
+	/**
+	 * Writes of a batch, see {@link #runBatch(BatchWrites)}.
+	 */
+	public class Batch {
+
+		/** Compiled statements by SQL text. */
+		private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+		/**
+		 * Insert new item.
+		 * @return Inserted item id or -1 on error.
+		 */
+		public int insert(T item) {
+			ContentValues values = itemToContentValues(item);
+			if (values == null) {
+				Log.e(LOG_TAG, "Unable to write empty item!");
+				return -1;
+			}
+			TreeSet<String> keys = new TreeSet<>(values.keySet());
+			StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+			StringBuilder params = new StringBuilder();
+			for (String key : keys) {
+				if (params.length() > 0) {
+					sql.append(", ");
+					params.append(", ");
+				}
+				sql.append(key);
+				params.append('?');
+			}
+			sql.append(") VALUES (").append(params).append(")");
+			SQLiteStatement statement = statement(sql.toString());
+			int index = 1;
+			for (String key : keys) {
+				bind(statement, index++, values.get(key));
+			}
+			final int id = (int) statement.executeInsert();
+			if (id >= 0) {
+				afterCommit(() -> onItemSaved(id, item, true));
+			}
+			return id;
+		}
+
+		/**
+		 * Update item.
+		 * @return Updated rows count.
+		 */
+		public int update(T item) {
+			ContentValues values = itemToContentValues(item);
+			if (values == null || !values.containsKey(SQLiteHelper.COLUMN_ID)) {
+				Log.e(LOG_TAG, "Unable to update empty item!");
+				return 0;
+			}
+			TreeSet<String> keys = new TreeSet<>(values.keySet());
+			keys.remove(SQLiteHelper.COLUMN_ID);
+			StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+			boolean first = true;
+			for (String key : keys) {
+				if (!first) {
+					sql.append(", ");
+				}
+				sql.append(key).append(" = ?");
+				first = false;
+			}
+			sql.append(" WHERE ").append(SQLiteHelper.COLUMN_ID).append(" = ?");
+			SQLiteStatement statement = statement(sql.toString());
+			int index = 1;
+			for (String key : keys) {
+				bind(statement, index++, values.get(key));
+			}
+			final int id = values.getAsInteger(SQLiteHelper.COLUMN_ID);
+			statement.bindLong(index, id);
+			int n = statement.executeUpdateDelete();
+			if (n > 0) {
+				afterCommit(() -> onItemSaved(id, item, false));
+			}
+			return n;
+		}
+
+		/**
+		 * Delete item.
+		 * @return Deleted rows count.
+		 */
+		public int delete(final int id) {
+			SQLiteStatement statement = statement("DELETE FROM " + tableName
+					+ " WHERE " + SQLiteHelper.COLUMN_ID + " = ?");
+			statement.bindLong(1, id);
+			int n = statement.executeUpdateDelete();
+			if (n > 0) {
+				afterCommit(() -> onItemDeleted(id));
+			}
+			return n;
+		}
+
+		private SQLiteStatement statement(String sql) {
+			SQLiteStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = db.compileStatement(sql);
+				statements.put(sql, statement);
+			} else {
+				statement.clearBindings();
+			}
+			return statement;
+		}
+
+		private void bind(SQLiteStatement statement, int index, Object value) {
+			if (value == null) {
+				statement.bindNull(index);
+			} else if (value instanceof byte[]) {
+				statement.bindBlob(index, (byte[]) value);
+			} else if (value instanceof Float || value instanceof Double) {
+				statement.bindDouble(index, ((Number) value).doubleValue());
+			} else if (value instanceof Number) {
+				statement.bindLong(index, ((Number) value).longValue());
+			} else if (value instanceof Boolean) {
+				statement.bindLong(index, (Boolean) value ? 1 : 0);
+			} else {
+				statement.bindString(index, value.toString());
+			}
+		}
+
+		private void close() {
+			for (SQLiteStatement statement : statements.values()) {
+				statement.close();
+			}
+			statements.clear();
+		}
+	}
+
+	/**
+	 * State of nested batches of the current thread, see {@link #runBatch(BatchWrites)}.
+	 */
+	private static class BatchScope {
+
+		/** Changes of data kept outside of tables by data source in order of the first change. */
+		private final Map<DataSource<?>, List<Runnable>> pending = new LinkedHashMap<>();
+		private boolean failed = false;
+
+		private void add(DataSource<?> source, Runnable change) {
+			List<Runnable> changes = pending.get(source);
+			if (changes == null) {
+				changes = new ArrayList<>();
+				pending.put(source, changes);
+			}
+			changes.add(change);
+		}
+
+		private void runPending() {
+			for (Map.Entry<DataSource<?>, List<Runnable>> e : pending.entrySet()) {
+				DataSource<?> source = e.getKey();
+				source.onBatchSaveStarted();
+				try {
+					for (Runnable r : e.getValue()) {
+						r.run();
+					}
+				} finally {
+					source.onBatchSaveFinished();
+				}
+			}
+		}
+	}
 }
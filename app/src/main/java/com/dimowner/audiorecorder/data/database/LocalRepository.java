@@ -19,7 +19,9 @@ package com.dimowner.audiorecorder.data.database;
 import com.dimowner.audiorecorder.exception.FailedToRestoreRecord;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 public interface LocalRepository {
 
@@ -33,6 +35,12 @@ public interface LocalRepository {
 
 	List<Record> findRecordsByPath(String path);
 
+	/**
+	 * Find which of the paths belong to records, with one query per several hundreds of paths.
+	 * @return Set of paths which have records.
+	 */
+	Set<String> findRecordPaths(Collection<String> paths);
+
 	boolean hasRecordsWithPath(String path);
 
 	Record getTrashRecord(int id);
@@ -45,20 +53,50 @@ public interface LocalRepository {
 
 	List<Record> getRecords(int page, int order);
 
+	/**
+	 * Get page of records list.
+	 * @param after Last record of the previous page or null to get the first page.
+	 * @param order Sort order, one of AppConstants.SORT_* constants.
+	 */
+	List<RecordSummary> getRecordSummaries(RecordSummary after, int order);
+
 	boolean deleteAllRecords();
 
 	Record getLastRecord();
 
+	/**
+	 * Repair headers of WAV records which were not finished, for example because the app
+	 * was killed while recording, and update duration and size of repaired records.
+	 * @param guard Checks every file right before it is repaired, files being recorded are skipped.
+	 * @return Repaired records.
+	 */
+	List<Record> repairWavRecords(RecordingFileGuard guard);
+
 	Record insertRecord(Record record);
 
 	boolean updateRecord(Record record);
 
 	boolean updateTrashRecord(Record record);
 
+	/**
+	 * Update records in a single transaction.
+	 */
+	void updateRecords(List<Record> records);
+
+	/**
+	 * Update trash records in a single transaction.
+	 */
+	void updateTrashRecords(List<Record> records);
+
 	Record insertEmptyFile(String filePath) throws IOException;
 
 	void deleteRecord(int id);
 
+	/**
+	 * Move records into trash in a single transaction.
+	 */
+	void deleteRecords(List<Integer> ids);
+
 	void deleteRecordForever(int id);
 
 	List<Long> getRecordsDurations();
@@ -21,6 +21,7 @@ import android.database.SQLException;
 
 import com.dimowner.audiorecorder.ARApplication;
 import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.audio.recorder.WavHeader;
 import com.dimowner.audiorecorder.data.FileRepository;
 import com.dimowner.audiorecorder.data.Prefs;
 import com.dimowner.audiorecorder.exception.FailedToRestoreRecord;
@@ -29,8 +30,10 @@ import com.dimowner.audiorecorder.util.FileUtil;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -138,6 +141,14 @@ public class LocalRepositoryImpl implements LocalRepository {
 		return dataSource.getItems(COLUMN_PATH + " LIKE '%" + path + "%'");
 	}
 
+	@Override
+	public Set<String> findRecordPaths(Collection<String> paths) {
+		if (!dataSource.isOpen()) {
+			dataSource.open();
+		}
+		return dataSource.findPaths(paths);
+	}
+
 	@Override
 	public boolean hasRecordsWithPath(String path) {
 		if (!dataSource.isOpen()) {
@@ -183,6 +194,30 @@ public class LocalRepositoryImpl implements LocalRepository {
 		return (trashDataSource.updateItem(record) > 0);
 	}
 
+	@Override
+	public void updateRecords(final List<Record> records) {
+		if (!dataSource.isOpen()) {
+			dataSource.open();
+		}
+		dataSource.runBatch(batch -> {
+			for (int i = 0; i < records.size(); i++) {
+				batch.update(records.get(i));
+			}
+		});
+	}
+
+	@Override
+	public void updateTrashRecords(final List<Record> records) {
+		if (!trashDataSource.isOpen()) {
+			trashDataSource.open();
+		}
+		trashDataSource.runBatch(batch -> {
+			for (int i = 0; i < records.size(); i++) {
+				batch.update(records.get(i));
+			}
+		});
+	}
+
 	@Override
 	public Record insertEmptyFile(String path) throws IOException {
 		if (path != null && !path.isEmpty()) {
@@ -248,30 +283,83 @@ public class LocalRepositoryImpl implements LocalRepository {
 		if (!dataSource.isOpen()) {
 			dataSource.open();
 		}
-		String orderStr;
+		List<Record> list = dataSource.getRecords(page, orderToSql(order));
+		checkForLostRecords(list);
+		return list;
+	}
+
+	@Override
+	public List<RecordSummary> getRecordSummaries(RecordSummary after, int order) {
+		if (!dataSource.isOpen()) {
+			dataSource.open();
+		}
+		String where = null;
+		String[] args = null;
+		if (after != null) {
+			//Rows after the given one in (sort column, id) order, written so that index range scan is used.
+			String column = sortColumn(order);
+			String op = isAscending(order) ? ">" : "<";
+			String key = sortKey(after, order);
+			where = column + " " + op + "= ? AND (" + column + " " + op + " ? OR "
+					+ SQLiteHelper.COLUMN_ID + " " + op + " ?)";
+			args = new String[] {key, key, String.valueOf(after.getId())};
+		}
+		List<RecordSummary> list = dataSource.getSummaries(where, args, orderToSql(order));
+		checkForLostSummaries(list);
+		return list;
+	}
+
+	/**
+	 * Order by clause for the sort order. Record id makes the order stable for equal values,
+	 * every order is backed by an index on (sort column, id).
+	 */
+	private String orderToSql(int order) {
+		String direction = isAscending(order) ? " ASC" : " DESC";
+		return sortColumn(order) + direction + ", " + SQLiteHelper.COLUMN_ID + direction;
+	}
+
+	private String sortColumn(int order) {
 		switch (order) {
 			case AppConstants.SORT_NAME:
-				orderStr = SQLiteHelper.COLUMN_NAME + " ASC";
-				break;
 			case AppConstants.SORT_NAME_DESC:
-				orderStr = SQLiteHelper.COLUMN_NAME + " DESC";
-				break;
+				return SQLiteHelper.COLUMN_NAME;
 			case AppConstants.SORT_DURATION:
-				orderStr = SQLiteHelper.COLUMN_DURATION + " DESC";
-				break;
 			case AppConstants.SORT_DURATION_DESC:
-				orderStr = SQLiteHelper.COLUMN_DURATION + " ASC";
-				break;
+				return SQLiteHelper.COLUMN_DURATION;
 			case AppConstants.SORT_DATE_DESC:
-				orderStr = SQLiteHelper.COLUMN_DATE_ADDED + " ASC";
-				break;
 			case AppConstants.SORT_DATE:
 			default:
-				orderStr = SQLiteHelper.COLUMN_DATE_ADDED + " DESC";
+				return SQLiteHelper.COLUMN_DATE_ADDED;
+		}
+	}
+
+	private boolean isAscending(int order) {
+		switch (order) {
+			case AppConstants.SORT_NAME:
+			case AppConstants.SORT_DURATION_DESC:
+			case AppConstants.SORT_DATE_DESC:
+				return true;
+			case AppConstants.SORT_NAME_DESC:
+			case AppConstants.SORT_DURATION:
+			case AppConstants.SORT_DATE:
+			default:
+				return false;
+		}
+	}
+
+	private String sortKey(RecordSummary record, int order) {
+		switch (order) {
+			case AppConstants.SORT_NAME:
+			case AppConstants.SORT_NAME_DESC:
+				return record.getName();
+			case AppConstants.SORT_DURATION:
+			case AppConstants.SORT_DURATION_DESC:
+				return String.valueOf(record.getDuration());
+			case AppConstants.SORT_DATE_DESC:
+			case AppConstants.SORT_DATE:
+			default:
+				return String.valueOf(record.getAdded());
 		}
-		List<Record> list = dataSource.getRecords(page, orderStr);
-		checkForLostRecords(list);
-		return list;
 	}
 
 	@Override
@@ -279,7 +367,7 @@ public class LocalRepositoryImpl implements LocalRepository {
 		if (!dataSource.isOpen()) {
 			dataSource.open();
 		}
-		Cursor c = dataSource.queryLocal("SELECT * FROM " + SQLiteHelper.TABLE_RECORDS +
+		Cursor c = dataSource.queryLocal("SELECT " + SQLiteHelper.RECORDS_COLUMNS + " FROM " + SQLiteHelper.TABLE_RECORDS +
 				" ORDER BY " + SQLiteHelper.COLUMN_ID + " DESC LIMIT 1");
 		if (c != null && c.moveToFirst()) {
 			Record r = dataSource.recordToItem(c);
@@ -294,6 +382,57 @@ public class LocalRepositoryImpl implements LocalRepository {
 		}
 	}
 
+	@Override
+	public List<Record> repairWavRecords(RecordingFileGuard guard) {
+		if (!dataSource.isOpen()) {
+			dataSource.open();
+		}
+		Cursor c = dataSource.queryLocal("SELECT " + SQLiteHelper.RECORDS_COLUMNS + " FROM " + SQLiteHelper.TABLE_RECORDS
+				+ " WHERE " + SQLiteHelper.COLUMN_FORMAT + " = ?", new String[]{AppConstants.FORMAT_WAV});
+		List<Record> repaired = new ArrayList<>();
+		if (c == null) {
+			return repaired;
+		}
+		try {
+			while (c.moveToNext()) {
+				Record rec = dataSource.recordToItem(c);
+				final File file = new File(rec.getPath());
+				final WavHeader[] repairedHeader = new WavHeader[1];
+				//Recording may start or stop while records are repaired, check every file.
+				guard.runUnlessRecording(rec.getPath(), () -> {
+					if (file.exists()) {
+						repairedHeader[0] = WavHeader.repair(file);
+					}
+				});
+				WavHeader header = repairedHeader[0];
+				if (header != null) {
+					repaired.add(new Record(
+							rec.getId(),
+							rec.getName(),
+							header.getDurationUs(),
+							rec.getCreated(),
+							rec.getAdded(),
+							rec.getRemoved(),
+							rec.getPath(),
+							rec.getFormat(),
+							file.length(),
+							header.getSampleRate(),
+							header.getChannelCount(),
+							rec.getBitrate(),
+							rec.isBookmarked(),
+							false,
+							rec.getAmps()));
+				}
+			}
+		} finally {
+			c.close();
+		}
+		if (!repaired.isEmpty()) {
+			updateRecords(repaired);
+		}
+		return repaired;
+	}
+
 	private boolean isFileExists(String path) {
 		return new File(path).exists();
 	}
@@ -307,22 +446,45 @@ public class LocalRepositoryImpl implements LocalRepository {
 		}
 		Record recordToDelete = dataSource.getItem(id);
 		if (recordToDelete != null) {
-			String renamed = fileRepository.markAsTrashRecord(recordToDelete.getPath());
-			if (renamed != null) {
-				recordToDelete.setPath(renamed);
-				trashDataSource.insertItem(recordToDelete);
-			} else {
-				renamed = fileRepository.markAsTrashRecord(recordToDelete.getPath());
-				if (renamed != null) {
-					recordToDelete.setPath(renamed);
-					trashDataSource.insertItem(recordToDelete);
-				} else {
-					trashDataSource.insertItem(recordToDelete);
-//					fileRepository.deleteRecordFile(recordToDelete.getPath());
+			markAsTrashRecord(recordToDelete);
+			trashDataSource.insertItem(recordToDelete);
+		}
+		dataSource.deleteItem(id);
+	}
+
+	@Override
+	public void deleteRecords(final List<Integer> ids) {
+		if (!dataSource.isOpen()) {
+			dataSource.open();
+		}
+		if (!trashDataSource.isOpen()) {
+			trashDataSource.open();
+		}
+		dataSource.runBatch(records -> trashDataSource.runBatch(trash -> {
+			for (int i = 0; i < ids.size(); i++) {
+				int id = ids.get(i);
+				Record recordToDelete = dataSource.getItem(id);
+				if (recordToDelete != null) {
+					markAsTrashRecord(recordToDelete);
+					trash.insert(recordToDelete);
 				}
+				records.delete(id);
 			}
+		}));
+	}
+
+	/**
+	 * Rename record file into trash file, record keeps its path if file can't be renamed.
+	 */
+	private void markAsTrashRecord(Record record) {
+		String renamed = fileRepository.markAsTrashRecord(record.getPath());
+		if (renamed == null) {
+			//Try to rename again.
+			renamed = fileRepository.markAsTrashRecord(record.getPath());
+		}
+		if (renamed != null) {
+			record.setPath(renamed);
 		}
-		dataSource.deleteItem(id);
 	}
 
 	@Override
@@ -375,7 +537,7 @@ public class LocalRepositoryImpl implements LocalRepository {
 			dataSource.open();
 		}
 		List<Record> list = new ArrayList<>();
-		Cursor c = dataSource.queryLocal("SELECT * FROM " + SQLiteHelper.TABLE_RECORDS +
+		Cursor c = dataSource.queryLocal("SELECT " + SQLiteHelper.RECORDS_COLUMNS + " FROM " + SQLiteHelper.TABLE_RECORDS +
 				" WHERE " + SQLiteHelper.COLUMN_BOOKMARK + " = 1" +
 				" ORDER BY " + SQLiteHelper.COLUMN_CREATION_DATE  + " DESC");
 
@@ -483,14 +645,16 @@ public class LocalRepositoryImpl implements LocalRepository {
 		if (!trashDataSource.isOpen()) {
 			trashDataSource.open();
 		}
-		long curTime = new Date().getTime();
-		List<Record> list = trashDataSource.getAll();
-		for (int i = 0; i < list.size(); i++) {
-			if (list.get(i).getRemoved() + AppConstants.RECORD_IN_TRASH_MAX_DURATION < curTime) {
-				fileRepository.deleteRecordFile(list.get(i).getPath());
-				trashDataSource.deleteItem(list.get(i).getId());
+		final long curTime = new Date().getTime();
+		final List<Record> list = trashDataSource.getAll();
+		trashDataSource.runBatch(batch -> {
+			for (int i = 0; i < list.size(); i++) {
+				if (list.get(i).getRemoved() + AppConstants.RECORD_IN_TRASH_MAX_DURATION < curTime) {
+					fileRepository.deleteRecordFile(list.get(i).getPath());
+					batch.delete(list.get(i).getId());
+				}
 			}
-		}
+		});
 	}
 
 	@Override
@@ -520,6 +684,27 @@ public class LocalRepositoryImpl implements LocalRepository {
 		}
 	}
 
+	/**
+	 * Full records are read only for lost records, which are passed to the listener.
+	 */
+	private void checkForLostSummaries(List<RecordSummary> list) {
+		if (onLostRecordsListener == null) {
+			return;
+		}
+		List<Record> lost = new ArrayList<>();
+		for (int i = 0; i < list.size(); i++) {
+			if (!isFileExists(list.get(i).getPath())) {
+				Record r = dataSource.getItem(list.get(i).getId());
+				if (r != null) {
+					lost.add(r);
+				}
+			}
+		}
+		if (!lost.isEmpty()) {
+			onLostRecordsListener.onLostRecords(lost);
+		}
+	}
+
 	@Override
 	public void setOnRecordsLostListener(OnRecordsLostListener onLostRecordsListener) {
 		this.onLostRecordsListener = onLostRecordsListener;
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.data.database;
+
+/**
+ * Receives timings of queries run by {@link DataSource}.
+ */
+public interface QueryTracer {
+
+	/** Tracer that records nothing, queries are run without timing. */
+	QueryTracer NONE = new QueryTracer() {
+		@Override
+		public boolean shouldTrace() {
+			return false;
+		}
+
+		@Override
+		public void onQuery(String query, int rowCount, long elapsedNanos) {
+		}
+	};
+
+	/**
+	 * Called before every query.
+	 * @return True if the query should be timed and reported to {@link #onQuery}.
+	 */
+	boolean shouldTrace();
+
+	/**
+	 * Called after the traced query was executed.
+	 * @param query Query text.
+	 * @param rowCount Count of rows in query result.
+	 * @param elapsedNanos Time taken to execute the query and count result rows.
+	 */
+	void onQuery(String query, int rowCount, long elapsedNanos);
+}
@@ -17,6 +17,7 @@
 package com.dimowner.audiorecorder.data.database;
 
 import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 
 import java.util.Arrays;
 
@@ -42,7 +43,9 @@ public class Record {
 	private boolean bookmark;
 	private final boolean waveformProcessed;
 	private final int[] amps;
-	private final byte[] data;
+	private WaveformPyramid waveform;
+	/** Waveform was set or created from amps and has to be saved into {@link WaveformStore}. */
+	private boolean waveformChanged;
 	//TODO: Remove not needed data clusters.
 
 	public Record(int id, String name, long duration, long created, long added, long removed, String path,
@@ -63,8 +66,7 @@ public class Record {
 		this.bookmark = bookmark;
 		this.waveformProcessed = waveformProcessed;
 		this.amps = amps;
-		this.data = int2byte(amps);
-//		this.data = AndroidUtils.int2byte(amps);
+		this.waveformChanged = amps.length > 0;
 	}
 
 	public Record(int id, String name, long duration, long created, long added, long removed, String path,
@@ -85,11 +87,21 @@ public class Record {
 		this.bookmark = bookmark;
 		this.waveformProcessed = waveformProcessed;
 		this.amps = byte2int(amps);
-//		this.amps = AndroidUtils.byte2int(amps);
-		this.data = amps;
+		this.waveformChanged = amps.length > 0;
 	}
 
-	public byte[] int2byte(int[] amps) {
+	/**
+	 * Copy of the record with new name and path, the waveform is kept together with its saved state.
+	 */
+	public Record copyWithName(String name, String path) {
+		Record copy = new Record(id, name, duration, created, added, removed, path, format, size,
+				sampleRate, channelCount, bitrate, bookmark, waveformProcessed, amps);
+		copy.waveform = waveform;
+		copy.waveformChanged = waveformChanged;
+		return copy;
+	}
+
+	public static byte[] int2byte(int[] amps) {
 		byte[] bytes = new byte[amps.length];
 		for (int i = 0; i < amps.length; i++) {
 			if (amps[i] >= 255) {
@@ -103,7 +115,7 @@ public class Record {
 		return bytes;
 	}
 
-	public int[] byte2int(byte[] amps) {
+	public static int[] byte2int(byte[] amps) {
 		int[] ints = new int[amps.length];
 		for (int i = 0; i < amps.length; i++) {
 			ints[i] = amps[i]+128;
@@ -175,8 +187,35 @@ public class Record {
 		this.duration = duration;
 	}
 
-	public byte[] getData() {
-		return data;
+	/**
+	 * Multi level waveform of the record. Records created from amps get one built from {@link #getAmps()},
+	 * records read from database get a view of the waveform kept in {@link WaveformStore}.
+	 */
+	public WaveformPyramid getWaveform() {
+		if (waveform == null) {
+			waveform = WaveformPyramid.fromGains(amps, duration / 1000);
+		}
+		return waveform;
+	}
+
+	/**
+	 * Replace waveform of the record, it is saved with the next record update.
+	 */
+	public void setWaveform(WaveformPyramid waveform) {
+		this.waveform = waveform;
+		this.waveformChanged = true;
+	}
+
+	/**
+	 * Set waveform read from {@link WaveformStore}.
+	 */
+	void setStoredWaveform(WaveformPyramid waveform) {
+		this.waveform = waveform;
+		this.waveformChanged = false;
+	}
+
+	public boolean isWaveformChanged() {
+		return waveformChanged;
 	}
 
 	public boolean isBookmarked() {
@@ -240,7 +279,6 @@ public class Record {
 				", bookmark=" + bookmark +
 				", waveformProcessed=" + waveformProcessed +
 				", amps=" + Arrays.toString(amps) +
-				", data=" + Arrays.toString(data) +
 				'}';
 	}
 }
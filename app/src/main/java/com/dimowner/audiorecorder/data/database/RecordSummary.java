@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.data.database;
+
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Record fields shown in records list. Read with {@link SQLiteHelper#SUMMARY_COLUMNS} projection,
+ * waveform is a view of the waveform kept in {@link WaveformStore}.
+ */
+public class RecordSummary {
+
+	private final int id;
+	private final String name;
+	private final long duration;
+	private final long created;
+	private final long added;
+	private final String path;
+	private final String format;
+	private final long size;
+	private final int sampleRate;
+	private final int channelCount;
+	private final int bitrate;
+	private final boolean bookmark;
+	private final WaveformPyramid waveform;
+
+	public RecordSummary(int id, String name, long duration, long created, long added, String path,
+								String format, long size, int sampleRate, int channelCount, int bitrate,
+								boolean bookmark, WaveformPyramid waveform) {
+		this.id = id;
+		this.name = name;
+		this.duration = duration;
+		this.created = created;
+		this.added = added;
+		this.path = path;
+		this.format = format;
+		this.size = size;
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		this.bitrate = bitrate;
+		this.bookmark = bookmark;
+		this.waveform = waveform;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getAdded() {
+		return added;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	public int getBitrate() {
+		return bitrate;
+	}
+
+	public boolean isBookmarked() {
+		return bookmark;
+	}
+
+	public WaveformPyramid getWaveform() {
+		return waveform;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "RecordSummary{" +
+				"id=" + id +
+				", name='" + name + '\'' +
+				", duration=" + duration +
+				", added=" + added +
+				", path='" + path + '\'' +
+				", format='" + format + '\'' +
+				", size=" + size +
+				", bookmark=" + bookmark +
+				'}';
+	}
+}
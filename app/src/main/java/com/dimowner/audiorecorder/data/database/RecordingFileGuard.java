@@ -0,0 +1,29 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.data.database;
+
+/**
+ * Gives access to record files which are not being recorded.
+ */
+public interface RecordingFileGuard {
+
+	/**
+	 * Run the action unless the file is being recorded, recording does not start while the action runs.
+	 * @return False if the file is being recorded and the action was not run.
+	 */
+	boolean runUnlessRecording(String path, Runnable action);
+}
@@ -20,8 +20,12 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 
+import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
 import com.dimowner.audiorecorder.util.FileUtil;
 
+import java.util.ArrayList;
+
 import timber.log.Timber;
 
 /**
@@ -43,8 +47,11 @@ public class RecordsDataSource extends DataSource<Record> {
 		return instance;
 	}
 
+	private final WaveformStore waveformStore;
+
 	private RecordsDataSource(Context context) {
-		super(context, SQLiteHelper.TABLE_RECORDS);
+		super(context, SQLiteHelper.TABLE_RECORDS, SQLiteHelper.RECORDS_COLUMNS);
+		waveformStore = WaveformStore.getInstance(context, tableName);
 	}
 
 	@Override
@@ -66,7 +73,8 @@ public class RecordsDataSource extends DataSource<Record> {
 			values.put(SQLiteHelper.COLUMN_BITRATE, item.getBitrate());
 			values.put(SQLiteHelper.COLUMN_BOOKMARK, item.isBookmarked() ? 1 : 0);
 			values.put(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED, item.isWaveformProcessed() ? 1 : 0);
-			values.put(SQLiteHelper.COLUMN_DATA, item.getData());
+			//Waveform is saved into WaveformStore.
+			values.put(SQLiteHelper.COLUMN_DATA, new byte[0]);
 			//TODO: Remove this field from database.
 			values.put(SQLiteHelper.COLUMN_DATA_STR, "");
 			return values;
@@ -78,7 +86,7 @@ public class RecordsDataSource extends DataSource<Record> {
 
 	@Override
 	public Record recordToItem(Cursor cursor) {
-		return new Record(
+		Record record = new Record(
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_ID)),
 				cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_NAME)),
 				cursor.getLong(cursor.getColumnIndex(SQLiteHelper.COLUMN_DURATION)),
@@ -93,9 +101,85 @@ public class RecordsDataSource extends DataSource<Record> {
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_BITRATE)),
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_BOOKMARK)) != 0,
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED)) != 0,
-				cursor.getBlob(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA))
-//				Record.stringToArray(
-//						cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA_STR)))
+				new int[0]
 		);
+		waveformStore.loadWaveform(record);
+		return record;
+	}
+
+	/**
+	 * Get records page for records list. Only columns shown in the list are read.
+	 * Pages are selected by a condition on sort columns (keyset pagination) instead of offset,
+	 * so with an index on sort columns a deep page costs the same as the first one.
+	 * @param where Condition that selects records after the last loaded one, or null for the first page.
+	 * @param args Values bound to the condition.
+	 * @param order Order by clause.
+	 */
+	public ArrayList<RecordSummary> getSummaries(String where, String[] args, String order) {
+		Cursor cursor = queryLocal("SELECT " + SQLiteHelper.SUMMARY_COLUMNS + " FROM " + tableName
+				+ (where != null ? " WHERE " + where : "")
+				+ " ORDER BY " + order
+				+ " LIMIT " + AppConstants.DEFAULT_PER_PAGE, args);
+		ArrayList<RecordSummary> items = new ArrayList<>(cursor.getCount());
+		if (cursor.moveToFirst()) {
+			int idIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_ID);
+			int nameIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_NAME);
+			int durationIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_DURATION);
+			int createdIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_CREATION_DATE);
+			int addedIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_DATE_ADDED);
+			int pathIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_PATH);
+			int formatIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_FORMAT);
+			int sizeIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_SIZE);
+			int sampleRateIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_SAMPLE_RATE);
+			int channelCountIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_CHANNEL_COUNT);
+			int bitrateIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_BITRATE);
+			int bookmarkIndex = cursor.getColumnIndex(SQLiteHelper.COLUMN_BOOKMARK);
+			do {
+				int id = cursor.getInt(idIndex);
+				WaveformPyramid waveform = WaveformPyramid.fromBuffer(waveformStore.get(id));
+				items.add(new RecordSummary(
+						id,
+						cursor.getString(nameIndex),
+						cursor.getLong(durationIndex),
+						cursor.getLong(createdIndex),
+						cursor.getLong(addedIndex),
+						cursor.getString(pathIndex),
+						cursor.getString(formatIndex),
+						cursor.getLong(sizeIndex),
+						cursor.getInt(sampleRateIndex),
+						cursor.getInt(channelCountIndex),
+						cursor.getInt(bitrateIndex),
+						cursor.getInt(bookmarkIndex) != 0,
+						waveform != null ? waveform : WaveformPyramid.EMPTY
+				));
+			} while (cursor.moveToNext());
+		}
+		cursor.close();
+		return items;
+	}
+
+	@Override
+	protected void onItemSaved(int id, Record item, boolean inserted) {
+		waveformStore.saveWaveform(id, item, inserted);
+	}
+
+	@Override
+	protected void onItemDeleted(int id) {
+		waveformStore.remove(id);
+	}
+
+	@Override
+	protected void onAllItemsDeleted() {
+		waveformStore.clear();
+	}
+
+	@Override
+	protected void onBatchSaveStarted() {
+		waveformStore.beginBatch();
+	}
+
+	@Override
+	protected void onBatchSaveFinished() {
+		waveformStore.endBatch();
 	}
 }
@@ -17,24 +17,73 @@
 package com.dimowner.audiorecorder.data.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
+
+import java.io.IOException;
+
 /**
  * SQLite database manager class.
  * @author Dimowner
  */
 public class SQLiteHelper extends SQLiteOpenHelper {
 
-	SQLiteHelper(Context context) {
+	private volatile static SQLiteHelper instance;
+
+	private final Context context;
+	/** Count of data sources which opened the shared connection. */
+	private int openCount = 0;
+
+	/**
+	 * All data sources share one helper, so they share one database connection
+	 * and writes to several tables can be done in a single transaction.
+	 */
+	static SQLiteHelper getInstance(Context context) {
+		if (instance == null) {
+			synchronized (SQLiteHelper.class) {
+				if (instance == null) {
+					instance = new SQLiteHelper(context);
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Open the shared connection for a data source, see {@link #release()}.
+	 */
+	synchronized SQLiteDatabase acquire() {
+		SQLiteDatabase db = getWritableDatabase();
+		openCount++;
+		return db;
+	}
+
+	/**
+	 * Data source does not use the shared connection any more, it is closed
+	 * when the last data source which opened it releases it.
+	 */
+	synchronized void release() {
+		if (openCount > 0 && --openCount == 0) {
+			close();
+		}
+	}
+
+	private SQLiteHelper(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		this.context = context.getApplicationContext();
+		//Readers are not blocked by writes and a commit does not rewrite the database file.
+		setWriteAheadLoggingEnabled(true);
 	}
 
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(CREATE_RECORDS_TABLE_SCRIPT);
 		db.execSQL(CREATE_TRASH_TABLE_SCRIPT);
+		createRecordsIndexes(db);
 	}
 
 	@Override
@@ -48,7 +97,7 @@ public class SQLiteHelper extends SQLiteOpenHelper {
 			onCreate(db);
 		} else if (newVersion == 2) {
 			db.execSQL(CREATE_TRASH_TABLE_SCRIPT);
-		} else if (oldVersion == 1 && newVersion == 3) {
+		} else if (oldVersion == 1 && newVersion >= 3) {
 			db.beginTransaction();
 
 			db.execSQL(CREATE_TRASH_TABLE_SCRIPT);
@@ -62,7 +111,7 @@ public class SQLiteHelper extends SQLiteOpenHelper {
 
 			db.setTransactionSuccessful();
 			db.endTransaction();
-		} else if (oldVersion == 2 && newVersion == 3) {
+		} else if (oldVersion == 2 && newVersion >= 3) {
 			db.beginTransaction();
 
 			//Add new fields to the table Records.
@@ -82,16 +131,73 @@ public class SQLiteHelper extends SQLiteOpenHelper {
 			db.setTransactionSuccessful();
 			db.endTransaction();
 		}
+		if (oldVersion < 4 && newVersion >= 4) {
+			db.beginTransaction();
+			moveWaveformsToStore(db, TABLE_RECORDS);
+			moveWaveformsToStore(db, TABLE_TRASH);
+			db.setTransactionSuccessful();
+			db.endTransaction();
+		}
+		if (oldVersion < 5 && newVersion >= 5) {
+			createRecordsIndexes(db);
+		}
 	}
 
+	/**
+	 * Indexes for every records list sort order, id makes the order stable for equal values.
+	 */
+	private void createRecordsIndexes(SQLiteDatabase db) {
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_ADDED
+				+ " ON " + TABLE_RECORDS + " (" + COLUMN_DATE_ADDED + ", " + COLUMN_ID + ");");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_NAME
+				+ " ON " + TABLE_RECORDS + " (" + COLUMN_NAME + ", " + COLUMN_ID + ");");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_DURATION
+				+ " ON " + TABLE_RECORDS + " (" + COLUMN_DURATION + ", " + COLUMN_ID + ");");
+	}
 
-	private static final String DATABASE_NAME = "records.db";
-	private static final int DATABASE_VERSION = 3;
+	/**
+	 * Copy waveforms of the table into {@link WaveformStore} and clear them in the table.
+	 * Store is flushed before the table is updated, if migration is interrupted it is run again
+	 * and the entries written before are replaced. When the store is not available records
+	 * with a waveform are marked as not processed, so their waveforms are decoded again from audio files.
+	 */
+	private void moveWaveformsToStore(SQLiteDatabase db, String table) {
+		WaveformStore store = WaveformStore.getInstance(context, table);
+		Cursor c = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_DURATION + ", " + COLUMN_DATA
+				+ " FROM " + table, null);
+		try {
+			while (c.moveToNext()) {
+				byte[] data = c.getBlob(2);
+				if (data != null && data.length > 0) {
+					WaveformPyramid waveform = WaveformPyramid.fromGains(Record.byte2int(data), c.getLong(1) / 1000);
+					store.append(c.getInt(0), waveform.toBytes());
+				}
+			}
+			store.sync();
+		} catch (IOException e) {
+			Log.e(SQLiteHelper.class.getName(), "Failed to move waveforms of " + table, e);
+			db.execSQL("UPDATE " + table + " SET " + COLUMN_WAVEFORM_PROCESSED + " = 0, "
+					+ COLUMN_DATA + " = X'' WHERE length(" + COLUMN_DATA + ") > 0");
+			return;
+		} finally {
+			c.close();
+		}
+		db.execSQL("UPDATE " + table + " SET " + COLUMN_DATA + " = X''");
+	}
+
+
+	static final String DATABASE_NAME = "records.db";
+	private static final int DATABASE_VERSION = 5;
 
 	//Tables names
 	static final String TABLE_RECORDS = "records";
 	static final String TABLE_TRASH = "trash";
 
+	//Indexes names
+	private static final String INDEX_RECORDS_ADDED = "records_added_index";
+	private static final String INDEX_RECORDS_NAME = "records_name_index";
+	private static final String INDEX_RECORDS_DURATION = "records_duration_index";
+
 	//Fields for table Records
 	static final String COLUMN_ID = "_id";
 	static final String COLUMN_NAME = "name";
@@ -100,7 +206,10 @@ public class SQLiteHelper extends SQLiteOpenHelper {
 	static final String COLUMN_DATE_ADDED = "added";
 	static final String COLUMN_DATE_REMOVED = "removed";
 	static final String COLUMN_PATH = "path";
-	/** Simplified array of audio record amplitudes that represents waveform. */
+	/**
+	 * Simplified array of audio record amplitudes that represents waveform.
+	 * Not used since version 4, waveforms are kept in {@link WaveformStore}.
+	 */
 	static final String COLUMN_DATA = "data";
 	static final String COLUMN_DATA_STR = "data_str";
 	static final String COLUMN_WAVEFORM_PROCESSED = "waveform_processed";
@@ -111,6 +220,21 @@ public class SQLiteHelper extends SQLiteOpenHelper {
 	static final String COLUMN_CHANNEL_COUNT = "channel_count";
 	static final String COLUMN_BITRATE = "bitrate";
 
+	/** Columns of table Records read into records, waveform data is not read from the table. */
+	static final String RECORDS_COLUMNS = COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_DURATION + ", "
+			+ COLUMN_CREATION_DATE + ", " + COLUMN_DATE_ADDED + ", " + COLUMN_PATH + ", " + COLUMN_FORMAT + ", "
+			+ COLUMN_SIZE + ", " + COLUMN_SAMPLE_RATE + ", " + COLUMN_CHANNEL_COUNT + ", " + COLUMN_BITRATE + ", "
+			+ COLUMN_BOOKMARK + ", " + COLUMN_WAVEFORM_PROCESSED;
+
+	/** Columns of table Records shown in records list, see {@link RecordSummary}. */
+	static final String SUMMARY_COLUMNS = COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_DURATION + ", "
+			+ COLUMN_CREATION_DATE + ", " + COLUMN_DATE_ADDED + ", " + COLUMN_PATH + ", " + COLUMN_FORMAT + ", "
+			+ COLUMN_SIZE + ", " + COLUMN_SAMPLE_RATE + ", " + COLUMN_CHANNEL_COUNT + ", " + COLUMN_BITRATE + ", "
+			+ COLUMN_BOOKMARK;
+
+	/** Columns of table Trash read into records. */
+	static final String TRASH_COLUMNS = RECORDS_COLUMNS + ", " + COLUMN_DATE_REMOVED;
+
 	//Create records table sql statement
 	private static final String CREATE_RECORDS_TABLE_SCRIPT =
 			"CREATE TABLE " + TABLE_RECORDS + " ("
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.data.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Traces every N-th query into in-memory latency histograms, one histogram per query.
+ * Numbers in query text are replaced with '?' so queries of different ids share one histogram.
+ */
+public class SamplingQueryTracer implements QueryTracer {
+
+	/** Histogram bucket i counts queries that took [2^(i-1), 2^i) microseconds, the last one is open. */
+	public static final int BUCKET_COUNT = 20;
+	/** Limits memory taken by histograms, queries above the limit are counted as dropped. */
+	private static final int MAX_QUERIES = 256;
+
+	private final int sampleInterval;
+	private final AtomicLong counter = new AtomicLong();
+	private final Map<String, QueryStats> stats = new HashMap<>();
+	private long dropped = 0;
+
+	/**
+	 * @param sampleInterval Trace one of this count of queries, 1 to trace all queries.
+	 */
+	public SamplingQueryTracer(int sampleInterval) {
+		this.sampleInterval = Math.max(1, sampleInterval);
+	}
+
+	@Override
+	public boolean shouldTrace() {
+		return counter.getAndIncrement() % sampleInterval == 0;
+	}
+
+	@Override
+	public void onQuery(String query, int rowCount, long elapsedNanos) {
+		String key = normalize(query);
+		synchronized (stats) {
+			QueryStats s = stats.get(key);
+			if (s == null) {
+				if (stats.size() >= MAX_QUERIES) {
+					dropped++;
+					return;
+				}
+				s = new QueryStats(key);
+				stats.put(key, s);
+			}
+			s.add(rowCount, elapsedNanos);
+		}
+	}
+
+	/**
+	 * Snapshot of collected histograms.
+	 */
+	public List<QueryStats> getStats() {
+		synchronized (stats) {
+			List<QueryStats> list = new ArrayList<>(stats.size());
+			for (QueryStats s : stats.values()) {
+				list.add(s.copy());
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * Count of sampled queries that were not recorded because of histograms limit.
+	 */
+	public long getDroppedCount() {
+		synchronized (stats) {
+			return dropped;
+		}
+	}
+
+	public void reset() {
+		synchronized (stats) {
+			stats.clear();
+			dropped = 0;
+		}
+	}
+
+	static int bucketOf(long elapsedNanos) {
+		long micros = elapsedNanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Replace number literals of the query with '?'.
+	 */
+	static String normalize(String query) {
+		StringBuilder sb = null;
+		int len = query.length();
+		int i = 0;
+		while (i < len) {
+			char c = query.charAt(i);
+			boolean literal = Character.isDigit(c)
+					&& (i == 0 || !isIdentifierChar(query.charAt(i - 1)));
+			if (literal) {
+				if (sb == null) {
+					sb = new StringBuilder(len);
+					sb.append(query, 0, i);
+				}
+				while (i < len && (Character.isDigit(query.charAt(i)) || query.charAt(i) == '.')) {
+					i++;
+				}
+				sb.append('?');
+			} else {
+				if (sb != null) {
+					sb.append(c);
+				}
+				i++;
+			}
+		}
+		return sb != null ? sb.toString() : query;
+	}
+
+	private static boolean isIdentifierChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	/**
+	 * Latency histogram of a query.
+	 */
+	public static class QueryStats {
+
+		private final String query;
+		private final long[] buckets;
+		private long count;
+		private long rowCount;
+		private long totalNanos;
+		private long maxNanos;
+
+		QueryStats(String query) {
+			this.query = query;
+			this.buckets = new long[BUCKET_COUNT];
+		}
+
+		private QueryStats(QueryStats other) {
+			this.query = other.query;
+			this.buckets = other.buckets.clone();
+			this.count = other.count;
+			this.rowCount = other.rowCount;
+			this.totalNanos = other.totalNanos;
+			this.maxNanos = other.maxNanos;
+		}
+
+		void add(int rows, long elapsedNanos) {
+			buckets[bucketOf(elapsedNanos)]++;
+			count++;
+			rowCount += rows;
+			totalNanos += elapsedNanos;
+			maxNanos = Math.max(maxNanos, elapsedNanos);
+		}
+
+		QueryStats copy() {
+			return new QueryStats(this);
+		}
+
+		public String getQuery() {
+			return query;
+		}
+
+		/**
+		 * Histogram buckets, see {@link #BUCKET_COUNT}.
+		 */
+		public long[] getBuckets() {
+			return buckets.clone();
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getRowCount() {
+			return rowCount;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		public long getMeanNanos() {
+			return count > 0 ? totalNanos / count : 0;
+		}
+
+		/**
+		 * Upper bound of the bucket which holds the percentile.
+		 * @param percentile Value in range 0 - 100.
+		 * @return Latency in microseconds or -1 when the percentile falls into the open bucket.
+		 */
+		public long getPercentileMicros(double percentile) {
+			long target = (long) Math.ceil(count * percentile / 100);
+			long sum = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				sum += buckets[i];
+				if (sum >= target && sum > 0) {
+					return i < buckets.length - 1 ? 1L << i : -1;
+				}
+			}
+			return -1;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "count=%d rows=%d mean=%dus p50<%dus p99<%dus max=%dus %s",
+					count, rowCount, getMeanNanos() / 1000, getPercentileMicros(50),
+					getPercentileMicros(99), maxNanos / 1000, query);
+		}
+	}
+}
@@ -43,8 +43,11 @@ public class TrashDataSource extends DataSource<Record> {
 		return instance;
 	}
 
+	private final WaveformStore waveformStore;
+
 	private TrashDataSource(Context context) {
-		super(context, SQLiteHelper.TABLE_TRASH);
+		super(context, SQLiteHelper.TABLE_TRASH, SQLiteHelper.TRASH_COLUMNS);
+		waveformStore = WaveformStore.getInstance(context, tableName);
 	}
 
 	@Override
@@ -67,7 +70,8 @@ public class TrashDataSource extends DataSource<Record> {
 			values.put(SQLiteHelper.COLUMN_BITRATE, item.getBitrate());
 			values.put(SQLiteHelper.COLUMN_BOOKMARK, item.isBookmarked() ? 1 : 0);
 			values.put(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED, item.isWaveformProcessed() ? 1 : 0);
-			values.put(SQLiteHelper.COLUMN_DATA, item.getData());
+			//Waveform is saved into WaveformStore.
+			values.put(SQLiteHelper.COLUMN_DATA, new byte[0]);
 			//TODO: Remove this field from database.
 			values.put(SQLiteHelper.COLUMN_DATA_STR, "");
 			return values;
@@ -79,7 +83,7 @@ public class TrashDataSource extends DataSource<Record> {
 
 	@Override
 	public Record recordToItem(Cursor cursor) {
-		return new Record(
+		Record record = new Record(
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_ID)),
 				cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_NAME)),
 				cursor.getLong(cursor.getColumnIndex(SQLiteHelper.COLUMN_DURATION)),
@@ -94,9 +98,34 @@ public class TrashDataSource extends DataSource<Record> {
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_BITRATE)),
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_BOOKMARK)) != 0,
 				cursor.getInt(cursor.getColumnIndex(SQLiteHelper.COLUMN_WAVEFORM_PROCESSED)) != 0,
-				cursor.getBlob(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA))
-//				Record.stringToArray(
-//						cursor.getString(cursor.getColumnIndex(SQLiteHelper.COLUMN_DATA_STR)))
+				new int[0]
 		);
+		waveformStore.loadWaveform(record);
+		return record;
+	}
+
+	@Override
+	protected void onItemSaved(int id, Record item, boolean inserted) {
+		waveformStore.saveWaveform(id, item, inserted);
+	}
+
+	@Override
+	protected void onItemDeleted(int id) {
+		waveformStore.remove(id);
+	}
+
+	@Override
+	protected void onAllItemsDeleted() {
+		waveformStore.clear();
+	}
+
+	@Override
+	protected void onBatchSaveStarted() {
+		waveformStore.beginBatch();
+	}
+
+	@Override
+	protected void onBatchSaveFinished() {
+		waveformStore.endBatch();
 	}
 }
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.data.database;
+
+import android.content.Context;
+
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Waveforms of records stored outside of the database, one store per table.
+ * Store is an append-only file of entries: 16 bytes header (magic, record id, payload length,
+ * payload CRC32) followed by the payload. The last entry of a record id wins, removed records
+ * are marked with an entry of negative length. Small entries, like waveforms of list items, are read
+ * into a heap buffer, large ones through a memory mapped view of the payload, so they are not copied.
+ *
+ * On open the file is scanned and cut after the last valid entry, so an entry torn by a crash
+ * is dropped. Compaction writes live entries into a new file and renames it over the old one,
+ * views handed out before keep pointing at the old file content.
+ */
+public class WaveformStore {
+
+	/** "WFS1" */
+	private static final int MAGIC = 0x57465331;
+	private static final int HEADER_SIZE = 16;
+	private static final int REMOVED = -1;
+	/** Compact the file when it holds more dead bytes than this and more than live bytes. */
+	private static final long COMPACT_THRESHOLD = 1024 * 1024;
+	/** Entries smaller than this are read, a mapping costs a syscall and at least one page. */
+	private static final int MAP_THRESHOLD = 64 * 1024;
+
+	private static final String FILE_SUFFIX = "_waveforms.dat";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final Map<String, WaveformStore> instances = new HashMap<>();
+
+	private final File file;
+	private final Map<Integer, Entry> index = new HashMap<>();
+	private FileChannel channel;
+	private long size = 0;
+	private long liveBytes = 0;
+	/** Count of started batches, entries are flushed to disk when the last batch ends. */
+	private int batchDepth = 0;
+
+	/**
+	 * Store of waveforms for the table, located next to the database file.
+	 */
+	public static WaveformStore getInstance(Context context, String tableName) {
+		synchronized (instances) {
+			WaveformStore store = instances.get(tableName);
+			if (store == null) {
+				File dir = context.getDatabasePath(SQLiteHelper.DATABASE_NAME).getParentFile();
+				store = new WaveformStore(new File(dir, tableName + FILE_SUFFIX));
+				instances.put(tableName, store);
+			}
+			return store;
+		}
+	}
+
+	WaveformStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Get waveform of the record.
+	 * @return Read only view of the serialized waveform or null if there is no waveform for the id.
+	 */
+	public synchronized ByteBuffer get(int id) {
+		if (!ensureOpen()) {
+			return null;
+		}
+		Entry entry = index.get(id);
+		if (entry == null) {
+			return null;
+		}
+		try {
+			if (entry.length < MAP_THRESHOLD) {
+				ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+				if (!readFully(buffer, entry.offset)) {
+					return null;
+				}
+				buffer.flip();
+				return buffer.asReadOnlyBuffer();
+			}
+			//Map only the entry, offsets of large files do not fit into a buffer index.
+			return channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+		} catch (IOException e) {
+			Timber.e(e, "Failed to read waveform of record %d", id);
+			return null;
+		}
+	}
+
+	/**
+	 * Save waveform of the record and flush it to disk.
+	 */
+	public synchronized boolean put(int id, byte[] payload) {
+		try {
+			append(id, payload);
+			if (batchDepth == 0) {
+				channel.force(false);
+			}
+			maybeCompact();
+			return true;
+		} catch (IOException e) {
+			Timber.e(e, "Failed to save waveform of record %d", id);
+			return false;
+		}
+	}
+
+	/**
+	 * Remove waveform of the record and flush the removal to disk.
+	 */
+	public synchronized void remove(int id) {
+		try {
+			if (!ensureOpen() || !index.containsKey(id)) {
+				return;
+			}
+			write(id, null);
+			if (batchDepth == 0) {
+				channel.force(false);
+			}
+			Entry entry = index.remove(id);
+			liveBytes -= HEADER_SIZE + entry.length;
+			maybeCompact();
+		} catch (IOException e) {
+			Timber.e(e, "Failed to remove waveform of record %d", id);
+		}
+	}
+
+	/**
+	 * Remove all waveforms.
+	 */
+	public synchronized void clear() {
+		index.clear();
+		liveBytes = 0;
+		try {
+			compact();
+		} catch (IOException e) {
+			Timber.e(e, "Failed to clear waveform store");
+		}
+	}
+
+	/**
+	 * Start writing many entries, they are flushed to disk once by {@link #endBatch()}.
+	 */
+	public synchronized void beginBatch() {
+		batchDepth++;
+	}
+
+	public synchronized void endBatch() {
+		if (batchDepth > 0 && --batchDepth == 0) {
+			try {
+				sync();
+			} catch (IOException e) {
+				Timber.e(e, "Failed to flush waveform store");
+			}
+		}
+	}
+
+	/**
+	 * Save waveform of the record from the model.
+	 * Record is saved when it is a new row or when its waveform was changed after it was read.
+	 */
+	void saveWaveform(int id, Record record, boolean inserted) {
+		if (!inserted && !record.isWaveformChanged()) {
+			return;
+		}
+		WaveformPyramid waveform = record.getWaveform();
+		if (waveform.isEmpty()) {
+			remove(id);
+		} else {
+			put(id, waveform.toBytes());
+		}
+	}
+
+	/**
+	 * Attach stored waveform to the record read from database.
+	 */
+	void loadWaveform(Record record) {
+		WaveformPyramid waveform = WaveformPyramid.fromBuffer(get(record.getId()));
+		if (waveform != null) {
+			record.setStoredWaveform(waveform);
+		}
+	}
+
+	/**
+	 * Append an entry without flushing, used to write many entries at once followed by {@link #sync()}.
+	 */
+	synchronized void append(int id, byte[] payload) throws IOException {
+		if (!ensureOpen()) {
+			throw new IOException("Waveform store is not available: " + file);
+		}
+		long offset = write(id, payload);
+		Entry old = index.put(id, new Entry(offset, payload.length));
+		if (old != null) {
+			liveBytes -= HEADER_SIZE + old.length;
+		}
+		liveBytes += HEADER_SIZE + payload.length;
+	}
+
+	synchronized void sync() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Write entry at the end of the file.
+	 * @return Offset of the entry payload.
+	 */
+	private long write(int id, byte[] payload) throws IOException {
+		int length = payload != null ? payload.length : 0;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+		buffer.putInt(MAGIC);
+		buffer.putInt(id);
+		if (payload != null) {
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			buffer.putInt(length);
+			buffer.putInt((int) crc.getValue());
+			buffer.put(payload);
+		} else {
+			buffer.putInt(REMOVED);
+			buffer.putInt(0);
+		}
+		buffer.flip();
+		long position = size;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		long offset = size + HEADER_SIZE;
+		size = position;
+		return offset;
+	}
+
+	private boolean ensureOpen() {
+		if (channel != null) {
+			return true;
+		}
+		try {
+			File tmp = new File(file.getPath() + TMP_SUFFIX);
+			if (tmp.exists() && !tmp.delete()) {
+				Timber.w("Failed to delete %s", tmp);
+			}
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			scan();
+			return true;
+		} catch (IOException e) {
+			Timber.e(e, "Failed to open waveform store %s", file);
+			channel = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Build index of the entries and cut off everything after the last valid entry.
+	 */
+	private void scan() throws IOException {
+		index.clear();
+		liveBytes = 0;
+		long fileSize = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		byte[] payload = new byte[0];
+		long position = 0;
+		while (position + HEADER_SIZE <= fileSize) {
+			header.clear();
+			if (!readFully(header, position)) {
+				break;
+			}
+			header.flip();
+			int magic = header.getInt();
+			int id = header.getInt();
+			int length = header.getInt();
+			int checksum = header.getInt();
+			if (magic != MAGIC || length < REMOVED || position + HEADER_SIZE + Math.max(length, 0) > fileSize) {
+				break;
+			}
+			if (length == REMOVED) {
+				Entry entry = index.remove(id);
+				if (entry != null) {
+					liveBytes -= HEADER_SIZE + entry.length;
+				}
+				position += HEADER_SIZE;
+				continue;
+			}
+			if (payload.length < length) {
+				payload = new byte[length];
+			}
+			ByteBuffer data = ByteBuffer.wrap(payload, 0, length);
+			if (!readFully(data, position + HEADER_SIZE)) {
+				break;
+			}
+			crc.reset();
+			crc.update(payload, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+			Entry old = index.put(id, new Entry(position + HEADER_SIZE, length));
+			if (old != null) {
+				liveBytes -= HEADER_SIZE + old.length;
+			}
+			liveBytes += HEADER_SIZE + length;
+			position += HEADER_SIZE + length;
+		}
+		if (position < fileSize) {
+			Timber.w("Waveform store %s is damaged after %d of %d bytes, cutting the rest", file, position, fileSize);
+			channel.truncate(position);
+			channel.force(false);
+		}
+		size = position;
+	}
+
+	private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+
+	private void maybeCompact() throws IOException {
+		long deadBytes = size - liveBytes;
+		if (deadBytes > COMPACT_THRESHOLD && deadBytes > liveBytes) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrite live entries into a new file which replaces the current one.
+	 * Mapped views of the old file stay valid until they are released.
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(file.getPath() + TMP_SUFFIX);
+		try (FileChannel out = new RandomAccessFile(tmp, "rw").getChannel()) {
+			out.truncate(0);
+			if (!index.isEmpty() && ensureOpen()) {
+				for (Map.Entry<Integer, Entry> e : index.entrySet()) {
+					Entry entry = e.getValue();
+					long from = entry.offset - HEADER_SIZE;
+					long count = HEADER_SIZE + entry.length;
+					long written = 0;
+					while (written < count) {
+						written += channel.transferTo(from + written, count - written, out);
+					}
+				}
+			}
+			out.force(false);
+		}
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Failed to replace " + file);
+		}
+		ensureOpen();
+	}
+
+	private static class Entry {
+		final long offset;
+		final int length;
+
+		Entry(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
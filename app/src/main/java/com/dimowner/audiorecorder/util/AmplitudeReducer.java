@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.util;
+
+/**
+ * Reduces a stream of amplitudes into a constant count of buckets holding min, max and mean
+ * of equal consecutive ranges. Each new amplitude is added in O(1) amortized time. When all
+ * buckets are used neighbour buckets are merged and the bucket range is doubled, so buckets
+ * always cover the whole stream and the final waveform is produced in time proportional
+ * to the bucket count instead of the stream length.
+ * Has no Android dependencies so it can be measured on plain JVM (see benchmark module).
+ */
+public class AmplitudeReducer {
+
+	private final int[] min;
+	private final int[] max;
+	private final long[] sum;
+	private int size = 0;
+	private int samplesPerBucket = 1;
+	/** Count of amplitudes in the last not full bucket. */
+	private int pendingCount = 0;
+	private long count = 0;
+
+	/**
+	 * @param capacity Max count of buckets, rounded up to even value. Use at least twice
+	 *                 the waveform size to keep output close to reduction of all amplitudes.
+	 */
+	public AmplitudeReducer(int capacity) {
+		int c = Math.max(2, capacity + (capacity & 1));
+		min = new int[c];
+		max = new int[c];
+		sum = new long[c];
+	}
+
+	public void add(int amp) {
+		if (pendingCount == 0) {
+			if (size == sum.length) {
+				fold();
+			}
+			min[size] = amp;
+			max[size] = amp;
+			sum[size] = 0;
+			size++;
+		}
+		int last = size - 1;
+		if (amp < min[last]) {
+			min[last] = amp;
+		}
+		if (amp > max[last]) {
+			max[last] = amp;
+		}
+		sum[last] += amp;
+		count++;
+		pendingCount++;
+		if (pendingCount == samplesPerBucket) {
+			pendingCount = 0;
+		}
+	}
+
+	/** Merge bucket pairs, called when all buckets are full. */
+	private void fold() {
+		for (int i = 0; i < size / 2; i++) {
+			min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+			max[i] = Math.max(max[2 * i], max[2 * i + 1]);
+			sum[i] = sum[2 * i] + sum[2 * i + 1];
+		}
+		size /= 2;
+		samplesPerBucket *= 2;
+	}
+
+	/**
+	 * Count of used buckets.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Count of added amplitudes.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Count of amplitudes in each bucket except the last one which may have less.
+	 */
+	public int getSamplesPerBucket() {
+		return samplesPerBucket;
+	}
+
+	public int getMin(int bucket) {
+		return min[bucket];
+	}
+
+	public int getMax(int bucket) {
+		return max[bucket];
+	}
+
+	public int getMean(int bucket) {
+		int n = bucket == size - 1 && pendingCount > 0 ? pendingCount : samplesPerBucket;
+		return (int) (sum[bucket] / n);
+	}
+
+	/**
+	 * Resample bucket means into waveform of the given size. Uses the same resampling as
+	 * was used for the whole amplitude list, so the result is identical to it while
+	 * count of amplitudes does not exceed bucket capacity.
+	 * @return Waveform values in view amplitude scale, see {@link AmplitudeUtils#convertAmp(double)}.
+	 */
+	public int[] toWaveform(int outputSize) {
+		int[] waveForm = new int[outputSize];
+		if (size == 0 || outputSize == 0) {
+			return waveForm;
+		}
+		float scale = (float) size / (float) outputSize;
+		if (size < outputSize*2) {
+			for (int i = 0; i < outputSize; i++) {
+				waveForm[i] = AmplitudeUtils.convertAmp(getMean((int) Math.floor(i*scale)));
+			}
+		} else {
+			int step = (int) Math.ceil(scale);
+			for (int i = 0; i < outputSize; i++) {
+				int val = 0;
+				for (int j = 0; j < step; j++) {
+					val += getMean(Math.min((int)(i * scale + j), size - 1));
+				}
+				val = (int) ((float) val / scale);
+				waveForm[i] = AmplitudeUtils.convertAmp(val);
+			}
+		}
+		return waveForm;
+	}
+
+	public void clear() {
+		size = 0;
+		samplesPerBucket = 1;
+		pendingCount = 0;
+		count = 0;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.util;
+
+import com.dimowner.audiorecorder.AppConstants;
+import com.dimowner.audiorecorder.AmplitudeLog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Amplitude calculations used while recording.
+ * Has no Android dependencies so it can be measured on plain JVM (see benchmark module).
+ */
+public class AmplitudeUtils {
+
+	private AmplitudeUtils() {}
+
+	/**
+	 * Calculate level of 16 bit little endian PCM buffer used for recording visualisation.
+	 * @param data PCM data.
+	 * @param length Count of bytes to process.
+	 */
+	public static int calculateLevel(byte[] data, int length) {
+		int end = length & ~1;
+		if (end < 16) {
+			return 0;
+		}
+		long sum = 0;
+		for (int i = 0; i < end; i += 2) {
+			int v = (short) ((data[i] & 0xff) | (data[i + 1] << 8));
+			sum += (v ^ (v >> 31)) - (v >> 31);
+		}
+		return (int) (sum / (end / 16));
+	}
+
+	/**
+	 * Calculate level of 16 bit little endian PCM buffer used for recording visualisation.
+	 * Reads bytes [0, length) of the buffer with absolute gets, buffer position is not changed.
+	 * @param data PCM data, direct buffers are read without copying. Buffers in little endian order
+	 * are read as is, others through a duplicate.
+	 * @param length Count of bytes to process.
+	 */
+	public static int calculateLevel(ByteBuffer data, int length) {
+		int end = length & ~1;
+		if (end < 16) {
+			return 0;
+		}
+		ByteBuffer buffer = data.order() == ByteOrder.LITTLE_ENDIAN
+				? data : data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		long sum = 0;
+		for (int i = 0; i < end; i += 2) {
+			int v = buffer.getShort(i);
+			sum += (v ^ (v >> 31)) - (v >> 31);
+		}
+		return (int) (sum / (end / 16));
+	}
+
+	/**
+	 * Count sign changes of the first channel of 16 bit little endian PCM buffer. High rate of
+	 * zero crossings at low level is typical for fricative speech sounds, low rate for hum.
+	 * Reads bytes [0, length) of the buffer with absolute gets, buffer position is not changed.
+	 * @param length Count of bytes to process.
+	 * @param channelCount Count of interleaved channels.
+	 */
+	public static int countZeroCrossings(ByteBuffer data, int length, int channelCount) {
+		int step = 2 * Math.max(1, channelCount);
+		int end = length - length % step;
+		if (end < step * 2) {
+			return 0;
+		}
+		ByteBuffer buffer = data.order() == ByteOrder.LITTLE_ENDIAN
+				? data : data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int count = 0;
+		boolean negative = buffer.getShort(0) < 0;
+		for (int i = step; i < end; i += step) {
+			boolean n = buffer.getShort(i) < 0;
+			if (n != negative) {
+				count++;
+				negative = n;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Convert amplitudes collected while recording into waveform saved with a record.
+	 * Long records are converted from the amplitude summary which is reduced while recording,
+	 * so the conversion takes time proportional to the waveform size, not to the record duration.
+	 * @param log Recording amplitudes.
+	 * @param durationSec Record duration in seconds.
+	 * @param longSampleCount Waveform size for records longer than {@link AppConstants#LONG_RECORD_THRESHOLD_SECONDS}.
+	 */
+	public static int[] convertRecordingData(AmplitudeLog log, int durationSec, int longSampleCount) {
+		if (durationSec > AppConstants.LONG_RECORD_THRESHOLD_SECONDS || log.getFirstIndex() > 0) {
+			return log.toWaveform(longSampleCount);
+		} else {
+			AmplitudeLog.Range range = log.view(0, log.size());
+			int[] waveForm = new int[range.size()];
+			for (int i = 0; i < range.size(); i++) {
+				waveForm[i] = convertAmp(range.get(i));
+			}
+			return waveForm;
+		}
+	}
+
+	/**
+	 * Convert dB amp value to view amp.
+	 */
+	public static int convertAmp(double amp) {
+		return (int)(255*(amp/32767f));
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WaveformEngineTest {
+
+	@Test
+	public void monoGoldenWaveform() {
+		WaveformEngine engine = new WaveformEngine(1, 4);
+		short[] pcm = {0, 100, -200, 50, 300, -300, 0, 0, 10};
+		engine.process(pcm, 0, pcm.length);
+		engine.flush();
+		assertArrayEquals(new int[] {200, 300, 10}, engine.getPeaks());
+		assertArrayEquals(new int[] {114, 212, 10}, engine.getRms());
+	}
+
+	@Test
+	public void stereoIsDownmixedBeforeReduction() {
+		WaveformEngine engine = new WaveformEngine(2, 2);
+		short[] pcm = {100, 301, -100, -301, 32767, 32767, -32768, -32768};
+		engine.process(pcm, 0, pcm.length);
+		assertArrayEquals(new int[] {200, 32768}, engine.getPeaks());
+		assertArrayEquals(new int[] {200, 32767}, engine.getRms());
+	}
+
+	@Test
+	public void downmixRoundsTowardZeroForAnyChannelCount() {
+		final List<int[]> stereo = new ArrayList<>();
+		WaveformEngine engine = new WaveformEngine(2, 1);
+		engine.setOnPointListener((min, max, rms) -> stereo.add(new int[] {min, max}));
+		short[] pcm = {-100, -301, 100, 301};
+		engine.process(pcm, 0, pcm.length);
+		assertArrayEquals(new int[] {-200, 0}, stereo.get(0));
+		assertArrayEquals(new int[] {0, 200}, stereo.get(1));
+
+		final List<int[]> multi = new ArrayList<>();
+		engine = new WaveformEngine(4, 1);
+		engine.setOnPointListener((min, max, rms) -> multi.add(new int[] {min, max}));
+		short[] pcm4 = {-100, -301, 0, 0, 100, 301, 0, 0};
+		engine.process(pcm4, 0, pcm4.length);
+		assertArrayEquals(new int[] {-100, 0}, multi.get(0));
+		assertArrayEquals(new int[] {0, 100}, multi.get(1));
+	}
+
+	@Test
+	public void multiChannelIsDownmixedBeforeReduction() {
+		WaveformEngine engine = new WaveformEngine(3, 1);
+		short[] pcm = {3, 3, -9, 10, 20, 31, -10, -20, -31};
+		engine.process(pcm, 0, pcm.length);
+		assertArrayEquals(new int[] {1, 20, 20}, engine.getPeaks());
+		assertArrayEquals(new int[] {1, 20, 20}, engine.getRms());
+	}
+
+	@Test
+	public void sineGoldenWaveform() {
+		int period = 64;
+		short[] pcm = new short[period * 3];
+		for (int i = 0; i < pcm.length; i++) {
+			pcm[i] = (short) Math.round(10000 * Math.sin(2 * Math.PI * i / period));
+		}
+		WaveformEngine engine = new WaveformEngine(1, period);
+		engine.process(pcm, 0, pcm.length);
+		assertArrayEquals(new int[] {10000, 10000, 10000}, engine.getPeaks());
+		assertArrayEquals(new int[] {7071, 7071, 7071}, engine.getRms());
+	}
+
+	@Test
+	public void silenceGivesZeroWaveform() {
+		WaveformEngine engine = new WaveformEngine(2, 10);
+		short[] pcm = new short[2 * 35];
+		engine.process(pcm, 0, pcm.length);
+		engine.flush();
+		assertArrayEquals(new int[] {0, 0, 0, 0}, engine.getPeaks());
+		assertArrayEquals(new int[] {0, 0, 0, 0}, engine.getRms());
+	}
+
+	@Test
+	public void chunksSplitInsideFramesGiveSameWaveform() {
+		Random random = new Random(42);
+		for (int channels = 1; channels <= 3; channels++) {
+			short[] pcm = randomPcm(random, channels * 10007);
+			WaveformEngine whole = new WaveformEngine(channels, 441);
+			whole.process(pcm, 0, pcm.length);
+			whole.flush();
+
+			WaveformEngine chunked = new WaveformEngine(channels, 441);
+			int pos = 0;
+			while (pos < pcm.length) {
+				int length = Math.min(pcm.length - pos, 1 + random.nextInt(997));
+				chunked.process(pcm, pos, length);
+				pos += length;
+			}
+			chunked.flush();
+
+			assertArrayEquals(whole.getPeaks(), chunked.getPeaks());
+			assertArrayEquals(whole.getRms(), chunked.getRms());
+		}
+	}
+
+	@Test
+	public void directAndArrayBuffersGiveSameWaveform() {
+		short[] pcm = randomPcm(new Random(7), 2 * 20000);
+		WaveformEngine array = new WaveformEngine(2, 100);
+		array.process(ShortBuffer.wrap(pcm));
+
+		ShortBuffer direct = ByteBuffer.allocateDirect(pcm.length * 2)
+				.order(ByteOrder.nativeOrder()).asShortBuffer();
+		direct.put(pcm);
+		direct.flip();
+		WaveformEngine engine = new WaveformEngine(2, 100);
+		engine.process(direct);
+
+		assertEquals(0, direct.remaining());
+		assertEquals(200, engine.getPointCount());
+		assertArrayEquals(array.getPeaks(), engine.getPeaks());
+		assertArrayEquals(array.getRms(), engine.getRms());
+	}
+
+	@Test
+	public void listenerReceivesMinMaxAndRms() {
+		final List<int[]> points = new ArrayList<>();
+		WaveformEngine engine = new WaveformEngine(1, 4);
+		engine.setOnPointListener((min, max, rms) -> points.add(new int[] {min, max, rms}));
+		short[] pcm = {0, 100, -200, 50, 300, 200, 100, 0};
+		engine.process(pcm, 0, pcm.length);
+
+		assertEquals(0, engine.getPointCount());
+		assertEquals(2, points.size());
+		assertArrayEquals(new int[] {-200, 100, 114}, points.get(0));
+		assertArrayEquals(new int[] {0, 300, 187}, points.get(1));
+	}
+
+	@Test
+	public void builtWaveformKeepsRms() {
+		WaveformEngine engine = new WaveformEngine(1, 64);
+		WaveformPyramid.Builder builder = new WaveformPyramid.Builder();
+		engine.setOnPointListener(builder);
+		short[] pcm = new short[64 * 8];
+		for (int i = 0; i < pcm.length; i++) {
+			pcm[i] = (short) Math.round(10000 * Math.sin(2 * Math.PI * i / 64));
+		}
+		engine.process(pcm, 0, pcm.length);
+		WaveformPyramid waveform = WaveformPyramid.fromBytes(builder.build(1000).toBytes());
+
+		assertTrue(waveform.hasRms());
+		//Square root of RMS 7071.
+		assertEquals(84, waveform.getRms(0, 0, 8));
+		assertEquals(84, waveform.getRms(waveform.getLevelCount() - 1, 0, 1));
+		assertFalse(WaveformPyramid.fromGains(new int[] {10, 20}, 1000).hasRms());
+	}
+
+	@Test
+	public void resetDropsPointsAndPartialFrames() {
+		WaveformEngine engine = new WaveformEngine(2, 2);
+		short[] pcm = {1000, 1000, 1000, 1000, 500};
+		engine.process(pcm, 0, pcm.length);
+		engine.reset();
+		short[] next = {10, 10, 20, 20};
+		engine.process(next, 0, next.length);
+		assertArrayEquals(new int[] {20}, engine.getPeaks());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void channelCountMustBePositive() {
+		new WaveformEngine(0, 10);
+	}
+
+	private static short[] randomPcm(Random random, int length) {
+		short[] pcm = new short[length];
+		for (int i = 0; i < length; i++) {
+			pcm[i] = (short) (random.nextInt(65536) - 32768);
+		}
+		return pcm;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.audio.recorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingStateMachineTest {
+
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private RecordingStateMachine machine;
+
+	@Before
+	public void setUp() {
+		machine = new RecordingStateMachine();
+	}
+
+	@Test
+	public void startPauseResumeStopFinish() {
+		assertEquals(RecordingStateMachine.STATE_IDLE, machine.getState());
+		assertFalse(machine.isRecording());
+
+		assertTrue(machine.start());
+		assertEquals(RecordingStateMachine.STATE_RECORDING, machine.getState());
+		assertTrue(machine.isRecording());
+		assertFalse(machine.isPaused());
+
+		assertTrue(machine.pause());
+		assertEquals(RecordingStateMachine.STATE_PAUSED, machine.getState());
+		assertTrue(machine.isRecording());
+		assertTrue(machine.isPaused());
+
+		assertTrue(machine.resume());
+		assertEquals(RecordingStateMachine.STATE_RECORDING, machine.getState());
+
+		assertTrue(machine.stop());
+		assertEquals(RecordingStateMachine.STATE_STOPPING, machine.getState());
+		assertFalse(machine.isRecording());
+
+		machine.finish();
+		assertEquals(RecordingStateMachine.STATE_IDLE, machine.getState());
+		assertTrue(machine.start());
+	}
+
+	@Test
+	public void invalidTransitionsAreRejected() {
+		assertFalse(machine.pause());
+		assertFalse(machine.resume());
+		assertFalse(machine.stop());
+		assertEquals(RecordingStateMachine.STATE_IDLE, machine.getState());
+
+		machine.start();
+		assertFalse(machine.start());
+		assertFalse(machine.resume());
+
+		machine.pause();
+		assertFalse(machine.pause());
+		assertFalse(machine.start());
+		assertEquals(RecordingStateMachine.STATE_PAUSED, machine.getState());
+
+		assertTrue(machine.stop());
+		assertFalse(machine.stop());
+		assertFalse(machine.start());
+		assertFalse(machine.pause());
+		assertFalse(machine.resume());
+		assertEquals(RecordingStateMachine.STATE_STOPPING, machine.getState());
+	}
+
+	@Test
+	public void pausedRecordingCanBeStopped() {
+		machine.start();
+		machine.pause();
+		assertTrue(machine.stop());
+		assertFalse(machine.awaitCapture());
+	}
+
+	@Test
+	public void awaitCaptureReturnsImmediatelyWhileRecording() {
+		assertFalse(machine.awaitCapture());
+		machine.start();
+		assertTrue(machine.awaitCapture());
+		assertTrue(machine.awaitCapture());
+	}
+
+	@Test
+	public void awaitCaptureBlocksWhilePausedUntilResume() throws InterruptedException {
+		machine.start();
+		machine.pause();
+		BlockingQueue<Boolean> result = new ArrayBlockingQueue<>(1);
+		Thread capture = startCapture(result);
+
+		waitUntilWaiting(capture);
+		assertNull(result.poll(100, TimeUnit.MILLISECONDS));
+
+		assertTrue(machine.resume());
+		assertEquals(Boolean.TRUE, result.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		capture.join(TIMEOUT_MILLIS);
+	}
+
+	@Test
+	public void awaitCaptureBlocksWhilePausedUntilStop() throws InterruptedException {
+		machine.start();
+		machine.pause();
+		BlockingQueue<Boolean> result = new ArrayBlockingQueue<>(1);
+		Thread capture = startCapture(result);
+
+		waitUntilWaiting(capture);
+		assertTrue(machine.stop());
+		assertEquals(Boolean.FALSE, result.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		capture.join(TIMEOUT_MILLIS);
+		assertEquals(RecordingStateMachine.STATE_STOPPING, machine.getState());
+	}
+
+	@Test
+	public void interruptWhilePausedStopsCapture() throws InterruptedException {
+		machine.start();
+		machine.pause();
+		BlockingQueue<Boolean> result = new ArrayBlockingQueue<>(2);
+		Thread capture = new Thread(() -> {
+			result.add(machine.awaitCapture());
+			result.add(Thread.currentThread().isInterrupted());
+		});
+		capture.start();
+
+		waitUntilWaiting(capture);
+		capture.interrupt();
+		assertEquals(Boolean.FALSE, result.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(Boolean.FALSE, result.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		capture.join(TIMEOUT_MILLIS);
+		assertEquals(RecordingStateMachine.STATE_STOPPING, machine.getState());
+	}
+
+	@Test
+	public void interruptWhileRecordingStopsCaptureAndClearsStatus() {
+		machine.start();
+		Thread.currentThread().interrupt();
+		assertFalse(machine.awaitCapture());
+		assertFalse(Thread.currentThread().isInterrupted());
+		assertEquals(RecordingStateMachine.STATE_STOPPING, machine.getState());
+
+		machine.finish();
+		assertTrue(machine.start());
+		assertTrue(machine.awaitCapture());
+	}
+
+	private Thread startCapture(BlockingQueue<Boolean> result) {
+		Thread capture = new Thread(() -> result.add(machine.awaitCapture()));
+		capture.start();
+		return capture;
+	}
+
+	private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (thread.getState() != Thread.State.WAITING) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new AssertionError("Capture thread is not waiting: " + thread.getState());
+			}
+			Thread.sleep(1);
+		}
+	}
+}
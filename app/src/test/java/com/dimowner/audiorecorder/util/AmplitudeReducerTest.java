@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.util;
+
+import com.dimowner.audiorecorder.AmplitudeLog;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares online reduction with conversion of the whole amplitude list which was used
+ * before amplitudes were reduced while recording.
+ */
+public class AmplitudeReducerTest {
+
+	private static final int CASES = 200;
+
+	@Test
+	public void sameAsBatchConversionWhileNotFolded() {
+		Random random = new Random(16);
+		for (int c = 0; c < CASES; c++) {
+			int outputSize = 1 + random.nextInt(1000);
+			int capacity = 2 * outputSize;
+			int[] amps = randomAmplitudes(random, 1 + random.nextInt(capacity));
+			AmplitudeReducer reducer = reduce(amps, capacity);
+
+			assertEquals(1, reducer.getSamplesPerBucket());
+			assertArrayEquals(batchWaveform(amps, outputSize), reducer.toWaveform(outputSize));
+		}
+	}
+
+	@Test
+	public void closeToBatchConversionWhenFoldedEvenly() {
+		Random random = new Random(160);
+		for (int c = 0; c < CASES; c++) {
+			int outputSize = 1 + random.nextInt(500);
+			int[] amps = randomAmplitudes(random, outputSize << (2 + random.nextInt(5)));
+			AmplitudeReducer reducer = reduce(amps, 2 * outputSize);
+
+			assertTrue(reducer.getSamplesPerBucket() > 1);
+			assertMaxDifference(batchWaveform(amps, outputSize), reducer.toWaveform(outputSize), 1);
+		}
+	}
+
+	@Test
+	public void bucketsCoverWholeStream() {
+		Random random = new Random(1600);
+		for (int c = 0; c < CASES; c++) {
+			int capacity = 2 + random.nextInt(200);
+			int[] amps = randomAmplitudes(random, 1 + random.nextInt(50 * capacity));
+			AmplitudeReducer reducer = reduce(amps, capacity);
+
+			assertEquals(amps.length, reducer.getCount());
+			assertTrue(reducer.size() <= capacity + 1);
+			int spb = reducer.getSamplesPerBucket();
+			assertEquals((amps.length + spb - 1) / spb, reducer.size());
+			for (int b = 0; b < reducer.size(); b++) {
+				int from = b * spb;
+				int to = Math.min(amps.length, from + spb);
+				int min = Integer.MAX_VALUE;
+				int max = Integer.MIN_VALUE;
+				long sum = 0;
+				for (int i = from; i < to; i++) {
+					min = Math.min(min, amps[i]);
+					max = Math.max(max, amps[i]);
+					sum += amps[i];
+				}
+				assertEquals(min, reducer.getMin(b));
+				assertEquals(max, reducer.getMax(b));
+				assertEquals(sum / (to - from), reducer.getMean(b));
+			}
+		}
+	}
+
+	@Test
+	public void clearStartsNewStream() {
+		int[] amps = randomAmplitudes(new Random(3), 1000);
+		AmplitudeReducer reducer = reduce(amps, 64);
+		reducer.clear();
+		assertEquals(0, reducer.size());
+		assertEquals(0, reducer.getCount());
+		assertArrayEquals(new int[10], reducer.toWaveform(10));
+
+		for (int amp : amps) {
+			reducer.add(amp);
+		}
+		assertArrayEquals(reduce(amps, 64).toWaveform(20), reducer.toWaveform(20));
+	}
+
+	@Test
+	public void convertShortRecordKeepsEveryAmplitude() {
+		int[] amps = randomAmplitudes(new Random(5), 300);
+		AmplitudeLog log = new AmplitudeLog(1000, 64);
+		for (int amp : amps) {
+			log.add(amp);
+		}
+		int[] waveform = AmplitudeUtils.convertRecordingData(log, 10, 100);
+		assertEquals(amps.length, waveform.length);
+		for (int i = 0; i < amps.length; i++) {
+			assertEquals(AmplitudeUtils.convertAmp(amps[i]), waveform[i]);
+		}
+	}
+
+	@Test
+	public void convertLongRecordSameAsBatchWhileNotFolded() {
+		int[] amps = randomAmplitudes(new Random(6), 1500);
+		AmplitudeLog log = new AmplitudeLog(AmplitudeLog.DEFAULT_RETAINED_SIZE, 2000);
+		for (int amp : amps) {
+			log.add(amp);
+		}
+		assertArrayEquals(batchWaveform(amps, 1000), AmplitudeUtils.convertRecordingData(log, 600, 1000));
+	}
+
+	@Test
+	public void convertShortRecordUsesSummaryWhenAmplitudesAreNotRetained() {
+		int[] amps = randomAmplitudes(new Random(7), 5000);
+		AmplitudeLog log = new AmplitudeLog(1000, 200);
+		for (int amp : amps) {
+			log.add(amp);
+		}
+		assertTrue(log.getFirstIndex() > 0);
+		int[] waveform = AmplitudeUtils.convertRecordingData(log, 10, 100);
+		assertArrayEquals(log.toWaveform(100), waveform);
+	}
+
+	private static AmplitudeReducer reduce(int[] amps, int capacity) {
+		AmplitudeReducer reducer = new AmplitudeReducer(capacity);
+		for (int amp : amps) {
+			reducer.add(amp);
+		}
+		return reducer;
+	}
+
+	/** Random walk in amplitude range, close to amplitudes of real recordings. */
+	private static int[] randomAmplitudes(Random random, int count) {
+		int[] amps = new int[count];
+		int v = random.nextInt(32768);
+		for (int i = 0; i < count; i++) {
+			v = Math.max(0, Math.min(32767, v + random.nextInt(4001) - 2000));
+			amps[i] = v;
+		}
+		return amps;
+	}
+
+	/**
+	 * Conversion of the whole amplitude list used before online reduction. Index of the last
+	 * summed amplitude is clamped to the list, the same as in {@link AmplitudeReducer#toWaveform(int)}.
+	 */
+	private static int[] batchWaveform(int[] list, int sampleCount) {
+		int[] waveForm = new int[sampleCount];
+		float scale = (float) list.length / (float) sampleCount;
+		if (list.length < sampleCount*2) {
+			for (int i = 0; i < sampleCount; i++) {
+				waveForm[i] = AmplitudeUtils.convertAmp(list[(int) Math.floor(i*scale)]);
+			}
+		} else {
+			int step = (int) Math.ceil(scale);
+			for (int i = 0; i < sampleCount; i++) {
+				int val = 0;
+				for (int j = 0; j < step; j++) {
+					val += list[Math.min((int)(i * scale + j), list.length - 1)];
+				}
+				val = (int) ((float) val / scale);
+				waveForm[i] = AmplitudeUtils.convertAmp(val);
+			}
+		}
+		return waveForm;
+	}
+
+	private static void assertMaxDifference(int[] expected, int[] actual, int maxDifference) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue("Index " + i + ": " + expected[i] + " vs " + actual[i],
+					Math.abs(expected[i] - actual[i]) <= maxDifference);
+		}
+	}
+}
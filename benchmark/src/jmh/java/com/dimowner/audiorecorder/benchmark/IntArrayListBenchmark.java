@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.benchmark;
+
+import com.dimowner.audiorecorder.AmplitudeLog;
+import com.dimowner.audiorecorder.IntArrayList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IntArrayList is used to collect amplitudes while decoding, AmplitudeLog while recording.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IntArrayListBenchmark {
+
+	/** 1 minute, 1 hour and 4 hours of recording amplitudes. */
+	@Param({"4615", "276923", "1107692"})
+	public int size;
+
+	private IntArrayList filled;
+
+	@Setup
+	public void setup() {
+		filled = new IntArrayList();
+		for (int i = 0; i < size; i++) {
+			filled.add(i);
+		}
+	}
+
+	@Benchmark
+	public IntArrayList addWithGrow() {
+		IntArrayList list = new IntArrayList();
+		for (int i = 0; i < size; i++) {
+			list.add(i);
+		}
+		return list;
+	}
+
+	@Benchmark
+	public AmplitudeLog addToAmplitudeLog() {
+		AmplitudeLog log = new AmplitudeLog();
+		for (int i = 0; i < size; i++) {
+			log.add(i);
+		}
+		return log;
+	}
+
+	@Benchmark
+	public int[] getData() {
+		return filled.getData();
+	}
+}
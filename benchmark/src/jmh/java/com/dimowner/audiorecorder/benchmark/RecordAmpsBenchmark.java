@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.benchmark;
+
+import com.dimowner.audiorecorder.audio.WaveformPyramid;
+import com.dimowner.audiorecorder.data.database.Record;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waveform conversions done for records: legacy amps conversion used by database migration
+ * and waveform serialization used by the waveform store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordAmpsBenchmark {
+
+	@Param({"616", "30000"})
+	public int size;
+
+	private int[] amps;
+	private byte[] data;
+	private WaveformPyramid waveform;
+	private ByteBuffer serialized;
+
+	@Setup
+	public void setup() {
+		amps = new int[size];
+		Random random = new Random(42);
+		for (int i = 0; i < size; i++) {
+			amps[i] = random.nextInt(256);
+		}
+		data = Record.int2byte(amps);
+		waveform = WaveformPyramid.fromGains(amps, size * 10L);
+		serialized = ByteBuffer.allocateDirect(waveform.toBytes().length);
+		serialized.put(waveform.toBytes());
+		serialized.flip();
+	}
+
+	@Benchmark
+	public byte[] int2byte() {
+		return Record.int2byte(amps);
+	}
+
+	@Benchmark
+	public int[] byte2int() {
+		return Record.byte2int(data);
+	}
+
+	@Benchmark
+	public byte[] waveformToBytes() {
+		return waveform.toBytes();
+	}
+
+	/** Reading a waveform from a direct (mapped) buffer does not copy it. */
+	@Benchmark
+	public WaveformPyramid waveformFromBuffer() {
+		return WaveformPyramid.fromBuffer(serialized);
+	}
+}
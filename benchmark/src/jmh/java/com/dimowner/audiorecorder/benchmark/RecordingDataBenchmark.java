@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.benchmark;
+
+import com.dimowner.audiorecorder.AmplitudeLog;
+import com.dimowner.audiorecorder.util.AmplitudeUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of recording amplitudes into a waveform done by AppRecorderImpl when recording stops.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordingDataBenchmark {
+
+	/** Waveform size for 1.5 screens of 411dp width. */
+	private static final int LONG_SAMPLE_COUNT = 616;
+
+	/** Recording duration in minutes, one amplitude per 13 mills. */
+	@Param({"1", "60", "240"})
+	public int minutes;
+
+	private AmplitudeLog amplitudes;
+
+	@Setup
+	public void setup() {
+		amplitudes = new AmplitudeLog();
+		Random random = new Random(42);
+		int count = minutes * 60 * 1000 / 13;
+		for (int i = 0; i < count; i++) {
+			amplitudes.add(random.nextInt(32768));
+		}
+	}
+
+	@Benchmark
+	public int[] convertRecordingData() {
+		return AmplitudeUtils.convertRecordingData(amplitudes, minutes * 60, LONG_SAMPLE_COUNT);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.benchmark;
+
+import com.dimowner.audiorecorder.util.AmplitudeUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Level calculation done for every buffer read by WavRecorder capture thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordingLevelBenchmark {
+
+	/** AudioRecord min buffer sizes for common configurations. */
+	@Param({"3584", "7104", "15360"})
+	public int bufferSize;
+
+	private byte[] data;
+	private ByteBuffer directData;
+
+	@Setup
+	public void setup() {
+		data = new byte[bufferSize];
+		new Random(42).nextBytes(data);
+		directData = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+		directData.put(data).clear();
+	}
+
+	@Benchmark
+	public int calculateLevel() {
+		return AmplitudeUtils.calculateLevel(data, bufferSize);
+	}
+
+	@Benchmark
+	public int calculateLevelDirect() {
+		return AmplitudeUtils.calculateLevel(directData, bufferSize);
+	}
+
+	@Benchmark
+	public int legacyByteBuffer() {
+		ByteBuffer shortBuffer = ByteBuffer.allocate(2);
+		shortBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		long sum = 0;
+		for (int i = 0; i < bufferSize; i+=2) {
+			shortBuffer.put(data[i]);
+			shortBuffer.put(data[i+1]);
+			sum += Math.abs(shortBuffer.getShort(0));
+			shortBuffer.clear();
+		}
+		return (int)(sum/(bufferSize/16));
+	}
+}
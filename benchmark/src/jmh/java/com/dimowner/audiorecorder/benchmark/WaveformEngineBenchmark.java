@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 Dmytro Ponomarenko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dimowner.audiorecorder.benchmark;
+
+import com.dimowner.audiorecorder.IntArrayList;
+import com.dimowner.audiorecorder.audio.WaveformEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Amplitude reduction of decoded PCM done in AudioDecoder.
+ * Compares WaveformEngine with the former per sample loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WaveformEngineBenchmark {
+
+	/** One minute of 44.1kHz audio. */
+	private static final int FRAMES = 44100 * 60;
+	/** Typical decoder output buffer size in bytes. */
+	private static final int BUFFER_SIZE = 16384;
+
+	@Param({"1", "2"})
+	public int channelCount;
+
+	private ByteBuffer pcm;
+	private int samplesPerFrame;
+
+	@Setup
+	public void setup() {
+		pcm = ByteBuffer.allocateDirect(FRAMES * channelCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+		Random random = new Random(42);
+		while (pcm.hasRemaining()) {
+			pcm.putShort((short) random.nextInt());
+		}
+		samplesPerFrame = 44100 / 25;
+	}
+
+	@Benchmark
+	public int[] waveformEngine() {
+		WaveformEngine engine = new WaveformEngine(channelCount, samplesPerFrame);
+		for (int pos = 0; pos < pcm.capacity(); pos += BUFFER_SIZE) {
+			ByteBuffer chunk = slice(pos);
+			engine.process(chunk.asShortBuffer());
+		}
+		engine.flush();
+		return engine.getPeaks();
+	}
+
+	@Benchmark
+	public int[] legacyLoop() {
+		int[] oneFrameAmps = new int[samplesPerFrame * channelCount];
+		int frameIndex = 0;
+		IntArrayList gains = new IntArrayList();
+		for (int pos = 0; pos < pcm.capacity(); pos += BUFFER_SIZE) {
+			ByteBuffer outputBuffer = slice(pos);
+			while (outputBuffer.remaining() > 0) {
+				oneFrameAmps[frameIndex] = outputBuffer.getShort();
+				frameIndex++;
+				if (frameIndex >= oneFrameAmps.length - 1) {
+					int gain = -1;
+					for (int j = 0; j < oneFrameAmps.length; j += channelCount) {
+						int value = 0;
+						for (int k = 0; k < channelCount; k++) {
+							value += oneFrameAmps[j + k];
+						}
+						value /= channelCount;
+						if (gain < value) {
+							gain = value;
+						}
+					}
+					gains.add((int) Math.sqrt(gain));
+					frameIndex = 0;
+				}
+			}
+		}
+		return gains.getData();
+	}
+
+	private ByteBuffer slice(int pos) {
+		ByteBuffer buffer = pcm.duplicate();
+		buffer.position(pos);
+		buffer.limit(Math.min(pos + BUFFER_SIZE, pcm.capacity()));
+		return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}